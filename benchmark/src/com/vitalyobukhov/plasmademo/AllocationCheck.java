@@ -0,0 +1,395 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Desktop JVM check of steady state frame loop allocations.
+ * <p>
+ * Runs rendering of every supported {@link PlasmaCore.Mode} on caller and worker threads,
+ * hits of {@link FrameCache} in every storage format, and then drawing loop of {@link MainView} without Android parts: {@link UpdateThread} pacing,
+ * frames taken from {@link FramePipeline} or blended by {@link KeyframeInterpolator},
+ * frame stats, {@link OverlayText} and {@link FrameTrace}, with and without resizes of plasma which take frames from
+ * {@link BufferPool}. After warm up bytes allocated by every thread of the loop
+ * are measured over thousands of frames, check fails on any allocated byte.
+ * Compilation of hot code by JIT allocates few hundred bytes once in a while, so case is measured
+ * in up to {@link #WINDOW_COUNT} windows and passes on first window without allocations,
+ * allocation of every frame fails all windows.
+ * <p>
+ * Arguments are optional <code>key=value</code> pairs:
+ * <ul>
+ *     <li><code>frames=3000</code> minimum count of measured frames per case</li>
+ *     <li><code>warmup=1000</code> warm up milliseconds per case</li>
+ * </ul>
+ *
+ * @author Vitaly Obukhov
+ * @version 1.4
+ */
+public final class AllocationCheck {
+
+
+    private static final int WIDTH = 192;
+    private static final int HEIGHT = 108;
+    private static final long SEED = 20121014L;
+    private static final int THREAD_COUNT = 2;
+    private static final String WORKER_NAME = "Plasma worker";
+
+    /* drawing loop runs as fast as it is allowed to */
+    private static final int FPS = UpdateThread.FPS_MAX;
+    private static final int STATS_WINDOW_FRAMES = 100;
+
+    /* rotations and window resizes cycled by rendering thread */
+    private static final int[][] RESIZE_SIZES = { { WIDTH, HEIGHT }, { HEIGHT, WIDTH }, { 160, 90 }, { 96, 54 } };
+    private static final int RESIZE_FRAMES = 10;
+
+    /* cached frames cycled by cache hits */
+    private static final int CACHE_FRAMES = 4;
+    private static final long CACHE_QUANTUM = 10;
+
+    private static final int WINDOW_COUNT = 5;
+    private static final long POLL_DELAY = 10;
+    private static final long STOP_TIMEOUT = 1000;
+
+
+    /* parameters */
+    private long frameCount = 3000;
+    private long warmupTime = 1000;
+
+    private int failures;
+
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        AllocationCheck check = new AllocationCheck();
+        check.parse(args);
+        System.exit(check.run() ? 0 : 1);
+    }
+
+    /**
+     * Runs all cases.
+     *
+     * @return                      <code>true</code> if nothing failed
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IOException          if trace file can not be created
+     */
+    private boolean run() throws InterruptedException, IOException {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("allocated bytes are not supported by JVM");
+            return false;
+        }
+
+        for (PlasmaCore.Mode mode : PlasmaCore.Mode.values()) {
+            if (!mode.isSupported()) {
+                continue;
+            }
+
+            for (int threadCount : new int[] { 1, THREAD_COUNT }) {
+                PlasmaConfig config = new PlasmaConfig(SEED);
+                config.setMode(mode);
+                config.setThreadCount(threadCount);
+                checkRender(mode + " x" + threadCount, config, false);
+                checkRender(mode + " x" + threadCount + " sink", config, true);
+            }
+        }
+
+        PlasmaConfig config = new PlasmaConfig(SEED);
+        config.setSourcesPerChannel(PlasmaCore.SOURCES_PER_CHANNEL_DEFAULT + 1);
+        config.setThreadCount(THREAD_COUNT);
+        checkRender("sources x" + THREAD_COUNT, config, false);
+
+        config = new PlasmaConfig(SEED);
+        config.setLatticeStep(4);
+        config.setThreadCount(THREAD_COUNT);
+        checkRender("lattice x" + THREAD_COUNT, config, false);
+
+        config = new PlasmaConfig(SEED);
+        config.addLayer(new PlasmaLayer(SEED + 1, PlasmaLayer.Blend.MULTIPLY, 0.5));
+        config.setThreadCount(THREAD_COUNT);
+        checkRender("layers x" + THREAD_COUNT, config, false);
+
+        for (FrameCache.Storage storage : FrameCache.Storage.values()) {
+            checkCache(storage);
+        }
+
+        checkDrawing(false, false);
+        checkDrawing(true, false);
+        checkDrawing(false, true);
+        checkDrawing(true, true);
+
+        System.out.println(failures == 0 ? "OK" : "FAILED " + failures);
+        return failures == 0;
+    }
+
+    /**
+     * Renders frames as fast as possible.
+     *
+     * @param name      case name
+     * @param config    plasma configuration
+     * @param isSink    <code>true</code> to render into {@link Frame}, <code>false</code> to render into array
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void checkRender(String name, PlasmaConfig config, final boolean isSink) throws InterruptedException {
+        final PlasmaCore core = new PlasmaCore(WIDTH, HEIGHT, config);
+        final Loop loop = new Loop();
+        final int[] pixels = new int[WIDTH * HEIGHT];
+        final Frame frame = new Frame(WIDTH * HEIGHT);
+
+        Thread thread = new Thread(name) {
+            @Override
+            public void run() {
+                long time = 0;
+                while (loop.isRunning) {
+                    if (isSink) {
+                        core.render(time, frame);
+                    } else {
+                        core.render(time, pixels, 0, WIDTH);
+                    }
+                    time += 10;
+                    loop.frames++;
+                }
+            }
+        };
+
+        try {
+            measure(name, loop, thread);
+        } finally {
+            core.release();
+        }
+    }
+
+    /**
+     * Takes frames which are all cached after first pass.
+     *
+     * @param storage   frame storage format
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void checkCache(FrameCache.Storage storage) throws InterruptedException {
+        final PlasmaCore core = new PlasmaCore(WIDTH, HEIGHT, new PlasmaConfig(SEED));
+        final FrameCache cache = new FrameCache(core, CACHE_QUANTUM,
+                (long)CACHE_FRAMES * WIDTH * HEIGHT * storage.getBytesPerPixel(), storage);
+        final Loop loop = new Loop();
+        final int[] pixels = new int[WIDTH * HEIGHT];
+
+        Thread thread = new Thread("cache " + storage) {
+            @Override
+            public void run() {
+                while (loop.isRunning) {
+                    cache.render(loop.frames % CACHE_FRAMES * CACHE_QUANTUM, pixels, 0, WIDTH);
+                    loop.frames++;
+                }
+            }
+        };
+
+        try {
+            measure("cache hit " + storage, loop, thread);
+        } finally {
+            core.release();
+        }
+
+        if (cache.getMissCount() != CACHE_FRAMES) {
+            failures++;
+            System.out.println("FAIL   cache hit " + storage + " misses " + cache.getMissCount());
+        }
+    }
+
+    /**
+     * Runs drawing loop of {@link MainView} with plasma rendering thread.
+     *
+     * @param isInterpolating   <code>true</code> to blend keyframes, <code>false</code> to present frames of pipeline
+     * @param isResizing        <code>true</code> to cycle plasma through {@link #RESIZE_SIZES}
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IOException          if trace file can not be created
+     */
+    private void checkDrawing(final boolean isInterpolating, final boolean isResizing)
+            throws InterruptedException, IOException {
+        PlasmaConfig config = new PlasmaConfig(SEED);
+        config.setThreadCount(THREAD_COUNT);
+        final PlasmaCore core = new PlasmaCore(WIDTH, HEIGHT, config);
+        final BufferPool pool = new BufferPool();
+        final KeyframeInterpolator interpolator = new KeyframeInterpolator(core, 4, pool);
+        final FramePipeline pipeline = new FramePipeline(3, WIDTH * HEIGHT, false, pool);
+        final Frame interpolatedFrame = new Frame(WIDTH * HEIGHT);
+        final FrameStats frameStats = new FrameStats();
+        final FrameStats lastFrameStats = new FrameStats();
+        final OverlayText overlayText = new OverlayText(UpdateThread.FPS_MAX);
+        final ResolutionGovernor governor = new ResolutionGovernor(1, 0);
+        final File traceFile = File.createTempFile("plasma", ".trace");
+        final FrameTrace trace = new FrameTrace(traceFile, FrameTrace.CAPACITY_DEFAULT);
+        final long start = System.currentTimeMillis();
+        final Loop loop = new Loop();
+
+        final UpdateThread updateThread = new UpdateThread() {
+            @Override
+            public void update() {
+                long startTime = System.nanoTime();
+                long time = System.currentTimeMillis() - start;
+                if (isInterpolating) {
+                    interpolator.render(time, interpolatedFrame);
+                } else {
+                    Frame frame = pipeline.takeLatest();
+                    if (frame != null) {
+                        pipeline.release(frame);
+                    }
+                }
+
+                char[] fpsText = overlayText.getFpsText(getRealFps());
+                loop.checksum += fpsText.length + overlayText.getStatsLine(1)[0];
+                frameStats.record(FrameStats.Stage.FRAME, System.nanoTime() - startTime);
+
+                if (++loop.frames % STATS_WINDOW_FRAMES == 0) {
+                    frameStats.moveTo(lastFrameStats);
+                    overlayText.update(lastFrameStats);
+                }
+            }
+        };
+        updateThread.setFps(FPS);
+        updateThread.setRealFpsUpdateDelay(100);
+        updateThread.setTrace(trace);
+
+        Thread renderThread = new Thread("render") {
+            @Override
+            public void run() {
+                try {
+                    for (int count = 0; loop.isRunning; count++) {
+                        if (isResizing && count % RESIZE_FRAMES == 0) {
+                            int[] size = RESIZE_SIZES[count / RESIZE_FRAMES % RESIZE_SIZES.length];
+                            core.resize(size[0], size[1]);
+                            pipeline.setFrameSize(size[0] * size[1]);
+                        }
+
+                        long budget = FrameScheduler.NANOSECONDS_IN_SECOND / updateThread.getFps();
+                        long time = System.currentTimeMillis() - start;
+                        if (isInterpolating) {
+                            interpolator.setFramePeriod(budget);
+                            interpolator.renderKeyframe(time);
+                        } else {
+                            Frame frame = pipeline.acquire();
+                            core.render(time, frame);
+                            pipeline.publish(frame);
+                        }
+
+                        frameStats.record(FrameStats.Stage.TRAJECTORY, core.getTrajectoryTime());
+                        frameStats.record(FrameStats.Stage.FIELD, core.getFieldTime());
+                        trace.record(FrameTrace.Event.STAGE, FrameStats.Stage.FIELD.ordinal(),
+                                System.nanoTime() - core.getFieldTime(), core.getFieldTime());
+                        governor.update(core.getTrajectoryTime() + core.getFieldTime(), budget);
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+
+        try {
+            measure((isInterpolating ? "drawing keyframes" : "drawing pipeline") + (isResizing ? " resizing" : ""),
+                    loop, updateThread, renderThread);
+        } finally {
+            updateThread.end();
+            renderThread.interrupt();
+            renderThread.join(STOP_TIMEOUT);
+            core.release();
+            trace.close();
+            traceFile.delete();
+        }
+    }
+
+    /**
+     * Starts loop threads, measures their allocations and workers allocations after warm up and stops loop.
+     *
+     * @param name      case name
+     * @param loop      loop state
+     * @param threads   loop threads, first one counts frames
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void measure(String name, Loop loop, Thread... threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(warmupTime);
+
+        List<Thread> measured = new ArrayList<Thread>();
+        for (Thread thread : threads) {
+            measured.add(thread);
+        }
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(WORKER_NAME)) {
+                measured.add(thread);
+            }
+        }
+        long[] ids = new long[measured.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = measured.get(i).getId();
+        }
+
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long frames = 0;
+        long allocated = 0;
+        int window = 0;
+        do {
+            long[] before = bean.getThreadAllocatedBytes(ids);
+            frames = loop.frames;
+            while (loop.frames - frames < frameCount) {
+                Thread.sleep(POLL_DELAY);
+            }
+            long[] after = bean.getThreadAllocatedBytes(ids);
+            frames = loop.frames - frames;
+
+            /* allocations of finished threads are not known */
+            allocated = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (before[i] >= 0 && after[i] >= 0) {
+                    allocated += after[i] - before[i];
+                }
+            }
+        } while (allocated != 0 && ++window < WINDOW_COUNT);
+
+        loop.isRunning = false;
+        for (Thread thread : threads) {
+            thread.join(STOP_TIMEOUT);
+        }
+
+        boolean isPassed = allocated == 0;
+        if (!isPassed) {
+            failures++;
+        }
+        System.out.println(String.format(Locale.US, "%-6s %-26s %8d frames %3d threads %10d bytes  window %d",
+                isPassed ? "ok" : "FAIL", name, frames, ids.length, allocated, Math.min(window + 1, WINDOW_COUNT)));
+    }
+
+    /**
+     * Parses <code>key=value</code> arguments.
+     *
+     * @param args  command line arguments
+     */
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i < 0) {
+                throw new IllegalArgumentException(arg);
+            }
+            String key = arg.substring(0, i);
+            String value = arg.substring(i + 1);
+
+            if (key.equals("frames")) {
+                frameCount = Long.parseLong(value);
+            } else if (key.equals("warmup")) {
+                warmupTime = Long.parseLong(value);
+            } else {
+                throw new IllegalArgumentException(arg);
+            }
+        }
+    }
+
+
+    /**
+     * State shared by loop threads and measuring thread.
+     */
+    private static final class Loop {
+        volatile boolean isRunning = true;
+        volatile long frames;
+        long checksum;
+    }
+}
@@ -0,0 +1,373 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Desktop JVM check that {@link PlasmaCore.Mode#DOUBLE} frames are bit-exact with original plasma.
+ * <p>
+ * {@link Reference} is the original per-pixel loop of <code>Plasma.getBitmap</code>: columns outer,
+ * all twelve attractors / repulsors coordinates recalculated for every pixel.
+ * Frames of both are rendered for the same seed and times on one and several threads
+ * and every pixel must be equal. Golden frames of {@link PlasmaRegression} are recorded
+ * from {@link PlasmaCore}, so they do not cover this.
+ * Frames presented by {@link KeyframeInterpolator} must also equal rendered ones
+ * while keyframes fit frame period or blending is off.
+ * <p>
+ * Arguments are optional <code>key=value</code> pairs:
+ * <ul>
+ *     <li><code>frames=20</code> count of compared times per size</li>
+ *     <li><code>seed=20121014</code> plasma seed</li>
+ * </ul>
+ *
+ * @author Vitaly Obukhov
+ * @version 1.1
+ */
+public final class ExactnessCheck {
+
+
+    /* odd sizes are not multiple of tile size */
+    private static final int[][] SIZES = { { 192, 108 }, { 37, 23 }, { 1, 1 }, { 480, 270 } };
+    private static final int THREAD_COUNT = 3;
+
+    /* times step over several bounces, last ones are far beyond first day */
+    private static final long TIME_STEP = 997;
+    private static final long[] LONG_TIMES = { 86400000L, 1234567890123L };
+
+    /* frame periods far above and below keyframe cost */
+    private static final long LONG_PERIOD = FrameScheduler.NANOSECONDS_IN_SECOND * 60;
+    private static final long SHORT_PERIOD = 1;
+    private static final int KEYFRAME_INTERVAL_FRAMES_MAX = 4;
+
+
+    /* parameters */
+    private int frameCount = 20;
+    private long seed = 20121014L;
+
+    private int failures;
+
+
+    public static void main(String[] args) throws InterruptedException {
+        ExactnessCheck check = new ExactnessCheck();
+        check.parse(args);
+        System.exit(check.run() ? 0 : 1);
+    }
+
+    /**
+     * Runs all cases.
+     *
+     * @return                      <code>true</code> if nothing failed
+     * @throws InterruptedException never, keyframes are rendered by the same thread
+     */
+    private boolean run() throws InterruptedException {
+        for (int[] size : SIZES) {
+            for (int threadCount : new int[] { 1, THREAD_COUNT }) {
+                check(size[0], size[1], threadCount);
+            }
+        }
+        checkKeyframes(LONG_PERIOD, true);
+        checkKeyframes(SHORT_PERIOD, false);
+
+        System.out.println(failures == 0 ? "OK" : "FAILED " + failures);
+        return failures == 0;
+    }
+
+    /**
+     * Compares frames of one size.
+     *
+     * @param width         frame width
+     * @param height        frame height
+     * @param threadCount   count of field threads of {@link PlasmaCore}
+     */
+    private void check(int width, int height, int threadCount) {
+        PlasmaConfig config = new PlasmaConfig(seed);
+        config.setMode(PlasmaCore.Mode.DOUBLE);
+        config.setThreadCount(threadCount);
+        PlasmaCore core = new PlasmaCore(width, height, config);
+        Reference reference = new Reference(width, height, seed);
+        int[] expected = new int[width * height];
+        int[] actual = new int[width * height];
+
+        long pixelCount = 0;
+        long diffCount = 0;
+        int diffMax = 0;
+        for (int i = 0; i < frameCount + LONG_TIMES.length; i++) {
+            long time = i < frameCount ? i * TIME_STEP : LONG_TIMES[i - frameCount];
+            reference.render(time, expected);
+            core.render(time, actual, 0, width);
+
+            for (int p = 0; p < expected.length; p++) {
+                if (expected[p] != actual[p]) {
+                    diffCount++;
+                    for (int shift = 0; shift < 32; shift += 8) {
+                        int diff = Math.abs(((expected[p] >> shift) & 0xff) - ((actual[p] >> shift) & 0xff));
+                        diffMax = Math.max(diffMax, diff);
+                    }
+                }
+            }
+            pixelCount += expected.length;
+        }
+        core.release();
+
+        boolean isPassed = diffCount == 0;
+        if (!isPassed) {
+            failures++;
+        }
+        System.out.println((isPassed ? "ok     " : "FAIL   ") + width + "x" + height + " x" + threadCount + " "
+                + diffCount + " of " + pixelCount + " pixels differ, max difference " + diffMax);
+    }
+
+    /**
+     * Presents frames of keyframes rendered one at a time, every presented frame must equal frame
+     * of its keyframe time rendered by other core, so nothing is blended.
+     *
+     * @param framePeriod   display frame period of interpolator
+     * @param isBlending    blending setting of interpolator
+     * @throws InterruptedException never, keyframe is presented before the next one is rendered
+     */
+    private void checkKeyframes(long framePeriod, boolean isBlending) throws InterruptedException {
+        int width = SIZES[0][0];
+        int height = SIZES[0][1];
+        PlasmaConfig config = new PlasmaConfig(seed);
+        config.setMode(PlasmaCore.Mode.DOUBLE);
+        PlasmaCore core = new PlasmaCore(width, height, config);
+        PlasmaCore expectedCore = new PlasmaCore(width, height, config);
+        KeyframeInterpolator interpolator = new KeyframeInterpolator(core, KEYFRAME_INTERVAL_FRAMES_MAX);
+        interpolator.setFramePeriod(framePeriod);
+        interpolator.setBlending(isBlending);
+        int[] expected = new int[width * height];
+        int[] actual = new int[width * height];
+
+        long frameDiffCount = 0;
+        int intervalFramesMax = 0;
+        for (int i = 0; i < frameCount; i++) {
+            long time = i * TIME_STEP;
+            interpolator.renderKeyframe(time);
+            intervalFramesMax = Math.max(intervalFramesMax, interpolator.getIntervalFrames());
+
+            /* presenting is later than keyframe time */
+            interpolator.render(time + TIME_STEP / 2, actual, 0, width);
+            expectedCore.render(time, expected, 0, width);
+            if (!Arrays.equals(expected, actual)) {
+                frameDiffCount++;
+            }
+        }
+        core.release();
+        expectedCore.release();
+
+        boolean isPassed = frameDiffCount == 0 && intervalFramesMax == 1;
+        if (!isPassed) {
+            failures++;
+        }
+        System.out.println((isPassed ? "ok     " : "FAIL   ") + "keyframes period " + framePeriod + " ns blending "
+                + isBlending + " " + frameDiffCount + " of " + frameCount + " frames differ, interval frames "
+                + intervalFramesMax);
+    }
+
+    /**
+     * Parses <code>key=value</code> arguments.
+     *
+     * @param args  command line arguments
+     */
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i < 0) {
+                throw new IllegalArgumentException(arg);
+            }
+            String key = arg.substring(0, i);
+            String value = arg.substring(i + 1);
+
+            if (key.equals("frames")) {
+                frameCount = Integer.parseInt(value);
+            } else if (key.equals("seed")) {
+                seed = Long.parseLong(value);
+            } else {
+                throw new IllegalArgumentException(arg);
+            }
+        }
+
+        if (frameCount < 0) {
+            throw new IllegalArgumentException("frames");
+        }
+    }
+
+
+    /**
+     * Original plasma effect logic with random generator of given seed and without Android bitmap.
+     */
+    private static final class Reference {
+
+        /* color constants */
+        private final int COLOR_VAL_MAX = 255;
+        private final int COLOR_VAL_HALF = 127;
+        private final int COLOR_VAL_MIN = 0;
+
+        /* speed constants */
+        private final double SPEED_MIN_DIV = 40.0;
+        private final double SPEED_MAX_DIV = 20.0;
+        private final double TIME_DIV = 100.0;
+
+        /* dimensions */
+        private final int width;
+        private final int height;
+        private final double diag;
+
+        /* initial coordinates */
+        private final double rcx1, rcy1, gcx1, gcy1, bcx1, bcy1;
+        private final double rcx2, rcy2, gcx2, gcy2, bcx2, bcy2;
+
+        /* speeds */
+        private final double rsx1, rsy1, gsx1, gsy1, bsx1, bsy1;
+        private final double rsx2, rsy2, gsx2, gsy2, bsx2, bsy2;
+
+
+        Reference(int width, int height, long seed) {
+            /* init dimensions */
+            this.width = width;
+            this.height = height;
+            diag = Math.sqrt(width * width + height * height);
+
+            Random rnd = new Random(seed);
+
+            /* attractors coordinates */
+            rcx1 = rnd.nextDouble() * width;
+            rcy1 = rnd.nextDouble() * height;
+            gcx1 = rnd.nextDouble() * width;
+            gcy1 = rnd.nextDouble() * height;
+            bcx1 = rnd.nextDouble() * width;
+            bcy1 = rnd.nextDouble() * height;
+
+            /* repulsors coordinates*/
+            rcx2 = rnd.nextDouble() * width;
+            rcy2 = rnd.nextDouble() * height;
+            gcx2 = rnd.nextDouble() * width;
+            gcy2 = rnd.nextDouble() * height;
+            bcx2 = rnd.nextDouble() * width;
+            bcy2 = rnd.nextDouble() * height;
+
+            /* speed constants */
+            double sxb = 1.0 * width / SPEED_MIN_DIV;
+            double sxa = 1.0 * width / SPEED_MAX_DIV;
+            double syb = 1.0 * height / SPEED_MIN_DIV;
+            double sya = 1.0 * height / SPEED_MAX_DIV;
+
+            /* attractors speeds */
+            rsx1 = syb + rnd.nextDouble() * sxa;
+            rsy1 = sxb + rnd.nextDouble() * sya;
+            gsx1 = sxb + rnd.nextDouble() * sxa;
+            gsy1 = sxb + rnd.nextDouble() * sya;
+            bsx1 = sxb + rnd.nextDouble() * sxa;
+            bsy1 = sxb + rnd.nextDouble() * sya;
+
+            /* repulsors speeds */
+            rsx2 = sxb + rnd.nextDouble() * sxa;
+            rsy2 = sxb + rnd.nextDouble() * sya;
+            gsx2 = sxb + rnd.nextDouble() * sxa;
+            gsy2 = sxb + rnd.nextDouble() * sya;
+            bsx2 = sxb + rnd.nextDouble() * sxa;
+            bsy2 = sxb + rnd.nextDouble() * sya;
+        }
+
+        /**
+         * Calculates plasma effect image.
+         *
+         * @param time      desired time
+         * @param pixels    destination ARGB pixels, row after row
+         */
+        void render(long time, int[] pixels) {
+            /* scale time */
+            double t = time / TIME_DIV;
+
+            /* new coordinates and color parts*/
+            double rcx1n, rcy1n, gcx1n, gcy1n, bcx1n, bcy1n;
+            double rcx2n, rcy2n, gcx2n, gcy2n, bcx2n, bcy2n;
+            double rn, gn, bn;
+
+            /* cycle each pixel */
+            for(int x = 0; x < width; x++) {
+                for(int y = 0; y < height; y++) {
+                    /* calculate new coordinates */
+                    rcx1n = getNewCord(rcx1, rsx1, width, t);
+                    rcy1n = getNewCord(rcy1, rsy1, height, t);
+                    gcx1n = getNewCord(gcx1, gsx1, width, t);
+                    gcy1n = getNewCord(gcy1, gsy1, height, t);
+                    bcx1n = getNewCord(bcx1, bsx1, width, t);
+                    bcy1n = getNewCord(bcy1, bsy1, height, t);
+
+                    rcx2n = getNewCord(rcx2, rsx2, width, t);
+                    rcy2n = getNewCord(rcy2, rsy2, height, t);
+                    gcx2n = getNewCord(gcx2, gsx2, width, t);
+                    gcy2n = getNewCord(gcy2, gsy2, height, t);
+                    bcx2n = getNewCord(bcx2, bsx2, width, t);
+                    bcy2n = getNewCord(bcy2, bsy2, height, t);
+
+                    /* calculate new color parts using current coordinates and related attractors / repulsors weight */
+                    rn = COLOR_VAL_HALF + COLOR_VAL_MAX * (getColorWeight(rcx1n, rcy1n, x, y) - getColorWeight(rcx2n, rcy2n, x, y));
+                    gn = COLOR_VAL_HALF + COLOR_VAL_MAX * (getColorWeight(gcx1n, gcy1n, x, y) - getColorWeight(gcx2n, gcy2n, x, y));
+                    bn = COLOR_VAL_HALF + COLOR_VAL_MAX * (getColorWeight(bcx1n, bcy1n, x, y) - getColorWeight(bcx2n, bcy2n, x, y));
+
+                    /* fix color parts */
+                    rn = rn > COLOR_VAL_MAX ? COLOR_VAL_MAX : (rn < COLOR_VAL_MIN ? COLOR_VAL_MIN : rn);
+                    gn = gn > COLOR_VAL_MAX ? COLOR_VAL_MAX : (gn < COLOR_VAL_MIN ? COLOR_VAL_MIN : gn);
+                    bn = bn > COLOR_VAL_MAX ? COLOR_VAL_MAX : (bn < COLOR_VAL_MIN ? COLOR_VAL_MIN : bn);
+
+                    /* set color */
+                    pixels[y * width + x] = (255 << 24) | ((int)rn << 16) | ((int)gn << 8) | (int)bn;
+                }
+            }
+        }
+
+        /**
+         * Calculates actual object coordinate.
+         *
+         * @param cord      initial object coordinate
+         * @param speed     object speed
+         * @param size      area size
+         * @param time      desired time
+         * @return          new object coordinate
+         */
+        private double getNewCord(double cord, double speed, double size, double time) {
+            /* new coordinate remainder */
+            double rem = (speed * time) % (2.0 * size);
+            double val;
+
+            /* object in area scope */
+            if (cord + rem >= 0.0 && cord + rem < size){
+                val = cord + rem;
+            /* object has left area scope */
+            } else if (cord + rem > size) {
+                if (cord + rem > 2.0 * size) {
+                    val = cord + rem - 2.0 * size;
+                } else {
+                    val = size - (cord + rem - size);
+                }
+            } else {
+                if ( cord + rem < -1.0 * size) {
+                    val = size - (-1.0 * (cord + rem) - size);
+                } else {
+                    val = -1.0 * (cord + rem);
+                }
+            }
+
+            return val;
+        }
+
+        /**
+         * Calculates color weight metric.
+         *
+         * @param cx    object x coordinate
+         * @param cy    object y coordinate
+         * @param tx    target x coordinate
+         * @param ty    target y coordinate
+         * @return      color weight metric from 0 to 1
+         */
+        private double getColorWeight(double cx, double cy, double tx, double ty) {
+            double dx = cx - tx;
+            double dy = cy - ty;
+
+            return 1.0 - Math.sqrt(dx * dx + dy * dy) / diag;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Random;
+
+
+/**
+ * Desktop JVM check of {@link FrameCache} counters, eviction order and returned frames.
+ * <p>
+ * Scripted sequence of times checks hits, misses and evictions of least recently used frames,
+ * random sequence is compared with reference LRU model of the same capacity.
+ * Cached frames must equal frames of {@link PlasmaCore} for quantized time, lossy storage
+ * must return the same frame on miss and on hit, and used bytes must never exceed budget.
+ * Concurrent requests of several threads must get the same frames as single thread does.
+ * <p>
+ * Arguments are optional <code>key=value</code> pairs:
+ * <ul>
+ *     <li><code>requests=100000</code> count of random requests</li>
+ *     <li><code>seed=1</code> random requests seed</li>
+ * </ul>
+ *
+ * @author Vitaly Obukhov
+ * @version 1.1
+ */
+public final class FrameCacheCheck {
+
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 36;
+    private static final long PLASMA_SEED = 20121014L;
+    private static final long QUANTUM = 10;
+
+    /* random requests */
+    private static final int RANDOM_WIDTH = 8;
+    private static final int RANDOM_HEIGHT = 8;
+    private static final int RANDOM_CAPACITY = 50;
+    private static final int RANDOM_TIMES = 200;
+
+    /* concurrent requests */
+    private static final int CONCURRENT_THREAD_COUNT = 3;
+    private static final int CONCURRENT_TIMES = 40;
+    private static final int CONCURRENT_CAPACITY = 10;
+
+    /* RGB 565 channel error after expansion to 8 bits */
+    private static final int RGB_565_ERROR_MAX = 7;
+
+
+    /* parameters */
+    private int requestCount = 100000;
+    private long seed = 1;
+
+    private int failures;
+
+
+    public static void main(String[] args) throws InterruptedException {
+        FrameCacheCheck check = new FrameCacheCheck();
+        check.parse(args);
+        System.exit(check.run() ? 0 : 1);
+    }
+
+    /**
+     * Runs all cases.
+     *
+     * @return                      <code>true</code> if nothing failed
+     * @throws InterruptedException if interrupted while waiting for threads
+     */
+    private boolean run() throws InterruptedException {
+        for (FrameCache.Storage storage : FrameCache.Storage.values()) {
+            checkScript(storage);
+            checkUncached(storage);
+            checkRandom(storage);
+            checkConcurrent(storage);
+        }
+
+        System.out.println(failures == 0 ? "OK" : "FAILED " + failures);
+        return failures == 0;
+    }
+
+    /**
+     * Requests scripted times from cache of three frames.
+     *
+     * @param storage   frame storage format
+     */
+    private void checkScript(FrameCache.Storage storage) {
+        PlasmaCore core = new PlasmaCore(WIDTH, HEIGHT, new PlasmaConfig(PLASMA_SEED));
+        long frameBytes = (long)WIDTH * HEIGHT * storage.getBytesPerPixel();
+        FrameCache cache = new FrameCache(core, QUANTUM, frameBytes * 3 + frameBytes / 2, storage);
+        int[] miss = new int[WIDTH * HEIGHT];
+        int[] hit = new int[WIDTH * HEIGHT];
+        int[] exact = new int[WIDTH * HEIGHT];
+
+        /* misses of 0, 10, 20 */
+        cache.render(0, miss, 0, WIDTH);
+        cache.render(QUANTUM, hit, 0, WIDTH);
+        cache.render(QUANTUM * 2, hit, 0, WIDTH);
+        report(cache.getHitCount() == 0 && cache.getMissCount() == 3 && cache.getEvictionCount() == 0
+                && cache.getFrameCount() == 3, storage + " fill " + describe(cache));
+
+        /* hit of 0 within quantum makes 10 least recently used */
+        cache.render(QUANTUM - 1, hit, 0, WIDTH);
+        core.render(0, exact, 0, WIDTH);
+        report(cache.getHitCount() == 1 && Arrays.equals(miss, hit), storage + " hit equals miss");
+        int error = getError(exact, hit);
+        report(storage == FrameCache.Storage.ARGB_8888 ? error == 0 : error <= RGB_565_ERROR_MAX,
+                storage + " hit error " + error);
+
+        /* 30 evicts 10, 20 and 0 are hits, 10 evicts 30 */
+        cache.render(QUANTUM * 3, hit, 0, WIDTH);
+        cache.render(QUANTUM * 2, hit, 0, WIDTH);
+        cache.render(0, hit, 0, WIDTH);
+        cache.render(QUANTUM, hit, 0, WIDTH);
+        cache.render(QUANTUM * 2, hit, 0, WIDTH);
+        cache.render(0, hit, 0, WIDTH);
+        report(cache.getHitCount() == 5 && cache.getMissCount() == 5 && cache.getEvictionCount() == 2
+                && cache.getFrameCount() == 3 && cache.getUsedBytes() <= cache.getBudget(),
+                storage + " evict least recently used " + describe(cache));
+
+        /* negative time is rounded down */
+        cache.render(-1, miss, 0, WIDTH);
+        core.render(-QUANTUM, exact, 0, WIDTH);
+        error = getError(exact, miss);
+        report(cache.getQuantizedTime(-1) == -QUANTUM
+                && (storage == FrameCache.Storage.ARGB_8888 ? error == 0 : error <= RGB_565_ERROR_MAX),
+                storage + " negative time error " + error);
+
+        /* strided target is filled row by row and gap is not touched */
+        int stride = WIDTH + 3;
+        int[] strided = new int[1 + stride * HEIGHT];
+        Arrays.fill(strided, 1);
+        cache.render(0, strided, 1, stride);
+        cache.render(0, miss, 0, WIDTH);
+        boolean isValid = strided[0] == 1;
+        for (int y = 0; y < HEIGHT && isValid; y++) {
+            for (int x = 0; x < stride && isValid; x++) {
+                int value = strided[1 + y * stride + x];
+                isValid = x < WIDTH ? value == miss[x + y * WIDTH] : value == 1;
+            }
+        }
+        report(isValid, storage + " strided target");
+
+        /* resize drops frames */
+        core.resize(HEIGHT, WIDTH);
+        int[] rotated = new int[WIDTH * HEIGHT];
+        cache.render(0, rotated, 0, HEIGHT);
+        report(cache.getFrameCount() == 1 && cache.getUsedBytes() <= cache.getBudget(),
+                storage + " resize " + describe(cache));
+
+        cache.clear();
+        report(cache.getFrameCount() == 0 && cache.getUsedBytes() == 0, storage + " clear " + describe(cache));
+        core.release();
+    }
+
+    /**
+     * Requests frames from cache with budget below one frame.
+     *
+     * @param storage   frame storage format
+     */
+    private void checkUncached(FrameCache.Storage storage) {
+        PlasmaCore core = new PlasmaCore(WIDTH, HEIGHT, new PlasmaConfig(PLASMA_SEED));
+        FrameCache cache = new FrameCache(core, QUANTUM, (long)WIDTH * HEIGHT * storage.getBytesPerPixel() - 1,
+                storage);
+        int[] first = new int[WIDTH * HEIGHT];
+        int[] second = new int[WIDTH * HEIGHT];
+
+        cache.render(0, first, 0, WIDTH);
+        cache.render(1, second, 0, WIDTH);
+        report(cache.getHitCount() == 0 && cache.getMissCount() == 2 && cache.getFrameCount() == 0
+                && cache.getUsedBytes() == 0 && Arrays.equals(first, second),
+                storage + " over budget " + describe(cache));
+        core.release();
+    }
+
+    /**
+     * Requests random times and compares counters and frames with reference model.
+     *
+     * @param storage   frame storage format
+     */
+    private void checkRandom(FrameCache.Storage storage) {
+        PlasmaCore core = new PlasmaCore(RANDOM_WIDTH, RANDOM_HEIGHT, new PlasmaConfig(PLASMA_SEED));
+        int size = RANDOM_WIDTH * RANDOM_HEIGHT;
+        FrameCache cache = new FrameCache(core, QUANTUM,
+                (long)RANDOM_CAPACITY * size * storage.getBytesPerPixel(), storage);
+
+        /* frames as cache returns them */
+        int[][] frames = new int[RANDOM_TIMES][size];
+        FrameCache reference = new FrameCache(core, QUANTUM, 0, storage);
+        for (int i = 0; i < RANDOM_TIMES; i++) {
+            reference.render(i * QUANTUM, frames[i], 0, RANDOM_WIDTH);
+        }
+
+        LinkedHashSet<Integer> model = new LinkedHashSet<Integer>();
+        long hits = 0;
+        long evictions = 0;
+        Random random = new Random(seed);
+        int[] pixels = new int[size];
+        boolean isValid = true;
+        for (int i = 0; i < requestCount && isValid; i++) {
+            /* skewed towards low times */
+            int index = Math.min(random.nextInt(RANDOM_TIMES), random.nextInt(RANDOM_TIMES));
+            if (model.remove(index)) {
+                hits++;
+            } else if (model.size() == RANDOM_CAPACITY) {
+                Iterator<Integer> eldest = model.iterator();
+                eldest.next();
+                eldest.remove();
+                evictions++;
+            }
+            model.add(index);
+
+            cache.render(index * QUANTUM + random.nextInt((int)QUANTUM), pixels, 0, RANDOM_WIDTH);
+            isValid = Arrays.equals(frames[index], pixels) && cache.getHitCount() == hits
+                    && cache.getEvictionCount() == evictions && cache.getUsedBytes() <= cache.getBudget();
+        }
+        report(isValid && cache.getFrameCount() == RANDOM_CAPACITY,
+                storage + " random " + describe(cache));
+        core.release();
+    }
+
+    /**
+     * Requests random times from several threads, misses of different threads overlap.
+     *
+     * @param storage   frame storage format
+     * @throws InterruptedException if interrupted while waiting for threads
+     */
+    private void checkConcurrent(FrameCache.Storage storage) throws InterruptedException {
+        final PlasmaCore core = new PlasmaCore(WIDTH, HEIGHT, new PlasmaConfig(PLASMA_SEED));
+        int size = WIDTH * HEIGHT;
+        final FrameCache cache = new FrameCache(core, QUANTUM,
+                (long)CONCURRENT_CAPACITY * size * storage.getBytesPerPixel(), storage);
+
+        final int[][] frames = new int[CONCURRENT_TIMES][size];
+        FrameCache reference = new FrameCache(core, QUANTUM, 0, storage);
+        for (int i = 0; i < CONCURRENT_TIMES; i++) {
+            reference.render(i * QUANTUM, frames[i], 0, WIDTH);
+        }
+
+        final int perThread = requestCount / CONCURRENT_THREAD_COUNT / 10 + 1;
+        final int[] wrongCounts = new int[CONCURRENT_THREAD_COUNT];
+        Thread[] threads = new Thread[CONCURRENT_THREAD_COUNT];
+        for (int t = 0; t < threads.length; t++) {
+            final int index = t;
+            threads[t] = new Thread("cache client " + t) {
+                @Override
+                public void run() {
+                    Random random = new Random(seed + index);
+                    int[] pixels = new int[WIDTH * HEIGHT];
+                    for (int i = 0; i < perThread; i++) {
+                        int time = random.nextInt(CONCURRENT_TIMES);
+                        cache.render(time * QUANTUM, pixels, 0, WIDTH);
+                        if (!Arrays.equals(frames[time], pixels)) {
+                            wrongCounts[index]++;
+                        }
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        core.release();
+
+        int wrongCount = 0;
+        for (int count : wrongCounts) {
+            wrongCount += count;
+        }
+        report(wrongCount == 0 && cache.getHitCount() + cache.getMissCount() == (long)perThread * threads.length
+                && cache.getUsedBytes() <= cache.getBudget(),
+                storage + " concurrent wrong frames " + wrongCount + " " + describe(cache));
+    }
+
+    private static String describe(FrameCache cache) {
+        return "hits " + cache.getHitCount() + " misses " + cache.getMissCount()
+                + " evictions " + cache.getEvictionCount() + " frames " + cache.getFrameCount()
+                + " bytes " + cache.getUsedBytes() + " of " + cache.getBudget();
+    }
+
+    /**
+     * @return  maximum channel difference of pixels
+     */
+    private static int getError(int[] expected, int[] actual) {
+        int error = 0;
+        for (int i = 0; i < expected.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                int diff = Math.abs(((expected[i] >> shift) & 0xff) - ((actual[i] >> shift) & 0xff));
+                error = Math.max(error, diff);
+            }
+        }
+        return error;
+    }
+
+    private void report(boolean isPassed, String text) {
+        if (!isPassed) {
+            failures++;
+        }
+        System.out.println((isPassed ? "ok     " : "FAIL   ") + text);
+    }
+
+    /**
+     * Parses <code>key=value</code> arguments.
+     *
+     * @param args  command line arguments
+     */
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i < 0) {
+                throw new IllegalArgumentException(arg);
+            }
+            String key = arg.substring(0, i);
+            String value = arg.substring(i + 1);
+
+            if (key.equals("requests")) {
+                requestCount = Integer.parseInt(value);
+            } else if (key.equals("seed")) {
+                seed = Long.parseLong(value);
+            } else {
+                throw new IllegalArgumentException(arg);
+            }
+        }
+
+        if (requestCount < 1) {
+            throw new IllegalArgumentException("requests");
+        }
+    }
+}
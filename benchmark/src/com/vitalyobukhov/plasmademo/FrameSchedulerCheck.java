@@ -0,0 +1,249 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.util.Random;
+
+
+/**
+ * Desktop JVM check of {@link FrameScheduler} deadlines on scripted clock.
+ * <p>
+ * {@link ScriptedClock} time moves only by frame work and sleeps of the check, so every frame start
+ * is known exactly. Frame starts must stay on <code>origin + n * period</code> slots
+ * over thousands of frames with jittered work and oversleeps, {@link FrameScheduler.MissPolicy#SKIP}
+ * must count the miss and start the next frame on the first slot ahead,
+ * {@link FrameScheduler.MissPolicy#CATCH_UP} must run late frames back-to-back without sleeping
+ * until schedule is caught up and must skip when it is too far behind.
+ * <p>
+ * Arguments are optional <code>key=value</code> pairs:
+ * <ul>
+ *     <li><code>frames=100000</code> count of frames of drift case</li>
+ *     <li><code>seed=1</code> work and oversleep jitter seed</li>
+ * </ul>
+ *
+ * @author Vitaly Obukhov
+ * @version 1.0
+ */
+public final class FrameSchedulerCheck {
+
+
+    /* 60 fps period is not whole count of nanoseconds per second */
+    private static final long PERIOD = FrameScheduler.NANOSECONDS_IN_SECOND / 60;
+    private static final long ORIGIN = 1234567890L;
+
+    /* scripted frame */
+    private static final int LATE_FRAME = 10;
+    private static final int FRAMES_AFTER_LATE = 5;
+
+
+    /* parameters */
+    private int frameCount = 100000;
+    private long seed = 1;
+
+    private int failures;
+
+
+    public static void main(String[] args) throws InterruptedException {
+        FrameSchedulerCheck check = new FrameSchedulerCheck();
+        check.parse(args);
+        System.exit(check.run() ? 0 : 1);
+    }
+
+    /**
+     * Runs all cases.
+     *
+     * @return                      <code>true</code> if nothing failed
+     * @throws InterruptedException never, scripted clock does not sleep
+     */
+    private boolean run() throws InterruptedException {
+        checkDrift();
+        checkSkip();
+        checkCatchUp();
+        checkCatchUpLimit();
+
+        System.out.println(failures == 0 ? "OK" : "FAILED " + failures);
+        return failures == 0;
+    }
+
+    /**
+     * Runs frames with work and oversleep below period, every frame must start on its slot
+     * no later than oversleep.
+     *
+     * @throws InterruptedException never
+     */
+    private void checkDrift() throws InterruptedException {
+        ScriptedClock clock = new ScriptedClock();
+        FrameScheduler scheduler = new FrameScheduler(clock, PERIOD);
+        Random random = new Random(seed);
+        scheduler.start();
+
+        long offsetMax = 0;
+        boolean isValid = true;
+        for (int n = 1; n <= frameCount && isValid; n++) {
+            clock.now += (long)(random.nextDouble() * PERIOD / 2);
+            clock.oversleep = (long)(random.nextDouble() * PERIOD / 4);
+            scheduler.awaitNextFrame();
+
+            long offset = clock.now - (ORIGIN + n * PERIOD);
+            offsetMax = Math.max(offsetMax, offset);
+            isValid = offset >= 0 && offset <= clock.oversleep;
+        }
+        report(isValid && scheduler.getMissedCount() == 0 && clock.sleepCount == frameCount,
+                "drift " + frameCount + " frames max offset " + offsetMax + " ns sleeps " + clock.sleepCount
+                + " misses " + scheduler.getMissedCount());
+    }
+
+    /**
+     * Frame takes two and half periods, next frame must start on the first slot ahead.
+     *
+     * @throws InterruptedException never
+     */
+    private void checkSkip() throws InterruptedException {
+        ScriptedClock clock = new ScriptedClock();
+        FrameScheduler scheduler = new FrameScheduler(clock, PERIOD);
+        scheduler.setMissPolicy(FrameScheduler.MissPolicy.SKIP);
+        long[] starts = runLate(clock, scheduler, PERIOD * 5 / 2);
+
+        /* frame after late one is due at LATE_FRAME + 1, slots LATE_FRAME + 1 and + 2 are dropped */
+        boolean isValid = true;
+        for (int n = 0; n < starts.length && isValid; n++) {
+            long slot = n <= LATE_FRAME ? n : n + 2;
+            isValid = starts[n] == ORIGIN + slot * PERIOD;
+        }
+        report(isValid && scheduler.getMissedCount() == 1 && scheduler.getSkippedCount() == 2,
+                "skip next slot misses " + scheduler.getMissedCount() + " skipped " + scheduler.getSkippedCount());
+    }
+
+    /**
+     * Frame takes two and half periods, next frames must run without sleeping until they are on time again.
+     *
+     * @throws InterruptedException never
+     */
+    private void checkCatchUp() throws InterruptedException {
+        ScriptedClock clock = new ScriptedClock();
+        FrameScheduler scheduler = new FrameScheduler(clock, PERIOD);
+        scheduler.setMissPolicy(FrameScheduler.MissPolicy.CATCH_UP);
+        long[] starts = runLate(clock, scheduler, PERIOD * 5 / 2);
+
+        /* late frame ends at LATE_FRAME + 2.5, two late frames follow back-to-back, then schedule is kept */
+        long lateEnd = ORIGIN + LATE_FRAME * PERIOD + PERIOD * 5 / 2;
+        boolean isValid = true;
+        for (int n = 0; n < starts.length && isValid; n++) {
+            long expected;
+            if (n == LATE_FRAME + 1) {
+                expected = lateEnd;
+            } else if (n == LATE_FRAME + 2) {
+                expected = lateEnd + ScriptedClock.WORK;
+            } else {
+                expected = ORIGIN + n * PERIOD;
+            }
+            isValid = starts[n] == expected;
+        }
+        report(isValid && scheduler.getMissedCount() == 2 && scheduler.getSkippedCount() == 0
+                && clock.sleepCount == starts.length - 1 - 2,
+                "catch up back-to-back misses " + scheduler.getMissedCount() + " skipped "
+                + scheduler.getSkippedCount() + " sleeps " + clock.sleepCount);
+    }
+
+    /**
+     * Frame takes far more periods than caught up, schedule must skip instead.
+     *
+     * @throws InterruptedException never
+     */
+    private void checkCatchUpLimit() throws InterruptedException {
+        ScriptedClock clock = new ScriptedClock();
+        FrameScheduler scheduler = new FrameScheduler(clock, PERIOD);
+        scheduler.setMissPolicy(FrameScheduler.MissPolicy.CATCH_UP);
+        long[] starts = runLate(clock, scheduler, PERIOD * 100);
+
+        long next = starts[LATE_FRAME + 1];
+        report(scheduler.getMissedCount() == 1 && scheduler.getSkippedCount() == 100
+                && (next - ORIGIN) % PERIOD == 0 && next > ORIGIN + (LATE_FRAME + 100) * PERIOD,
+                "catch up limit skipped " + scheduler.getSkippedCount());
+    }
+
+    /**
+     * Runs frames of short work with one late frame.
+     *
+     * @param clock     scripted clock
+     * @param scheduler scheduler of clock
+     * @param lateWork  work of {@link #LATE_FRAME}
+     * @return          frames start times
+     * @throws InterruptedException never
+     */
+    private static long[] runLate(ScriptedClock clock, FrameScheduler scheduler, long lateWork)
+            throws InterruptedException {
+        long[] starts = new long[LATE_FRAME + FRAMES_AFTER_LATE + 1];
+        scheduler.start();
+        for (int n = 0; n < starts.length; n++) {
+            starts[n] = clock.now;
+            if (n < starts.length - 1) {
+                clock.now += n == LATE_FRAME ? lateWork : ScriptedClock.WORK;
+                scheduler.awaitNextFrame();
+            }
+        }
+        return starts;
+    }
+
+    private void report(boolean isPassed, String text) {
+        if (!isPassed) {
+            failures++;
+        }
+        System.out.println((isPassed ? "ok     " : "FAIL   ") + text);
+    }
+
+    /**
+     * Parses <code>key=value</code> arguments.
+     *
+     * @param args  command line arguments
+     */
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i < 0) {
+                throw new IllegalArgumentException(arg);
+            }
+            String key = arg.substring(0, i);
+            String value = arg.substring(i + 1);
+
+            if (key.equals("frames")) {
+                frameCount = Integer.parseInt(value);
+            } else if (key.equals("seed")) {
+                seed = Long.parseLong(value);
+            } else {
+                throw new IllegalArgumentException(arg);
+            }
+        }
+
+        if (frameCount < 1) {
+            throw new IllegalArgumentException("frames");
+        }
+    }
+
+
+    /**
+     * Clock which time is moved by check, sleep moves it by requested time and scripted oversleep.
+     */
+    private static final class ScriptedClock implements FrameScheduler.Clock {
+
+        /* work of frame which is not late */
+        static final long WORK = PERIOD / 10;
+
+        long now = ORIGIN;
+        long oversleep;
+        int sleepCount;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public void sleep(long nanos) {
+            if (nanos <= 0) {
+                throw new IllegalStateException("sleep " + nanos);
+            }
+
+            sleepCount++;
+            now += nanos + oversleep;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Desktop JVM check of paused render loop costs.
+ * <p>
+ * Runs {@link UpdateThread} and {@link KeyframeInterpolator} producer the way {@link MainView} does,
+ * pauses them and fails if paused threads make progress or consume more than allowed CPU time,
+ * if resumed thread is late with its first update or if paused thread does not finish on end.
+ * Resumed interpolator must present frame of paused time without rendering new keyframe.
+ * <p>
+ * Arguments are optional <code>key=value</code> pairs:
+ * <ul>
+ *     <li><code>pause=1000</code> milliseconds of measured pause</li>
+ *     <li><code>idle=5</code> allowed CPU milliseconds of paused thread during pause</li>
+ *     <li><code>latency=20</code> allowed milliseconds from resume to first update</li>
+ * </ul>
+ *
+ * @author Vitaly Obukhov
+ * @version 1.0
+ */
+public final class LifecycleCheck {
+
+
+    private static final int FPS = 100;
+    private static final int PLASMA_WIDTH = 192;
+    private static final int PLASMA_HEIGHT = 108;
+    private static final long SEED = 20121014L;
+
+    /* time to reach steady state before measurements */
+    private static final long SETTLE_TIME = 300;
+    private static final long END_TIMEOUT = 1000;
+
+    private static final double NANOSECONDS_IN_MILLISECOND = 1e6;
+
+
+    /* parameters */
+    private long pauseTime = 1000;
+    private double idleTime = 5;
+    private double latency = 20;
+
+    private int failures;
+
+
+    public static void main(String[] args) throws InterruptedException {
+        LifecycleCheck check = new LifecycleCheck();
+        check.parse(args);
+        System.exit(check.run() ? 0 : 1);
+    }
+
+    /**
+     * Runs all checks.
+     *
+     * @return                      <code>true</code> if nothing failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private boolean run() throws InterruptedException {
+        checkUpdateThread();
+        checkKeyframes();
+
+        System.out.println(failures == 0 ? "OK" : "FAILED " + failures);
+        return failures == 0;
+    }
+
+    /**
+     * Pauses, resumes and ends drawing thread.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void checkUpdateThread() throws InterruptedException {
+        final AtomicLong updateCount = new AtomicLong();
+        final AtomicLong firstUpdateTime = new AtomicLong();
+        UpdateThread thread = new UpdateThread() {
+            @Override
+            public void update() {
+                firstUpdateTime.compareAndSet(0, System.nanoTime());
+                updateCount.incrementAndGet();
+            }
+        };
+        thread.setFps(FPS);
+        thread.start();
+        Thread.sleep(SETTLE_TIME);
+        report("update running", updateCount.get() > 0, updateCount.get() + " updates");
+
+        /* paused thread finishes its update and then must stand still */
+        thread.setPaused(true);
+        Thread.sleep(SETTLE_TIME);
+        long count = updateCount.get();
+        long cpuTime = getCpuTime(thread);
+        Thread.sleep(pauseTime);
+        checkIdle("update paused", updateCount.get() - count, getCpuTime(thread) - cpuTime);
+
+        firstUpdateTime.set(0);
+        long resumeTime = System.nanoTime();
+        thread.setPaused(false);
+        Thread.sleep(SETTLE_TIME);
+        double resumeLatency = (firstUpdateTime.get() - resumeTime) / NANOSECONDS_IN_MILLISECOND;
+        report("update resumed", updateCount.get() > count && resumeLatency <= latency,
+                String.format(Locale.US, "first update after %.3f ms, limit %.3f ms", resumeLatency, latency));
+
+        thread.setPaused(true);
+        Thread.sleep(SETTLE_TIME);
+        thread.end();
+        thread.join(END_TIMEOUT);
+        report("update ended while paused", !thread.isAlive(), thread.isAlive() ? "still alive" : "finished");
+    }
+
+    /**
+     * Pauses presenting of keyframes and checks that producer stops by itself.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void checkKeyframes() throws InterruptedException {
+        PlasmaCore core = new PlasmaCore(PLASMA_WIDTH, PLASMA_HEIGHT, 1, SEED);
+        final KeyframeInterpolator interpolator = new KeyframeInterpolator(core, 4);
+        final AtomicLong plasmaTime = new AtomicLong();
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        interpolator.renderKeyframe(plasmaTime.get());
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        producer.start();
+
+        try {
+            /* present frames while plasma timeline advances */
+            int[] pixels = new int[PLASMA_WIDTH * PLASMA_HEIGHT];
+            long start = System.currentTimeMillis();
+            long end = start + SETTLE_TIME;
+            long now;
+            while ((now = System.currentTimeMillis()) < end) {
+                plasmaTime.set(now - start);
+                interpolator.render(now - start, pixels, 0, PLASMA_WIDTH);
+                Thread.sleep(1000 / FPS);
+            }
+            long pausedAt = plasmaTime.get();
+            report("keyframes running", interpolator.getKeyframeCount() > 0,
+                    interpolator.getKeyframeCount() + " keyframes");
+
+            /* timeline stands still and nothing is presented */
+            Thread.sleep(SETTLE_TIME);
+            long count = interpolator.getKeyframeCount();
+            long cpuTime = getCpuTime(producer);
+            Thread.sleep(pauseTime);
+            checkIdle("keyframes paused", interpolator.getKeyframeCount() - count, getCpuTime(producer) - cpuTime);
+
+            /* resumed frame is blended from kept keyframes */
+            long resumeTime = System.nanoTime();
+            boolean isRendered = interpolator.render(pausedAt, pixels, 0, PLASMA_WIDTH);
+            double resumeLatency = (System.nanoTime() - resumeTime) / NANOSECONDS_IN_MILLISECOND;
+            report("keyframes resumed", isRendered && interpolator.getKeyframeCount() == count,
+                    String.format(Locale.US, "frame after %.3f ms without new keyframe", resumeLatency));
+        } finally {
+            producer.interrupt();
+            producer.join(END_TIMEOUT);
+            core.release();
+        }
+    }
+
+    /**
+     * Checks paused thread progress and CPU time.
+     *
+     * @param name      check name
+     * @param progress  count of updates or keyframes during pause
+     * @param cpuTime   thread CPU nanoseconds during pause, 0 if unknown
+     */
+    private void checkIdle(String name, long progress, long cpuTime) {
+        double cpuMillis = cpuTime / NANOSECONDS_IN_MILLISECOND;
+        report(name, progress == 0 && cpuMillis <= idleTime,
+                String.format(Locale.US, "%d in %d ms, cpu %.3f ms, limit %.3f ms",
+                        progress, pauseTime, cpuMillis, idleTime));
+    }
+
+    private void report(String name, boolean isPassed, String details) {
+        if (!isPassed) {
+            failures++;
+        }
+
+        System.out.println(String.format(Locale.US, "%-6s %-26s %s", isPassed ? "ok" : "FAIL", name, details));
+    }
+
+    /**
+     * Gets CPU time of <code>thread</code> if JVM supports it.
+     *
+     * @param thread    measured thread
+     * @return          CPU nanoseconds or 0
+     */
+    private static long getCpuTime(Thread thread) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!bean.isThreadCpuTimeSupported()) {
+            return 0;
+        }
+
+        return Math.max(0, bean.getThreadCpuTime(thread.getId()));
+    }
+
+    /**
+     * Parses <code>key=value</code> arguments.
+     *
+     * @param args  command line arguments
+     */
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i < 0) {
+                throw new IllegalArgumentException(arg);
+            }
+            String key = arg.substring(0, i);
+            String value = arg.substring(i + 1);
+
+            if (key.equals("pause")) {
+                pauseTime = Long.parseLong(value);
+            } else if (key.equals("idle")) {
+                idleTime = Double.parseDouble(value);
+            } else if (key.equals("latency")) {
+                latency = Double.parseDouble(value);
+            } else {
+                throw new IllegalArgumentException(arg);
+            }
+        }
+    }
+}
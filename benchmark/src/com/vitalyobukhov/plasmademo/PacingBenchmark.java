@@ -0,0 +1,375 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+
+/**
+ * Desktop JVM stress benchmark of {@link UpdateThread} frame pacing.
+ * <p>
+ * Runs drawing loop with synthetic update of fixed amount of arithmetic calibrated to desired duration
+ * while background threads load CPU and allocate retained garbage, then prints achieved frame rate,
+ * missed frames and jitter distribution of intervals between updates against requested fps.
+ * Intervals are measured from update starts only, so any scheduler behind {@link UpdateThread}
+ * is measured the same way, count of misses reported by scheduler is printed beside.
+ * Workload, contention and garbage are deterministic, so runs on the same machine are comparable.
+ * <p>
+ * Arguments are optional <code>key=value</code> pairs:
+ * <ul>
+ *     <li><code>fps=60,100</code> requested frame rates</li>
+ *     <li><code>work=2</code> milliseconds of update workload on idle machine</li>
+ *     <li><code>contention=0,2</code> counts of background threads which load CPU</li>
+ *     <li><code>gc=0,64</code> megabytes per second of garbage allocated in background</li>
+ *     <li><code>policy=SKIP,CATCH_UP</code> {@link FrameScheduler.MissPolicy} policies</li>
+ *     <li><code>clock=system</code> {@link FrameScheduler#SYSTEM_CLOCK} or class name of
+ *     {@link FrameScheduler.Clock} implementation with public constructor without arguments</li>
+ *     <li><code>warmup=500</code> and <code>time=3000</code> milliseconds per case</li>
+ * </ul>
+ *
+ * @author Vitaly Obukhov
+ * @version 1.0
+ */
+public final class PacingBenchmark {
+
+
+    /* interval longer than this count of periods is a missed frame */
+    private static final double MISS_PERIODS = 1.5;
+
+    /* workload calibration */
+    private static final int CALIBRATION_ITERATIONS = 1 << 20;
+    private static final int CALIBRATION_ROUNDS = 5;
+
+    /* garbage is allocated in chunks every delay, retained ones make older generations grow */
+    private static final int GARBAGE_CHUNK_SIZE = 16 << 10;
+    private static final int GARBAGE_RETAINED_COUNT = 1 << 10;
+    private static final long GARBAGE_DELAY = 10;
+    private static final long BYTES_IN_MEGABYTE = 1 << 20;
+
+    private static final int CONTENTION_ITERATIONS = 1 << 12;
+    private static final long STOP_TIMEOUT = 1000;
+
+    private static final double NANOSECONDS_IN_MILLISECOND = 1e6;
+    private static final double MILLISECONDS_IN_SECOND = 1e3;
+
+
+    /* parameters */
+    private int[] fpsValues = { 60 };
+    private double workTime = 2;
+    private int[] contentionCounts = { 0, 2 };
+    private int[] garbageRates = { 0, 64 };
+    private FrameScheduler.MissPolicy[] policies = { FrameScheduler.MissPolicy.SKIP };
+    private String clockName = "system";
+    private long warmupTime = 500;
+    private long measureTime = 3000;
+
+    /* update iterations per millisecond */
+    private double workRate;
+
+    /* keeps arithmetic observable */
+    private volatile double checksum;
+
+
+    public static void main(String[] args) throws Exception {
+        PacingBenchmark benchmark = new PacingBenchmark();
+        benchmark.parse(args);
+        benchmark.run();
+    }
+
+    /**
+     * Runs all cases and prints report.
+     *
+     * @throws Exception    if clock can not be created or waiting was interrupted
+     */
+    private void run() throws Exception {
+        FrameScheduler.Clock clock = createClock();
+        calibrate();
+
+        System.out.println(String.format(Locale.US, "clock %s, work %.2f ms, %d processors", clockName, workTime,
+                Runtime.getRuntime().availableProcessors()));
+        System.out.println(String.format(Locale.US, "%4s %-8s %4s %5s %7s %8s %6s %6s %8s %8s %8s %8s %5s %7s",
+                "fps", "policy", "load", "MB/s", "frames", "real fps", "misses", "sched", "p50 ms", "p90 ms",
+                "p99 ms", "max ms", "gc", "gc ms"));
+
+        for (int fps : fpsValues) {
+            for (FrameScheduler.MissPolicy policy : policies) {
+                for (int contention : contentionCounts) {
+                    for (int garbageRate : garbageRates) {
+                        measure(clock, fps, policy, contention, garbageRate);
+                    }
+                }
+            }
+        }
+
+        System.out.println("checksum " + (long)checksum);
+    }
+
+    /**
+     * Measures single case.
+     *
+     * @param clock         pacing clock
+     * @param fps           requested frame rate
+     * @param policy        scheduler miss policy
+     * @param contention    count of CPU loading threads
+     * @param garbageRate   megabytes per second of garbage
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void measure(FrameScheduler.Clock clock, int fps, FrameScheduler.MissPolicy policy,
+                         int contention, int garbageRate) throws InterruptedException {
+        final long period = FrameScheduler.NANOSECONDS_IN_SECOND / fps;
+        final long iterations = Math.round(workTime * workRate);
+        final Load load = new Load();
+        final Intervals intervals = new Intervals();
+
+        UpdateThread updateThread = new UpdateThread(clock) {
+            @Override
+            public void update() {
+                long now = System.nanoTime();
+                if (intervals.isMeasuring) {
+                    intervals.record(now, period);
+                }
+                work(iterations);
+            }
+        };
+        updateThread.setPriority(Thread.MAX_PRIORITY);
+        updateThread.setFps(fps);
+        updateThread.setMissPolicy(policy);
+
+        Thread[] threads = new Thread[contention + (garbageRate > 0 ? 1 : 0)];
+        for (int i = 0; i < contention; i++) {
+            threads[i] = new Thread("Pacing contention " + i) {
+                @Override
+                public void run() {
+                    while (load.isRunning) {
+                        work(CONTENTION_ITERATIONS);
+                    }
+                }
+            };
+        }
+        if (garbageRate > 0) {
+            threads[contention] = createGarbageThread(load, garbageRate);
+        }
+
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        updateThread.start();
+        Thread.sleep(warmupTime);
+
+        long gcCount = getCollectionCount();
+        long gcTime = getCollectionTime();
+        long missed = updateThread.getMissedFrameCount();
+        intervals.isMeasuring = true;
+        Thread.sleep(measureTime);
+        intervals.isMeasuring = false;
+        missed = updateThread.getMissedFrameCount() - missed;
+        gcCount = getCollectionCount() - gcCount;
+        gcTime = getCollectionTime() - gcTime;
+
+        updateThread.end();
+        updateThread.join(STOP_TIMEOUT);
+        load.isRunning = false;
+        for (Thread thread : threads) {
+            thread.join(STOP_TIMEOUT);
+        }
+
+        FrameHistogram jitter = intervals.jitter;
+        double realFps = intervals.count == 0 ? 0.0
+                : intervals.count * FrameScheduler.NANOSECONDS_IN_SECOND / (double)(intervals.last - intervals.first);
+        System.out.println(String.format(Locale.US,
+                "%4d %-8s %4d %5d %7d %8.1f %6d %6d %8.3f %8.3f %8.3f %8.3f %5d %7d",
+                fps, policy, contention, garbageRate, intervals.count + 1, realFps, intervals.missed, missed,
+                jitter.getPercentile(50) / NANOSECONDS_IN_MILLISECOND,
+                jitter.getPercentile(90) / NANOSECONDS_IN_MILLISECOND,
+                jitter.getPercentile(99) / NANOSECONDS_IN_MILLISECOND,
+                jitter.getMax() / NANOSECONDS_IN_MILLISECOND, gcCount, gcTime));
+    }
+
+    /**
+     * Creates thread which allocates <code>rate</code> megabytes per second and retains the latest chunks.
+     *
+     * @param load  load state
+     * @param rate  megabytes per second
+     * @return      not started thread
+     */
+    private static Thread createGarbageThread(final Load load, final int rate) {
+        return new Thread("Pacing garbage") {
+            @Override
+            public void run() {
+                byte[][] retained = new byte[GARBAGE_RETAINED_COUNT][];
+                double chunksPerDelay = (double)rate * BYTES_IN_MEGABYTE / GARBAGE_CHUNK_SIZE
+                        * GARBAGE_DELAY / MILLISECONDS_IN_SECOND;
+                double due = 0.0;
+                int next = 0;
+
+                while (load.isRunning) {
+                    for (due += chunksPerDelay; due >= 1.0; due--) {
+                        retained[next] = new byte[GARBAGE_CHUNK_SIZE];
+                        next = (next + 1) % GARBAGE_RETAINED_COUNT;
+                    }
+
+                    try {
+                        Thread.sleep(GARBAGE_DELAY);
+                    } catch (InterruptedException ignored) {
+                        return;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Performs fixed amount of arithmetic.
+     *
+     * @param iterations    amount of work
+     */
+    private void work(long iterations) {
+        double sum = 0.0;
+        for (long i = 0; i < iterations; i++) {
+            sum += Math.sqrt(i);
+        }
+        checksum += sum;
+    }
+
+    /**
+     * Measures update iterations per millisecond on otherwise idle machine, the fastest round is taken.
+     */
+    private void calibrate() {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < CALIBRATION_ROUNDS; i++) {
+            long start = System.nanoTime();
+            work(CALIBRATION_ITERATIONS);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        workRate = CALIBRATION_ITERATIONS * NANOSECONDS_IN_MILLISECOND / Math.max(1, best);
+    }
+
+    /**
+     * Creates clock of <code>clock</code> argument.
+     *
+     * @return              clock
+     * @throws Exception    if clock class can not be instantiated
+     */
+    private FrameScheduler.Clock createClock() throws Exception {
+        if (clockName.equals("system")) {
+            return FrameScheduler.SYSTEM_CLOCK;
+        }
+
+        return (FrameScheduler.Clock)Class.forName(clockName).getConstructor().newInstance();
+    }
+
+    private static long getCollectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+
+        return count;
+    }
+
+    private static long getCollectionTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, bean.getCollectionTime());
+        }
+
+        return time;
+    }
+
+    /**
+     * Parses <code>key=value</code> arguments.
+     *
+     * @param args  command line arguments
+     */
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i < 0) {
+                throw new IllegalArgumentException(arg);
+            }
+            String key = arg.substring(0, i);
+            String value = arg.substring(i + 1);
+
+            if (key.equals("fps")) {
+                fpsValues = parseInts(value);
+            } else if (key.equals("work")) {
+                workTime = Double.parseDouble(value);
+            } else if (key.equals("contention")) {
+                contentionCounts = parseInts(value);
+            } else if (key.equals("gc")) {
+                garbageRates = parseInts(value);
+            } else if (key.equals("policy")) {
+                String[] names = value.split(",");
+                policies = new FrameScheduler.MissPolicy[names.length];
+                for (int j = 0; j < names.length; j++) {
+                    policies[j] = FrameScheduler.MissPolicy.valueOf(names[j]);
+                }
+            } else if (key.equals("clock")) {
+                clockName = value;
+            } else if (key.equals("warmup")) {
+                warmupTime = Long.parseLong(value);
+            } else if (key.equals("time")) {
+                measureTime = Long.parseLong(value);
+            } else {
+                throw new IllegalArgumentException(arg);
+            }
+        }
+
+        for (int fps : fpsValues) {
+            if (fps < 1 || fps > UpdateThread.FPS_MAX) {
+                throw new IllegalArgumentException("fps");
+            }
+        }
+        if (workTime < 0) {
+            throw new IllegalArgumentException("work");
+        }
+    }
+
+    private static int[] parseInts(String value) {
+        String[] parts = value.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Integer.parseInt(parts[i]);
+        }
+
+        return result;
+    }
+
+
+    /**
+     * State of background load threads.
+     */
+    private static final class Load {
+        volatile boolean isRunning = true;
+    }
+
+    /**
+     * Intervals between update starts, recorded by drawing thread and read after it finished.
+     */
+    private static final class Intervals {
+        volatile boolean isMeasuring;
+
+        /* deviations of intervals from period */
+        final FrameHistogram jitter = new FrameHistogram();
+        long count;
+        long missed;
+        long first;
+        long last;
+
+        void record(long now, long period) {
+            if (last != 0) {
+                long interval = now - last;
+                jitter.record(Math.abs(interval - period));
+                if (interval > MISS_PERIODS * period) {
+                    missed++;
+                }
+                count++;
+            } else {
+                first = now;
+            }
+            last = now;
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Desktop JVM benchmark of {@link PlasmaCore} rendering.
+ * <p>
+ * Measures every combination of grid size, sources count, layers count, {@link PlasmaCore.Mode}, lattice step
+ * and thread count
+ * and prints ns/frame, ns/pixel, frames/s and allocated bytes/frame of rendering thread
+ * together with field worker threads of {@link PlasmaCore}.
+ * Lattice steps above 1 also print mean and max channel error against frame evaluated at every pixel.
+ * Plasma is created from fixed seed and rendered at fixed times, so runs are comparable.
+ * <p>
+ * Arguments are optional <code>key=value</code> pairs:
+ * <ul>
+ *     <li><code>screen=1920x1080</code> full resolution size</li>
+ *     <li><code>div=80,40,20,10,4,1</code> grid size dividers, 80 is the one used by {@link MainView}</li>
+ *     <li><code>sources=1,2,4,16,64,256</code> attractors / repulsors per channel, 2 by default</li>
+ *     <li><code>layers=1,2,4,8</code> layers including base plasma, 1 by default,
+ *     added layers cycle through {@link PlasmaLayer.Blend} blends</li>
+ *     <li><code>modes=DOUBLE,FIXED_POINT,VECTOR</code> field calculation modes</li>
+ *     <li><code>lattice=1,2,4,8,16</code> lattice steps, 1 by default</li>
+ *     <li><code>threads=1,2,4</code> thread counts, thread scaling is reported per count</li>
+ *     <li><code>warmup=1000</code> and <code>measure=2000</code> milliseconds per case</li>
+ * </ul>
+ *
+ * @author Vitaly Obukhov
+ * @version 1.2
+ */
+public final class PlasmaBenchmark {
+
+
+    private static final long SEED = 20121014L;
+
+    /* time step between rendered frames, 100 fps */
+    private static final long FRAME_TIME_STEP = 10;
+
+    private static final double LAYER_OPACITY = 0.5;
+
+    /* field calculation threads of PlasmaCore */
+    private static final String WORKER_NAME = "Plasma worker";
+
+    private static final long NANOSECONDS_IN_MILLISECOND = 1000000L;
+    private static final double NANOSECONDS_IN_SECOND = 1e9;
+
+
+    /* benchmark parameters */
+    private int screenWidth = 1920;
+    private int screenHeight = 1080;
+    private int[] dividers = { 80, 40, 20, 10, 4, 1 };
+    private int[] sourceCounts = { PlasmaCore.SOURCES_PER_CHANNEL_DEFAULT };
+    private int[] layerCounts = { 1 };
+    private PlasmaCore.Mode[] modes = PlasmaCore.Mode.values();
+    private int[] latticeSteps = { 1 };
+    private int[] threadCounts = defaultThreadCounts();
+    private long warmupTime = 1000;
+    private long measureTime = 2000;
+
+    /* keeps rendered pixels observable */
+    private int checksum;
+
+
+    public static void main(String[] args) {
+        PlasmaBenchmark benchmark = new PlasmaBenchmark();
+        benchmark.parse(args);
+        benchmark.run();
+    }
+
+    /**
+     * Runs all cases and prints report.
+     */
+    private void run() {
+        System.out.println(String.format(Locale.US, "%-11s %7s %6s %-12s %7s %7s %12s %10s %10s %12s %8s %8s %7s",
+                "size", "sources", "layers", "mode", "lattice", "threads", "ns/frame", "ns/pixel", "frames/s", "bytes/frame",
+                "speedup", "mean err", "max err"));
+
+        for (int div : dividers) {
+            int width = Math.max(1, screenWidth / div);
+            int height = Math.max(1, screenHeight / div);
+
+            for (int sources : sourceCounts) {
+                for (int layers : layerCounts) {
+                    for (PlasmaCore.Mode mode : modes) {
+                        if (!mode.isSupported()) {
+                            System.out.println(String.format(Locale.US, "%-11s %7d %6d %-12s %s",
+                                    width + "x" + height, sources, layers, mode, "not supported"));
+                            continue;
+                        }
+
+                        for (int step : latticeSteps) {
+                            double singleThreadTime = 0.0;
+
+                            for (int threadCount : threadCounts) {
+                                Result result = measure(width, height, sources, layers, mode, step, threadCount);
+                                if (singleThreadTime == 0.0) {
+                                    singleThreadTime = result.frameTime;
+                                }
+
+                                System.out.println(String.format(Locale.US,
+                                        "%-11s %7d %6d %-12s %7d %7d %12.0f %10.2f %10.1f %12.0f %8.2f %8.3f %7d",
+                                        width + "x" + height, sources, layers, mode, step, threadCount,
+                                        result.frameTime, result.frameTime / (width * height),
+                                        NANOSECONDS_IN_SECOND / result.frameTime, result.frameAllocation,
+                                        singleThreadTime / result.frameTime, result.meanError, result.maxError));
+                            }
+                        }
+
+                        /* modes differ for single layer of default sources count only */
+                        if (sources != PlasmaCore.SOURCES_PER_CHANNEL_DEFAULT || layers > 1) {
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        System.out.println("checksum " + checksum);
+    }
+
+    /**
+     * Measures single case.
+     *
+     * @param width         grid width
+     * @param height        grid height
+     * @param sources       attractors / repulsors per channel
+     * @param layers        layers including base plasma
+     * @param mode          field calculation mode
+     * @param step          lattice step
+     * @param threadCount   field calculation thread count
+     * @return              measurement result
+     */
+    private Result measure(int width, int height, int sources, int layers, PlasmaCore.Mode mode, int step,
+                           int threadCount) {
+        PlasmaConfig config = new PlasmaConfig(SEED);
+        config.setSourcesPerChannel(sources);
+        PlasmaLayer.Blend[] blends = PlasmaLayer.Blend.values();
+        for (int i = 1; i < layers; i++) {
+            config.addLayer(new PlasmaLayer(SEED + i, blends[(i - 1) % blends.length], LAYER_OPACITY));
+        }
+        config.setMode(mode);
+        config.setLatticeStep(step);
+        config.setThreadCount(threadCount);
+        PlasmaCore core = new PlasmaCore(width, height, config);
+        int[] pixels = new int[width * height];
+
+        try {
+            /* warm up */
+            long time = 0;
+            long deadline = System.nanoTime() + warmupTime * NANOSECONDS_IN_MILLISECOND;
+            while (System.nanoTime() < deadline) {
+                core.render(time, pixels, 0, width);
+                time += FRAME_TIME_STEP;
+            }
+
+            /* measure from the same time every run */
+            time = 0;
+            long frames = 0;
+            long[] ids = getRenderingThreadIds();
+            long[] allocatedBefore = getAllocatedBytes(ids);
+            long start = System.nanoTime();
+            deadline = start + measureTime * NANOSECONDS_IN_MILLISECOND;
+            long now;
+            do {
+                core.render(time, pixels, 0, width);
+                checksum += pixels[(int)(frames % pixels.length)];
+                time += FRAME_TIME_STEP;
+                frames++;
+            } while ((now = System.nanoTime()) < deadline);
+            long allocated = getAllocatedBytes(ids, allocatedBefore);
+
+            Result result = new Result();
+            result.frameTime = (double)(now - start) / frames;
+            result.frameAllocation = allocated < 0 ? Double.NaN : (double)allocated / frames;
+            if (step > 1) {
+                measureError(config, width, height, core, pixels, result);
+            }
+            return result;
+        } finally {
+            core.release();
+        }
+    }
+
+    /**
+     * Compares channels of lattice frame with frame evaluated at every pixel.
+     *
+     * @param config    configuration of measured plasma
+     * @param width     grid width
+     * @param height    grid height
+     * @param core      measured plasma
+     * @param pixels    measured plasma pixels
+     * @param result    measurement result to set errors of
+     */
+    private static void measureError(PlasmaConfig config, int width, int height,
+                                     PlasmaCore core, int[] pixels, Result result) {
+        config.setLatticeStep(1);
+        config.setThreadCount(1);
+        PlasmaCore reference = new PlasmaCore(width, height, config);
+        int[] referencePixels = new int[width * height];
+
+        try {
+            core.render(0, pixels, 0, width);
+            reference.render(0, referencePixels, 0, width);
+        } finally {
+            reference.release();
+        }
+
+        long sum = 0;
+        int max = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            for (int shift = 0; shift < 24; shift += 8) {
+                int error = Math.abs(((pixels[i] >> shift) & 0xff) - ((referencePixels[i] >> shift) & 0xff));
+                sum += error;
+                max = Math.max(max, error);
+            }
+        }
+
+        result.meanError = (double)sum / (pixels.length * 3);
+        result.maxError = max;
+    }
+
+    /**
+     * Gets ids of current thread and running field workers.
+     * Workers of released instances finish without allocating, so they do not affect measurement.
+     *
+     * @return  thread ids
+     */
+    private static long[] getRenderingThreadIds() {
+        List<Long> ids = new ArrayList<Long>();
+        ids.add(Thread.currentThread().getId());
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(WORKER_NAME)) {
+                ids.add(thread.getId());
+            }
+        }
+
+        long[] result = new long[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Gets bytes allocated by threads if JVM supports it.
+     *
+     * @param ids   thread ids
+     * @return      allocated bytes of every thread, negative for finished threads, or <code>null</code>
+     */
+    private static long[] getAllocatedBytes(long[] ids) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(ids);
+        }
+
+        return null;
+    }
+
+    /**
+     * Sums bytes allocated by threads since <code>before</code>, threads finished meanwhile are not counted.
+     *
+     * @param ids       thread ids
+     * @param before    allocated bytes of threads at measurement start
+     * @return          allocated bytes or negative value if JVM does not support it
+     */
+    private static long getAllocatedBytes(long[] ids, long[] before) {
+        long[] after = getAllocatedBytes(ids);
+        if (before == null || after == null) {
+            return -1;
+        }
+
+        long allocated = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (before[i] >= 0 && after[i] >= 0) {
+                allocated += after[i] - before[i];
+            }
+        }
+        return allocated;
+    }
+
+    /**
+     * Parses <code>key=value</code> arguments.
+     *
+     * @param args  command line arguments
+     */
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i < 0) {
+                throw new IllegalArgumentException(arg);
+            }
+            String key = arg.substring(0, i);
+            String value = arg.substring(i + 1);
+
+            if (key.equals("screen")) {
+                String[] size = value.split("x");
+                screenWidth = Integer.parseInt(size[0]);
+                screenHeight = Integer.parseInt(size[1]);
+            } else if (key.equals("div")) {
+                dividers = parseInts(value);
+            } else if (key.equals("threads")) {
+                threadCounts = parseInts(value);
+            } else if (key.equals("sources")) {
+                sourceCounts = parseInts(value);
+            } else if (key.equals("layers")) {
+                layerCounts = parseInts(value);
+            } else if (key.equals("modes")) {
+                String[] names = value.split(",");
+                modes = new PlasmaCore.Mode[names.length];
+                for (int j = 0; j < names.length; j++) {
+                    modes[j] = PlasmaCore.Mode.valueOf(names[j]);
+                }
+            } else if (key.equals("lattice")) {
+                latticeSteps = parseInts(value);
+            } else if (key.equals("warmup")) {
+                warmupTime = Long.parseLong(value);
+            } else if (key.equals("measure")) {
+                measureTime = Long.parseLong(value);
+            } else {
+                throw new IllegalArgumentException(arg);
+            }
+        }
+    }
+
+    private static int[] parseInts(String value) {
+        String[] parts = value.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Integer.parseInt(parts[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets powers of two up to available processors count and the count itself.
+     *
+     * @return  thread counts
+     */
+    private static int[] defaultThreadCounts() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        List<Integer> counts = new ArrayList<Integer>();
+        for (int count = 1; count < processors; count *= 2) {
+            counts.add(count);
+        }
+        counts.add(processors);
+
+        int[] result = new int[counts.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counts.get(i);
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Single case measurement result.
+     */
+    private static final class Result {
+        /* nanoseconds per frame */
+        double frameTime;
+        /* rendering thread allocated bytes per frame */
+        double frameAllocation;
+        /* mean and max channel difference from frame evaluated at every pixel */
+        double meanError;
+        int maxError;
+    }
+}
@@ -0,0 +1,501 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Desktop JVM regression check of {@link PlasmaCore} rendering against stored golden frames
+ * and stored frame time baseline.
+ * <p>
+ * Golden frames are rendered in {@link PlasmaCore.Mode#DOUBLE} mode from fixed seeds at fixed times.
+ * Check renders them again in every supported mode except {@link PlasmaCore.Mode#PALETTE}
+ * into arrays and into {@link Frame} sinks
+ * and fails if any channel differs by more than error bound of mode.
+ * Golden frames are also rendered one after another through single {@link MappedFrameSink},
+ * so its file is remapped for changing dimensions, and file bytes must equal golden pixels.
+ * Then it measures frame time of every mode and fails if it exceeds baseline by more than threshold.
+ * Frames do not depend on machine, baseline does, so it is recorded on machine where check runs.
+ * <p>
+ * First argument is command, <code>check</code> by default:
+ * <ul>
+ *     <li><code>check</code> compares with golden frames and baseline, exit code is 1 on failure</li>
+ *     <li><code>record-golden</code> stores golden frames</li>
+ *     <li><code>record-baseline</code> stores frame times of current build as baseline</li>
+ * </ul>
+ * Other arguments are optional <code>key=value</code> pairs:
+ * <ul>
+ *     <li><code>golden=benchmark/golden/frames.bin.gz</code> golden frames file</li>
+ *     <li><code>baseline=bin/baseline.properties</code> frame time baseline file</li>
+ *     <li><code>threshold=0.15</code> allowed relative frame time growth</li>
+ *     <li><code>size=480x270</code> frame time measurement size</li>
+ *     <li><code>threads=4</code> thread count checked in addition to single thread</li>
+ * </ul>
+ *
+ * @author Vitaly Obukhov
+ * @version 1.1
+ */
+public final class PlasmaRegression {
+
+
+    /* golden cases */
+    private static final long[] GOLDEN_SEEDS = { 20121014L, 1L };
+    private static final long[] GOLDEN_TIMES = { 0L, 4321L, 600000L };
+    private static final int[][] GOLDEN_SIZES = { { 64, 36 }, { 37, 21 } };
+    private static final int GOLDEN_MAGIC = 0x504c4746;
+
+    /* frame time measurement */
+    private static final long SEED = 20121014L;
+    private static final long FRAME_TIME_STEP = 10;
+    private static final int WARMUP_FRAMES = 300;
+    private static final int MEASURE_FRAMES = 100;
+    private static final int MEASURE_RUNS = 7;
+
+    private static final double NANOSECONDS_IN_MILLISECOND = 1e6;
+
+
+    /* parameters */
+    private String command = "check";
+    private File goldenFile = new File("benchmark/golden/frames.bin.gz");
+    private File baselineFile = new File("bin/baseline.properties");
+    private double threshold = 0.15;
+    private int perfWidth = 480;
+    private int perfHeight = 270;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+
+    private int failures;
+
+
+    public static void main(String[] args) throws IOException {
+        PlasmaRegression regression = new PlasmaRegression();
+        regression.parse(args);
+        System.exit(regression.run() ? 0 : 1);
+    }
+
+    /**
+     * Runs command.
+     *
+     * @return              <code>true</code> if nothing failed
+     * @throws IOException  if golden or baseline file can not be accessed
+     */
+    private boolean run() throws IOException {
+        if (command.equals("record-golden")) {
+            recordGolden();
+        } else if (command.equals("record-baseline")) {
+            recordBaseline();
+        } else if (command.equals("check")) {
+            checkGolden();
+            checkBaseline();
+        } else {
+            throw new IllegalArgumentException(command);
+        }
+
+        System.out.println(failures == 0 ? "OK" : "FAILED " + failures);
+        return failures == 0;
+    }
+
+    /**
+     * Renders golden frames in reference mode and stores them.
+     *
+     * @throws IOException  if file can not be written
+     */
+    private void recordGolden() throws IOException {
+        File parent = goldenFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(goldenFile))));
+        try {
+            out.writeInt(GOLDEN_MAGIC);
+            out.writeInt(GOLDEN_SIZES.length * GOLDEN_SEEDS.length * GOLDEN_TIMES.length);
+
+            for (int[] size : GOLDEN_SIZES) {
+                for (long seed : GOLDEN_SEEDS) {
+                    PlasmaCore core = new PlasmaCore(size[0], size[1], 1, seed);
+                    int[] pixels = new int[size[0] * size[1]];
+
+                    for (long time : GOLDEN_TIMES) {
+                        core.render(time, pixels, 0, size[0]);
+
+                        out.writeInt(size[0]);
+                        out.writeInt(size[1]);
+                        out.writeLong(seed);
+                        out.writeLong(time);
+                        for (int pixel : pixels) {
+                            out.writeInt(pixel);
+                        }
+                    }
+                    core.release();
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        System.out.println("golden frames stored to " + goldenFile);
+    }
+
+    /**
+     * Renders stored golden frames in every supported mode and compares them.
+     *
+     * @throws IOException  if file can not be read
+     */
+    private void checkGolden() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(goldenFile))));
+        File mappedFile = File.createTempFile("plasma", ".frame");
+        MappedFrameSink sink = new MappedFrameSink(mappedFile, PlasmaCore.PixelFormat.ARGB);
+        try {
+            if (in.readInt() != GOLDEN_MAGIC) {
+                throw new IOException("golden");
+            }
+
+            int frameCount = in.readInt();
+            for (int i = 0; i < frameCount; i++) {
+                int width = in.readInt();
+                int height = in.readInt();
+                long seed = in.readLong();
+                long time = in.readLong();
+                int[] golden = new int[width * height];
+                for (int j = 0; j < golden.length; j++) {
+                    golden[j] = in.readInt();
+                }
+
+                for (PlasmaCore.Mode mode : getSupportedModes()) {
+                    /* palette mode renders different image */
+                    if (mode == PlasmaCore.Mode.PALETTE) {
+                        continue;
+                    }
+
+                    for (int threads : getCheckedThreadCounts()) {
+                        checkFrame(golden, width, height, seed, time, mode, threads);
+                    }
+                }
+                checkMappedFrame(golden, width, height, seed, time, sink, mappedFile);
+            }
+        } finally {
+            in.close();
+            sink.close();
+            mappedFile.delete();
+        }
+    }
+
+    /**
+     * Compares single golden frame rendered into array and into frame sink.
+     *
+     * @param golden    golden pixels
+     * @param width     frame width
+     * @param height    frame height
+     * @param seed      plasma seed
+     * @param time      frame time
+     * @param mode      field calculation mode
+     * @param threads   field calculation thread count
+     */
+    private void checkFrame(int[] golden, int width, int height, long seed, long time,
+            PlasmaCore.Mode mode, int threads) {
+        PlasmaConfig config = new PlasmaConfig(seed);
+        config.setMode(mode);
+        config.setThreadCount(threads);
+        PlasmaCore core = new PlasmaCore(width, height, config);
+
+        try {
+            int[] pixels = new int[width * height];
+            core.render(time, pixels, 0, width);
+            int arrayError = getMaxError(golden, pixels);
+
+            /* sink pixels are RGBA bytes */
+            Frame frame = new Frame(width * height);
+            core.render(time, frame);
+            ByteBuffer bytes = frame.getBytes();
+            for (int j = 0; j < pixels.length; j++) {
+                pixels[j] = ((bytes.get() & 0xff) << 16) | ((bytes.get() & 0xff) << 8) | (bytes.get() & 0xff) |
+                        ((bytes.get() & 0xff) << 24);
+            }
+            int sinkError = getMaxError(golden, pixels);
+
+            int maxError = getMaxError(mode);
+            boolean failed = arrayError > maxError || sinkError > maxError;
+            if (failed) {
+                failures++;
+            }
+
+            System.out.println(String.format(Locale.US, "%-6s %-11s %-12s %7d t=%-7d seed=%-9d error %d/%d bound %d",
+                    failed ? "FAIL" : "ok", width + "x" + height, mode, threads, time, seed,
+                    arrayError, sinkError, maxError));
+        } finally {
+            core.release();
+        }
+    }
+
+    /**
+     * Compares single golden frame rendered through mapped sink with bytes of its file.
+     *
+     * @param golden    golden pixels
+     * @param width     frame width
+     * @param height    frame height
+     * @param seed      plasma seed
+     * @param time      frame time
+     * @param sink      sink of previous golden frames
+     * @param path      file of sink
+     * @throws IOException  if file can not be read
+     */
+    private void checkMappedFrame(int[] golden, int width, int height, long seed, long time,
+            MappedFrameSink sink, File path) throws IOException {
+        PlasmaConfig config = new PlasmaConfig(seed);
+        config.setMode(PlasmaCore.Mode.DOUBLE);
+        config.setThreadCount(1);
+        PlasmaCore core = new PlasmaCore(width, height, config);
+
+        try {
+            core.render(time, sink);
+            sink.flush();
+        } finally {
+            core.release();
+        }
+
+        /* file holds big-endian ARGB pixels from its beginning */
+        int[] pixels = new int[width * height];
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            byte[] bytes = new byte[pixels.length * 4];
+            file.readFully(bytes);
+            ByteBuffer.wrap(bytes).asIntBuffer().get(pixels);
+        } finally {
+            file.close();
+        }
+
+        int error = getMaxError(golden, pixels);
+        boolean failed = error != 0;
+        if (failed) {
+            failures++;
+        }
+
+        System.out.println(String.format(Locale.US, "%-6s %-11s %-12s %7d t=%-7d seed=%-9d error %d bound 0",
+                failed ? "FAIL" : "ok", width + "x" + height, "MAPPED", 1, time, seed, error));
+    }
+
+    /**
+     * Measures frame times and stores them.
+     *
+     * @throws IOException  if file can not be written
+     */
+    private void recordBaseline() throws IOException {
+        Properties baseline = new Properties();
+        for (PlasmaCore.Mode mode : getSupportedModes()) {
+            for (int threads : getCheckedThreadCounts()) {
+                long frameTime = measure(mode, threads);
+                baseline.setProperty(getBaselineKey(mode, threads), Long.toString(frameTime));
+                System.out.println(String.format(Locale.US, "%-11s %-12s %7d %10.3f ms",
+                        perfWidth + "x" + perfHeight, mode, threads, frameTime / NANOSECONDS_IN_MILLISECOND));
+            }
+        }
+
+        File parent = baselineFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        OutputStream out = new FileOutputStream(baselineFile);
+        try {
+            baseline.store(out, "PlasmaRegression frame times in nanoseconds");
+        } finally {
+            out.close();
+        }
+
+        System.out.println("baseline stored to " + baselineFile);
+    }
+
+    /**
+     * Measures frame times and compares them with baseline.
+     * Cases missing in baseline are reported only.
+     *
+     * @throws IOException  if file can not be read
+     */
+    private void checkBaseline() throws IOException {
+        Properties baseline = new Properties();
+        if (baselineFile.exists()) {
+            InputStream in = new FileInputStream(baselineFile);
+            try {
+                baseline.load(in);
+            } finally {
+                in.close();
+            }
+        } else {
+            System.out.println("no baseline at " + baselineFile + ", run record-baseline");
+        }
+
+        for (PlasmaCore.Mode mode : getSupportedModes()) {
+            for (int threads : getCheckedThreadCounts()) {
+                long frameTime = measure(mode, threads);
+                String stored = baseline.getProperty(getBaselineKey(mode, threads));
+
+                String status = "new";
+                double change = 0.0;
+                if (stored != null) {
+                    long baselineTime = Long.parseLong(stored);
+                    change = (double)frameTime / baselineTime - 1.0;
+                    status = change > threshold ? "FAIL" : "ok";
+                    if (change > threshold) {
+                        failures++;
+                    }
+                }
+
+                System.out.println(String.format(Locale.US, "%-6s %-11s %-12s %7d %10.3f ms %+7.1f%%",
+                        status, perfWidth + "x" + perfHeight, mode, threads,
+                        frameTime / NANOSECONDS_IN_MILLISECOND, change * 100.0));
+            }
+        }
+    }
+
+    /**
+     * Measures median frame time of several runs.
+     *
+     * @param mode      field calculation mode
+     * @param threads   field calculation thread count
+     * @return          frame time in nanoseconds
+     */
+    private long measure(PlasmaCore.Mode mode, int threads) {
+        PlasmaConfig config = new PlasmaConfig(SEED);
+        config.setMode(mode);
+        config.setThreadCount(threads);
+        PlasmaCore core = new PlasmaCore(perfWidth, perfHeight, config);
+        int[] pixels = new int[perfWidth * perfHeight];
+
+        try {
+            long time = 0;
+            for (int i = 0; i < WARMUP_FRAMES; i++) {
+                core.render(time, pixels, 0, perfWidth);
+                time += FRAME_TIME_STEP;
+            }
+
+            /* same frames every run */
+            long[] runs = new long[MEASURE_RUNS];
+            for (int run = 0; run < MEASURE_RUNS; run++) {
+                time = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < MEASURE_FRAMES; i++) {
+                    core.render(time, pixels, 0, perfWidth);
+                    time += FRAME_TIME_STEP;
+                }
+                runs[run] = (System.nanoTime() - start) / MEASURE_FRAMES;
+            }
+
+            Arrays.sort(runs);
+            return runs[MEASURE_RUNS / 2];
+        } finally {
+            core.release();
+        }
+    }
+
+    private String getBaselineKey(PlasmaCore.Mode mode, int threads) {
+        return mode + "." + perfWidth + "x" + perfHeight + "." + threads;
+    }
+
+    private static List<PlasmaCore.Mode> getSupportedModes() {
+        List<PlasmaCore.Mode> modes = new ArrayList<PlasmaCore.Mode>();
+        for (PlasmaCore.Mode mode : PlasmaCore.Mode.values()) {
+            if (mode.isSupported()) {
+                modes.add(mode);
+            }
+        }
+
+        return modes;
+    }
+
+    private int[] getCheckedThreadCounts() {
+        return threadCount > 1 ? new int[] { 1, threadCount } : new int[] { 1 };
+    }
+
+    /**
+     * Gets allowed per channel difference from {@link PlasmaCore.Mode#DOUBLE} mode.
+     *
+     * @param mode  field calculation mode
+     * @return      maximum difference
+     */
+    private static int getMaxError(PlasmaCore.Mode mode) {
+        switch (mode) {
+            case FIXED_POINT:
+                return PlasmaCore.FIXED_POINT_MAX_ERROR;
+            case VECTOR:
+                return PlasmaCore.VECTOR_MAX_ERROR;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Calculates maximum per channel difference of ARGB pixels.
+     *
+     * @param expected  expected pixels
+     * @param actual    actual pixels
+     * @return          maximum difference
+     */
+    private static int getMaxError(int[] expected, int[] actual) {
+        int max = 0;
+        for (int i = 0; i < expected.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                int error = Math.abs(((expected[i] >> shift) & 0xff) - ((actual[i] >> shift) & 0xff));
+                if (error > max) {
+                    max = error;
+                }
+            }
+        }
+
+        return max;
+    }
+
+    /**
+     * Parses command and <code>key=value</code> arguments.
+     *
+     * @param args  command line arguments
+     */
+    private void parse(String[] args) {
+        for (int j = 0; j < args.length; j++) {
+            String arg = args[j];
+            int i = arg.indexOf('=');
+            if (i < 0) {
+                if (j == 0) {
+                    command = arg;
+                    continue;
+                }
+                throw new IllegalArgumentException(arg);
+            }
+            String key = arg.substring(0, i);
+            String value = arg.substring(i + 1);
+
+            if (key.equals("golden")) {
+                goldenFile = new File(value);
+            } else if (key.equals("baseline")) {
+                baselineFile = new File(value);
+            } else if (key.equals("threshold")) {
+                threshold = Double.parseDouble(value);
+            } else if (key.equals("size")) {
+                String[] size = value.split("x");
+                perfWidth = Integer.parseInt(size[0]);
+                perfHeight = Integer.parseInt(size[1]);
+            } else if (key.equals("threads")) {
+                threadCount = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException(arg);
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Headless renderer of plasma sequences into raw RGBA file.
+ * <p>
+ * Frame depends on its time only, so frames are rendered concurrently:
+ * every worker has own single threaded {@link PlasmaCore} created from the same seed
+ * and renders ranges of frames straight into memory mapped file.
+ * File is preallocated, progress with frames/s and MB/s is printed every second.
+ * <p>
+ * File layout, all numbers are big-endian:
+ * <ul>
+ *     <li><code>int</code> magic {@link #MAGIC}, <code>int</code> version {@link #VERSION}</li>
+ *     <li><code>int</code> width, <code>int</code> height, <code>int</code> frame count</li>
+ *     <li><code>int</code> {@link PlasmaCore.PixelFormat} ordinal, always <code>RGBA</code></li>
+ *     <li>index of <code>long</code> frame time in milliseconds and <code>long</code> frame offset in file per frame</li>
+ *     <li>frames of <code>width * height</code> RGBA pixels without gaps, first one at page boundary</li>
+ * </ul>
+ * <p>
+ * Arguments are <code>key=value</code> pairs:
+ * <ul>
+ *     <li><code>out=plasma.rgba</code> output file, required</li>
+ *     <li><code>size=1920x1080</code> frame size</li>
+ *     <li><code>frames=250</code> count of frames</li>
+ *     <li><code>start=0</code> and <code>step=40</code> first frame time and time between frames in milliseconds</li>
+ *     <li><code>threads=N</code> count of workers, available processors by default</li>
+ *     <li><code>seed=20121014</code> plasma random seed</li>
+ *     <li><code>mode=DOUBLE</code> field calculation mode</li>
+ * </ul>
+ *
+ * @author Vitaly Obukhov
+ * @version 1.0
+ */
+public final class OfflineRenderer {
+
+
+    public static final int MAGIC = 0x504c5351;
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 24;
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int PAGE_SIZE = 4096;
+
+    /* bytes mapped by worker at once */
+    private static final long RANGE_SIZE_MAX = 64L << 20;
+
+    private static final long PROGRESS_DELAY = 1000;
+    private static final double NANOSECONDS_IN_SECOND = 1e9;
+    private static final double BYTES_IN_MEGABYTE = 1 << 20;
+
+
+    /* render parameters */
+    private File out;
+    private int width = 1920;
+    private int height = 1080;
+    private int frameCount = 250;
+    private long startTime = 0;
+    private long timeStep = 40;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private long seed = 20121014L;
+    private PlasmaCore.Mode mode = PlasmaCore.Mode.DOUBLE;
+
+    /* file layout */
+    private long frameSize;
+    private long dataOffset;
+    private int rangeFrames;
+    private int rangeCount;
+
+    /* progress */
+    private final AtomicInteger nextRange = new AtomicInteger();
+    private final AtomicLong renderedFrames = new AtomicLong();
+
+
+    public static void main(String[] args) throws Exception {
+        OfflineRenderer renderer = new OfflineRenderer();
+        renderer.parse(args);
+        renderer.run();
+    }
+
+    /**
+     * Renders all frames and prints progress.
+     *
+     * @throws Exception    if file can not be written or worker failed
+     */
+    private void run() throws Exception {
+        frameSize = (long)width * height * BYTES_PER_PIXEL;
+        if (frameSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("size");
+        }
+        dataOffset = alignToPage(HEADER_SIZE + (long)frameCount * INDEX_ENTRY_SIZE);
+        rangeFrames = (int)Math.max(1, RANGE_SIZE_MAX / frameSize);
+        rangeCount = (frameCount + rangeFrames - 1) / rangeFrames;
+
+        RandomAccessFile file = new RandomAccessFile(out, "rw");
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            FileChannel channel = file.getChannel();
+            file.setLength(dataOffset + frameCount * frameSize);
+            writeHeader(channel);
+
+            List<Future<Object>> futures = new ArrayList<Future<Object>>(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executor.submit(new Worker(channel)));
+            }
+            executor.shutdown();
+
+            long start = System.nanoTime();
+            while (!executor.awaitTermination(PROGRESS_DELAY, TimeUnit.MILLISECONDS)) {
+                printProgress(start);
+            }
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+            printProgress(start);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            file.close();
+        }
+    }
+
+    /**
+     * Writes header and frames index.
+     *
+     * @param channel       output file channel
+     * @throws IOException  if file can not be written
+     */
+    private void writeHeader(FileChannel channel) throws IOException {
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataOffset);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(width);
+        header.putInt(height);
+        header.putInt(frameCount);
+        header.putInt(PlasmaCore.PixelFormat.RGBA.ordinal());
+        for (int i = 0; i < frameCount; i++) {
+            header.putLong(getFrameTime(i));
+            header.putLong(dataOffset + i * frameSize);
+        }
+        header.force();
+    }
+
+    /**
+     * Prints count of rendered frames and throughput since <code>start</code>.
+     *
+     * @param start start of rendering in nanoseconds
+     */
+    private void printProgress(long start) {
+        long frames = renderedFrames.get();
+        double seconds = (System.nanoTime() - start) / NANOSECONDS_IN_SECOND;
+
+        System.out.println(String.format(Locale.US, "%d/%d frames %5.1f%% %8.1f frames/s %8.1f MB/s",
+                frames, frameCount, 100.0 * frames / frameCount,
+                frames / seconds, frames * frameSize / BYTES_IN_MEGABYTE / seconds));
+    }
+
+    private long getFrameTime(int frame) {
+        return startTime + frame * timeStep;
+    }
+
+    private static long alignToPage(long offset) {
+        return (offset + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    /**
+     * Parses <code>key=value</code> arguments.
+     *
+     * @param args  command line arguments
+     */
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i < 0) {
+                throw new IllegalArgumentException(arg);
+            }
+            String key = arg.substring(0, i);
+            String value = arg.substring(i + 1);
+
+            if (key.equals("out")) {
+                out = new File(value);
+            } else if (key.equals("size")) {
+                String[] size = value.split("x");
+                width = Integer.parseInt(size[0]);
+                height = Integer.parseInt(size[1]);
+            } else if (key.equals("frames")) {
+                frameCount = Integer.parseInt(value);
+            } else if (key.equals("start")) {
+                startTime = Long.parseLong(value);
+            } else if (key.equals("step")) {
+                timeStep = Long.parseLong(value);
+            } else if (key.equals("threads")) {
+                threadCount = Integer.parseInt(value);
+            } else if (key.equals("seed")) {
+                seed = Long.parseLong(value);
+            } else if (key.equals("mode")) {
+                mode = PlasmaCore.Mode.valueOf(value);
+            } else {
+                throw new IllegalArgumentException(arg);
+            }
+        }
+
+        if (out == null) {
+            throw new IllegalArgumentException("out");
+        }
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("size");
+        }
+        if (frameCount < 1) {
+            throw new IllegalArgumentException("frames");
+        }
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threads");
+        }
+    }
+
+
+    /**
+     * Renders ranges of frames until none left.
+     */
+    private final class Worker implements Callable<Object> {
+
+        private final FileChannel channel;
+
+        Worker(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public Object call() throws IOException {
+            PlasmaCore core = new PlasmaCore(width, height, 1, seed);
+            core.setMode(mode);
+
+            try {
+                int range;
+                while ((range = nextRange.getAndIncrement()) < rangeCount) {
+                    int frameFrom = range * rangeFrames;
+                    int frameTo = Math.min(frameFrom + rangeFrames, frameCount);
+
+                    /* mapped buffers are big-endian, so RGBA bytes follow file layout */
+                    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE,
+                            dataOffset + frameFrom * frameSize, (frameTo - frameFrom) * frameSize);
+                    for (int frame = frameFrom; frame < frameTo; frame++) {
+                        mapped.position((int)((frame - frameFrom) * frameSize));
+                        core.render(getFrameTime(frame), mapped.asIntBuffer(), PlasmaCore.PixelFormat.RGBA);
+                        renderedFrames.incrementAndGet();
+                    }
+                    mapped.force();
+                }
+            } finally {
+                core.release();
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Load test of {@link StreamServer} with local stand-in clients.
+ * <p>
+ * Fast clients read and drop stream as fast as they can, all of them are served by one reader thread.
+ * Client count is raised step by step, server CPU time of rendering, I/O and field calculation threads
+ * is measured at every step and cost of additional client is reported against single client.
+ * Finally throttled client is connected, it must drop frames while rendering keeps server fps
+ * and fast clients keep receiving frames.
+ * Exit code is 1 if rendering falls behind fps or fast clients are starved.
+ * <p>
+ * Arguments are optional <code>key=value</code> pairs:
+ * <ul>
+ *     <li><code>size=480x270</code> frame size</li>
+ *     <li><code>fps=30</code> server frames per second</li>
+ *     <li><code>clients=1,2,4,8</code> counts of fast clients</li>
+ *     <li><code>time=2000</code> milliseconds of every measurement</li>
+ *     <li><code>threads=N</code> count of field calculation threads, available processors by default</li>
+ * </ul>
+ *
+ * @author Vitaly Obukhov
+ * @version 1.0
+ */
+public final class StreamLoadTest {
+
+
+    private static final long SEED = 20121014L;
+
+    /* part of server fps which rendering and fast clients must keep */
+    private static final double FPS_RATIO_MIN = 0.9;
+
+    /* throttled client reads this part of stream rate */
+    private static final double SLOW_CLIENT_RATE = 0.25;
+    private static final int SLOW_CLIENT_CHUNK = 4096;
+
+    private static final long SETTLE_TIME = 500;
+    private static final long END_TIMEOUT = 1000;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    private static final String WORKER_NAME = "Plasma worker";
+
+    private static final double NANOSECONDS_IN_MILLISECOND = 1e6;
+    private static final double MILLISECONDS_IN_SECOND = 1e3;
+
+
+    /* parameters */
+    private int width = 480;
+    private int height = 270;
+    private int fps = 30;
+    private int[] clientCounts = { 1, 2, 4, 8 };
+    private long measureTime = 2000;
+    private PlasmaConfig config = new PlasmaConfig(SEED);
+
+    private StreamServer server;
+    private Reader reader;
+    private long frameSize;
+    private int failures;
+
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        StreamLoadTest test = new StreamLoadTest();
+        test.parse(args);
+        System.exit(test.run() ? 0 : 1);
+    }
+
+    /**
+     * Runs all steps.
+     *
+     * @return                      <code>true</code> if nothing failed
+     * @throws IOException          if server or clients can not connect
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private boolean run() throws IOException, InterruptedException {
+        server = new StreamServer(new PlasmaCore(width, height, config), fps);
+        server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        frameSize = StreamServer.FRAME_HEADER_SIZE + (long)width * height * 4;
+        reader = new Reader();
+        reader.start();
+
+        System.out.println(String.format(Locale.US, "%dx%d at %d fps, %.1f MB/s per client",
+                width, height, fps, frameSize * fps / (double)(1 << 20)));
+        System.out.println("       clients  render fps  client fps  cpu ms/frame   cpu %  +ms/frame per client");
+
+        try {
+            double singleCost = 0.0;
+            for (int clientCount : clientCounts) {
+                while (reader.getClientCount() < clientCount) {
+                    reader.connect();
+                }
+
+                Step step = measure(null);
+                double cost = step.cpuTime / NANOSECONDS_IN_MILLISECOND / step.renderedFrames;
+                if (clientCount == 1 || singleCost == 0.0) {
+                    singleCost = cost;
+                }
+                String perClient = clientCount > 1 ? String.format(Locale.US, "%.3f",
+                        (cost - singleCost) / (clientCount - 1)) : "-";
+
+                boolean isPassed = check(step);
+                System.out.println(String.format(Locale.US, "%-6s %8d %11.1f %11.1f %13.3f %7.1f  %s",
+                        isPassed ? "ok" : "FAIL", clientCount, step.renderFps, step.minClientFps,
+                        cost, 100.0 * step.cpuTime / (step.time * NANOSECONDS_IN_MILLISECOND), perClient));
+            }
+
+            /* slow client must lose frames without stalling others */
+            SlowClient slowClient = new SlowClient();
+            slowClient.start();
+            Step step = measure(slowClient);
+            boolean isPassed = check(step);
+            if (isPassed && step.slowClientFrames >= step.renderedFrames) {
+                isPassed = false;
+                failures++;
+            }
+            System.out.println(String.format(Locale.US,
+                    "%-6s slow client %.1f fps, render %.1f fps, fast clients %.1f fps, %d frames dropped by server",
+                    isPassed ? "ok" : "FAIL", step.slowClientFrames * MILLISECONDS_IN_SECOND / step.time,
+                    step.renderFps, step.minClientFps, server.getDroppedCount()));
+            slowClient.end();
+        } finally {
+            reader.end();
+            server.end();
+        }
+
+        System.out.println(String.format(Locale.US, "%d frame buffers", server.getFrameBufferCount()));
+        System.out.println(failures == 0 ? "OK" : "FAILED " + failures);
+        return failures == 0;
+    }
+
+    /**
+     * Measures server CPU time, rendered frames and frames of the slowest fast client.
+     *
+     * @param slowClient            throttled client or <code>null</code>
+     * @return                      measured step
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private Step measure(SlowClient slowClient) throws InterruptedException {
+        Thread.sleep(SETTLE_TIME);
+
+        long[] clientBytes = reader.getBytes();
+        long slowFrames = slowClient != null ? slowClient.getFrames() : 0;
+        long rendered = server.getRenderedCount();
+        long cpuTime = getServerCpuTime();
+        long start = System.nanoTime();
+
+        Thread.sleep(measureTime);
+
+        Step step = new Step();
+        step.time = (System.nanoTime() - start) / NANOSECONDS_IN_MILLISECOND;
+        step.cpuTime = getServerCpuTime() - cpuTime;
+        step.renderedFrames = server.getRenderedCount() - rendered;
+        step.renderFps = step.renderedFrames * MILLISECONDS_IN_SECOND / step.time;
+
+        long[] bytes = reader.getBytes();
+        long minFrames = Long.MAX_VALUE;
+        for (int i = 0; i < clientBytes.length; i++) {
+            minFrames = Math.min(minFrames, (bytes[i] - clientBytes[i]) / frameSize);
+        }
+        step.minClientFps = minFrames * MILLISECONDS_IN_SECOND / step.time;
+        if (slowClient != null) {
+            step.slowClientFrames = slowClient.getFrames() - slowFrames;
+        }
+
+        return step;
+    }
+
+    /**
+     * Checks that rendering keeps fps and fast clients keep up with it.
+     *
+     * @param step  measured step
+     * @return      <code>true</code> if step passed
+     */
+    private boolean check(Step step) {
+        boolean isPassed = step.renderFps >= fps * FPS_RATIO_MIN && step.minClientFps >= step.renderFps * FPS_RATIO_MIN;
+        if (!isPassed) {
+            failures++;
+        }
+
+        return isPassed;
+    }
+
+    /**
+     * Sums CPU time of server rendering, I/O and field calculation threads.
+     *
+     * @return  CPU nanoseconds
+     */
+    private static long getServerCpuTime() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        long time = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String name = thread.getName();
+            if (name.equals("Stream render") || name.equals("Stream io") || name.equals(WORKER_NAME)) {
+                time += Math.max(0, bean.getThreadCpuTime(thread.getId()));
+            }
+        }
+
+        return time;
+    }
+
+    /**
+     * Parses <code>key=value</code> arguments.
+     *
+     * @param args  command line arguments
+     */
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i < 0) {
+                throw new IllegalArgumentException(arg);
+            }
+            String key = arg.substring(0, i);
+            String value = arg.substring(i + 1);
+
+            if (key.equals("size")) {
+                String[] size = value.split("x");
+                width = Integer.parseInt(size[0]);
+                height = Integer.parseInt(size[1]);
+            } else if (key.equals("fps")) {
+                fps = Integer.parseInt(value);
+            } else if (key.equals("clients")) {
+                String[] counts = value.split(",");
+                clientCounts = new int[counts.length];
+                for (int j = 0; j < counts.length; j++) {
+                    clientCounts[j] = Integer.parseInt(counts[j]);
+                }
+            } else if (key.equals("time")) {
+                measureTime = Long.parseLong(value);
+            } else if (key.equals("threads")) {
+                config.setThreadCount(Integer.parseInt(value));
+            } else {
+                throw new IllegalArgumentException(arg);
+            }
+        }
+    }
+
+
+    /**
+     * Measured load step.
+     */
+    private static final class Step {
+        double time;
+        long cpuTime;
+        long renderedFrames;
+        double renderFps;
+        double minClientFps;
+        long slowClientFrames;
+    }
+
+    /**
+     * Reader thread of all fast clients, counts received bytes per client.
+     */
+    private final class Reader extends Thread {
+
+        private final Selector selector;
+        private final List<SocketChannel> channels;
+        private final List<long[]> bytes;
+        private volatile boolean isRunning;
+
+        Reader() throws IOException {
+            super("Stream clients");
+            selector = Selector.open();
+            channels = new ArrayList<SocketChannel>();
+            bytes = new ArrayList<long[]>();
+            isRunning = true;
+        }
+
+        /**
+         * Connects new client, it is registered by reader thread.
+         *
+         * @throws IOException  if client can not connect
+         */
+        void connect() throws IOException {
+            SocketChannel channel = SocketChannel.open(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+            channel.configureBlocking(false);
+            synchronized (channels) {
+                channels.add(channel);
+                bytes.add(new long[1]);
+            }
+            selector.wakeup();
+        }
+
+        int getClientCount() {
+            synchronized (channels) {
+                return channels.size();
+            }
+        }
+
+        /**
+         * @return  received bytes of every client
+         */
+        long[] getBytes() {
+            synchronized (channels) {
+                long[] result = new long[bytes.size()];
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = bytes.get(i)[0];
+                }
+                return result;
+            }
+        }
+
+        void end() throws InterruptedException {
+            isRunning = false;
+            selector.wakeup();
+            join(END_TIMEOUT);
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+            int registered = 0;
+
+            try {
+                while (isRunning) {
+                    synchronized (channels) {
+                        for (; registered < channels.size(); registered++) {
+                            channels.get(registered).register(selector, SelectionKey.OP_READ, bytes.get(registered));
+                        }
+                    }
+
+                    selector.select();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        long[] count = (long[])key.attachment();
+                        int read;
+                        do {
+                            buffer.clear();
+                            read = ((SocketChannel)key.channel()).read(buffer);
+                            if (read > 0) {
+                                synchronized (channels) {
+                                    count[0] += read;
+                                }
+                            }
+                        } while (read > 0);
+                        if (read < 0) {
+                            key.cancel();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                for (SocketChannel channel : channels) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Client which reads stream at fraction of its rate by blocking reads.
+     */
+    private final class SlowClient extends Thread {
+
+        private volatile long bytes;
+        private volatile boolean isRunning;
+
+        SlowClient() {
+            super("Stream slow client");
+            isRunning = true;
+        }
+
+        long getFrames() {
+            return Math.max(0, bytes - StreamServer.HEADER_SIZE) / frameSize;
+        }
+
+        void end() throws InterruptedException {
+            isRunning = false;
+            join(END_TIMEOUT);
+        }
+
+        @Override
+        public void run() {
+            double rate = frameSize * fps * SLOW_CLIENT_RATE / MILLISECONDS_IN_SECOND;
+            ByteBuffer buffer = ByteBuffer.allocate(SLOW_CLIENT_CHUNK);
+
+            try {
+                SocketChannel channel = SocketChannel.open(
+                        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+                try {
+                    long start = System.currentTimeMillis();
+                    while (isRunning) {
+                        buffer.clear();
+                        int read = channel.read(buffer);
+                        if (read < 0) {
+                            return;
+                        }
+                        bytes += read;
+
+                        /* sleep until read bytes fit rate */
+                        long delay = (long)(bytes / rate) - (System.currentTimeMillis() - start);
+                        if (delay > 0) {
+                            Thread.sleep(delay);
+                        }
+                    }
+                } finally {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,596 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Headless server which renders plasma once per frame and streams it to every connected client.
+ * <p>
+ * Render thread paces frames by {@link FrameScheduler} and renders into pooled direct buffers
+ * which are written to clients as they are, without copies. Single I/O thread serves all clients
+ * by non-blocking channels. Client has at most one frame in flight: when it finishes its frame
+ * it takes the latest published one, frames published meanwhile are dropped for that client only,
+ * so slow clients never stall rendering or other clients. Rendering is parked while there are no clients.
+ * <p>
+ * Stream layout, all numbers are big-endian:
+ * <ul>
+ *     <li><code>int</code> magic {@link #MAGIC}, <code>int</code> version {@link #VERSION}</li>
+ *     <li><code>int</code> width, <code>int</code> height,
+ *     <code>int</code> {@link PlasmaCore.PixelFormat} ordinal, always <code>RGBA</code></li>
+ *     <li>frames of <code>long</code> frame time in milliseconds and <code>width * height</code> RGBA pixels</li>
+ * </ul>
+ * <p>
+ * Arguments are <code>key=value</code> pairs:
+ * <ul>
+ *     <li><code>port=8765</code> listening port on loopback address</li>
+ *     <li><code>size=480x270</code> frame size</li>
+ *     <li><code>fps=30</code> frames per second</li>
+ *     <li><code>threads=N</code> count of field calculation threads, available processors by default</li>
+ *     <li><code>seed=20121014</code> plasma random seed</li>
+ *     <li><code>mode=DOUBLE</code> field calculation mode</li>
+ * </ul>
+ *
+ * @author Vitaly Obukhov
+ * @version 1.0
+ */
+public final class StreamServer {
+
+
+    public static final int MAGIC = 0x504c5354;
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 20;
+    public static final int FRAME_HEADER_SIZE = 8;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /* client input is not used, it is read to detect closing */
+    private static final int READ_BUFFER_SIZE = 256;
+
+    private static final long PROGRESS_DELAY = 1000;
+    private static final long END_TIMEOUT = 1000;
+
+
+    private final PlasmaCore core;
+    private final int fps;
+    private final int frameSize;
+
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private Thread renderThread;
+    private Thread ioThread;
+    private volatile boolean isRunning;
+
+    /* frames state, frame is free when nothing references it */
+    private final List<StreamFrame> frames;
+    private StreamFrame latest;
+    private final Object sync;
+
+    /* clients, changed by I/O thread only */
+    private final List<Client> clients;
+    private int clientCount;
+    private final ByteBuffer readBuffer;
+
+    /* statistics */
+    private volatile long renderedCount;
+    private volatile long sentCount;
+    private volatile long droppedCount;
+    private volatile long sentBytes;
+
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = 8765;
+        int width = 480;
+        int height = 270;
+        int fps = 30;
+        PlasmaConfig config = new PlasmaConfig();
+
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i < 0) {
+                throw new IllegalArgumentException(arg);
+            }
+            String key = arg.substring(0, i);
+            String value = arg.substring(i + 1);
+
+            if (key.equals("port")) {
+                port = Integer.parseInt(value);
+            } else if (key.equals("size")) {
+                String[] size = value.split("x");
+                width = Integer.parseInt(size[0]);
+                height = Integer.parseInt(size[1]);
+            } else if (key.equals("fps")) {
+                fps = Integer.parseInt(value);
+            } else if (key.equals("threads")) {
+                config.setThreadCount(Integer.parseInt(value));
+            } else if (key.equals("seed")) {
+                config.setSeed(Long.parseLong(value));
+            } else if (key.equals("mode")) {
+                config.setMode(PlasmaCore.Mode.valueOf(value));
+            } else {
+                throw new IllegalArgumentException(arg);
+            }
+        }
+
+        StreamServer server = new StreamServer(new PlasmaCore(width, height, config), fps);
+        server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        System.out.println("streaming " + width + "x" + height + " at " + fps + " fps on port " + server.getPort());
+
+        while (true) {
+            Thread.sleep(PROGRESS_DELAY);
+            System.out.println(String.format(Locale.US, "%d clients %d rendered %d sent %d dropped",
+                    server.getClientCount(), server.getRenderedCount(), server.getSentCount(), server.getDroppedCount()));
+        }
+    }
+
+    /**
+     * Creates server of <code>core</code> frames, server owns <code>core</code> and releases it on end.
+     *
+     * @param core  plasma effect
+     * @param fps   frames per second
+     */
+    public StreamServer(PlasmaCore core, int fps) {
+        if (core == null) {
+            throw new IllegalArgumentException("core");
+        }
+        if (fps < 1 || fps > UpdateThread.FPS_MAX) {
+            throw new IllegalArgumentException("fps");
+        }
+
+        this.core = core;
+        this.fps = fps;
+        frameSize = FRAME_HEADER_SIZE + core.getWidth() * core.getHeight() * BYTES_PER_PIXEL;
+
+        frames = new ArrayList<StreamFrame>();
+        latest = null;
+        sync = new Object();
+        clients = new ArrayList<Client>();
+        clientCount = 0;
+        readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    }
+
+
+    /**
+     * Binds to <code>address</code> and starts rendering and I/O threads.
+     *
+     * @param address       listening address, port 0 chooses free port
+     * @throws IOException  if address can not be bound
+     */
+    public final void start(InetSocketAddress address) throws IOException {
+        if (isRunning) {
+            throw new IllegalStateException("started");
+        }
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        isRunning = true;
+
+        ioThread = new Thread("Stream io") {
+            @Override
+            public void run() {
+                serve();
+            }
+        };
+        renderThread = new Thread("Stream render") {
+            @Override
+            public void run() {
+                renderFrames();
+            }
+        };
+        ioThread.start();
+        renderThread.start();
+    }
+
+    /**
+     * Disconnects clients, stops threads and releases plasma effect.
+     *
+     * @throws InterruptedException if interrupted while waiting for threads
+     */
+    public final void end() throws InterruptedException {
+        if (!isRunning) {
+            return;
+        }
+
+        isRunning = false;
+        synchronized (sync) {
+            sync.notifyAll();
+        }
+        selector.wakeup();
+        renderThread.interrupt();
+        renderThread.join(END_TIMEOUT);
+        ioThread.join(END_TIMEOUT);
+        core.release();
+    }
+
+    /**
+     * @return  listening port
+     */
+    public final int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public final int getFps() {
+        return fps;
+    }
+
+    public final int getClientCount() {
+        synchronized (sync) {
+            return clientCount;
+        }
+    }
+
+    /**
+     * @return  count of rendered frames
+     */
+    public final long getRenderedCount() {
+        return renderedCount;
+    }
+
+    /**
+     * @return  count of frames completely written to clients, every client counts
+     */
+    public final long getSentCount() {
+        return sentCount;
+    }
+
+    /**
+     * @return  count of frames skipped by clients which were busy with previous frame
+     */
+    public final long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public final long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * @return  count of frame buffers, grows up to count of clients and two
+     */
+    public final int getFrameBufferCount() {
+        synchronized (sync) {
+            return frames.size();
+        }
+    }
+
+    /**
+     * Renders and publishes frames at server fps while there are clients.
+     */
+    private void renderFrames() {
+        FrameScheduler scheduler = new FrameScheduler(FrameScheduler.SYSTEM_CLOCK,
+                FrameScheduler.NANOSECONDS_IN_SECOND / fps);
+        scheduler.setMissPolicy(FrameScheduler.MissPolicy.SKIP);
+        long start = System.currentTimeMillis();
+
+        try {
+            while (isRunning) {
+                synchronized (sync) {
+                    if (clientCount == 0) {
+                        while (clientCount == 0 && isRunning) {
+                            sync.wait();
+                        }
+                        scheduler.start();
+                    }
+                }
+
+                StreamFrame frame = acquireFrame();
+                long time = System.currentTimeMillis() - start;
+                frame.buffer.putLong(0, time);
+                core.render(time, frame.pixels, PlasmaCore.PixelFormat.RGBA);
+                publishFrame(frame);
+
+                scheduler.awaitNextFrame();
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Takes frame which nobody references or creates new one.
+     *
+     * @return  frame referenced by render thread
+     */
+    private StreamFrame acquireFrame() {
+        synchronized (sync) {
+            for (int i = 0; i < frames.size(); i++) {
+                StreamFrame frame = frames.get(i);
+                if (frame.refCount == 0) {
+                    frame.refCount = 1;
+                    return frame;
+                }
+            }
+
+            StreamFrame frame = new StreamFrame(frames.size(), frameSize);
+            frame.refCount = 1;
+            frames.add(frame);
+            return frame;
+        }
+    }
+
+    /**
+     * Makes <code>frame</code> the latest one, reference of render thread passes to it.
+     *
+     * @param frame rendered frame
+     */
+    private void publishFrame(StreamFrame frame) {
+        synchronized (sync) {
+            if (latest != null) {
+                latest.refCount--;
+            }
+
+            frame.sequence = ++renderedCount;
+            latest = frame;
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Serves accepting, closing and writing of clients until server ends.
+     */
+    private void serve() {
+        long lastSequence = 0;
+
+        try {
+            while (isRunning) {
+                selector.select();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    Client client = (Client)key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            client.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            client.write();
+                        }
+                    } catch (IOException e) {
+                        close(client);
+                    }
+                }
+
+                /* idle clients wait for new frame with write interest off */
+                long sequence = renderedCount;
+                if (sequence != lastSequence) {
+                    lastSequence = sequence;
+                    for (int i = 0; i < clients.size(); i++) {
+                        Client client = clients.get(i);
+                        if (client.isIdle()) {
+                            try {
+                                client.write();
+                            } catch (IOException e) {
+                                close(client);
+                                i--;
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (isRunning) {
+                throw new RuntimeException(e);
+            }
+        } catch (ClosedSelectorException ignored) {
+        } finally {
+            while (!clients.isEmpty()) {
+                close(clients.get(clients.size() - 1));
+            }
+            try {
+                selector.close();
+                serverChannel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Accepts pending connection.
+     *
+     * @throws IOException  if connection can not be configured
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Client client = new Client(channel);
+        client.key = channel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, client);
+        clients.add(client);
+
+        synchronized (sync) {
+            clientCount++;
+            sync.notifyAll();
+        }
+    }
+
+    /**
+     * Closes connection of <code>client</code> and releases its frame.
+     *
+     * @param client    connected client
+     */
+    private void close(Client client) {
+        clients.remove(client);
+        client.key.cancel();
+        try {
+            client.channel.close();
+        } catch (IOException ignored) {
+        }
+
+        synchronized (sync) {
+            if (client.frame != null) {
+                client.frame.refCount--;
+                client.frame = null;
+            }
+            clientCount--;
+        }
+    }
+
+
+    /**
+     * Pooled frame of header and pixels.
+     */
+    private static final class StreamFrame {
+
+        final int index;
+        final ByteBuffer buffer;
+        final IntBuffer pixels;
+
+        /* references of render thread, latest frame and clients, guarded by server sync */
+        int refCount;
+        long sequence;
+
+        StreamFrame(int index, int size) {
+            this.index = index;
+            buffer = ByteBuffer.allocateDirect(size);
+            buffer.position(FRAME_HEADER_SIZE);
+            pixels = buffer.slice().asIntBuffer();
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Connected client, used by I/O thread only.
+     */
+    private final class Client {
+
+        final SocketChannel channel;
+        SelectionKey key;
+
+        /* stream header is sent first */
+        private final ByteBuffer header;
+
+        /* frame in flight and own views of frame buffers, so clients do not share position */
+        StreamFrame frame;
+        private ByteBuffer view;
+        private ByteBuffer[] views;
+        private long lastSequence;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+
+            header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(core.getWidth());
+            header.putInt(core.getHeight());
+            header.putInt(PlasmaCore.PixelFormat.RGBA.ordinal());
+            header.flip();
+
+            views = new ByteBuffer[0];
+        }
+
+        /**
+         * @return  <code>true</code> if client waits for new frame
+         */
+        boolean isIdle() {
+            return !header.hasRemaining() && frame == null;
+        }
+
+        /**
+         * Reads and drops client input.
+         *
+         * @throws IOException  if connection is closed or broken
+         */
+        void read() throws IOException {
+            readBuffer.clear();
+            if (channel.read(readBuffer) < 0) {
+                throw new IOException("closed");
+            }
+        }
+
+        /**
+         * Writes header and frames while channel accepts them,
+         * turns write interest off when there is no newer frame.
+         *
+         * @throws IOException  if connection is broken
+         */
+        void write() throws IOException {
+            if (header.hasRemaining()) {
+                sentBytes += channel.write(header);
+                if (header.hasRemaining()) {
+                    return;
+                }
+            }
+
+            while (true) {
+                if (frame == null && !takeLatest()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+
+                sentBytes += channel.write(view);
+                if (view.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+
+                synchronized (sync) {
+                    frame.refCount--;
+                    frame = null;
+                }
+                sentCount++;
+            }
+        }
+
+        /**
+         * Takes the latest frame if it was not sent yet, counts frames skipped since previous one.
+         *
+         * @return  <code>false</code> if there is no new frame
+         */
+        private boolean takeLatest() {
+            synchronized (sync) {
+                if (latest == null || latest.sequence == lastSequence) {
+                    return false;
+                }
+
+                if (lastSequence > 0) {
+                    droppedCount += latest.sequence - lastSequence - 1;
+                }
+                lastSequence = latest.sequence;
+                frame = latest;
+                frame.refCount++;
+            }
+
+            if (views.length <= frame.index) {
+                ByteBuffer[] grown = new ByteBuffer[frame.index + 1];
+                System.arraycopy(views, 0, grown, 0, views.length);
+                views = grown;
+            }
+            if (views[frame.index] == null) {
+                views[frame.index] = frame.buffer.duplicate();
+            }
+            view = views[frame.index];
+            view.clear();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Desktop JVM check of {@link FrameTrace} overhead and its file contents.
+ * <p>
+ * Cost of record is measured on one thread and on concurrent threads, events per frame are counted
+ * on traced {@link UpdateThread} which records stages like {@link MainView} does, check fails
+ * when recording of frame takes more than {@link #OVERHEAD_MAX} of frame period.
+ * Ring wrap by concurrent writers, thread names, stall and collection detection
+ * and conversion by {@link TraceConverter} are checked on trace files read back.
+ * <p>
+ * Arguments are optional <code>key=value</code> pairs:
+ * <ul>
+ *     <li><code>events=2000000</code> count of recorded events per measurement</li>
+ *     <li><code>fps=60</code> frame rate of traced drawing loop</li>
+ * </ul>
+ *
+ * @author Vitaly Obukhov
+ * @version 1.0
+ */
+public final class TraceCheck {
+
+
+    private static final double OVERHEAD_MAX = 0.01;
+    private static final int THREAD_COUNT = 2;
+    private static final int WARMUP_ROUNDS = 3;
+
+    /* ring checks */
+    private static final int WRAP_CAPACITY = 1 << 10;
+    private static final int WRAP_THREAD_COUNT = 4;
+
+    /* traced drawing loop */
+    private static final long LOOP_TIME = 1000;
+    private static final int STALL_FRAME = 20;
+    private static final int STALL_PERIODS = UpdateThread.STALL_PERIODS + 2;
+    private static final long STOP_TIMEOUT = 1000;
+
+    private static final double NANOSECONDS_IN_MILLISECOND = 1e6;
+
+
+    /* parameters */
+    private int eventCount = 2000000;
+    private int fps = 60;
+
+    private int failures;
+    private final List<File> files = new ArrayList<File>();
+
+
+    public static void main(String[] args) throws Exception {
+        TraceCheck check = new TraceCheck();
+        check.parse(args);
+        System.exit(check.run() ? 0 : 1);
+    }
+
+    /**
+     * Runs all cases.
+     *
+     * @return              <code>true</code> if nothing failed
+     * @throws Exception    if trace file can not be used or thread failed
+     */
+    private boolean run() throws Exception {
+        try {
+            double singleCost = measureCost(1);
+            double concurrentCost = measureCost(THREAD_COUNT);
+            checkLoop(Math.max(singleCost, concurrentCost));
+            checkWrap();
+            checkCollection();
+        } finally {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        System.out.println(failures == 0 ? "OK" : "FAILED " + failures);
+        return failures == 0;
+    }
+
+    /**
+     * Measures cost of record while <code>threadCount</code> threads record concurrently.
+     *
+     * @param threadCount   count of recording threads
+     * @return              nanoseconds per record of one thread
+     * @throws Exception    if trace file can not be used or thread failed
+     */
+    private double measureCost(int threadCount) throws Exception {
+        final FrameTrace trace = createTrace(FrameTrace.CAPACITY_DEFAULT);
+        final int perThread = eventCount / threadCount;
+        final long[] times = new long[threadCount];
+
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            Thread[] threads = new Thread[threadCount];
+            for (int i = 0; i < threadCount; i++) {
+                final int index = i;
+                threads[i] = new Thread("trace writer " + i) {
+                    @Override
+                    public void run() {
+                        long start = System.nanoTime();
+                        for (int j = 0; j < perThread; j++) {
+                            trace.record(FrameTrace.Event.STAGE, j & 3, start, j);
+                        }
+                        times[index] = System.nanoTime() - start;
+                    }
+                };
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        trace.close();
+
+        long time = 0;
+        for (long threadTime : times) {
+            time = Math.max(time, threadTime);
+        }
+        double cost = (double)time / perThread;
+        report(true, String.format(Locale.US, "record x%d %7.1f ns/event", threadCount, cost));
+        return cost;
+    }
+
+    /**
+     * Runs traced drawing loop with one stall and checks overhead per frame and recorded events.
+     *
+     * @param cost          nanoseconds per record
+     * @throws Exception    if trace file can not be used or thread failed
+     */
+    private void checkLoop(double cost) throws Exception {
+        final FrameTrace trace = createTrace(FrameTrace.CAPACITY_DEFAULT);
+        final long period = FrameScheduler.NANOSECONDS_IN_SECOND / fps;
+        final long[] frames = new long[1];
+
+        UpdateThread updateThread = new UpdateThread() {
+            @Override
+            public void update() {
+                /* stages of drawing thread and rendering thread of MainView */
+                long start = System.nanoTime();
+                if (++frames[0] == STALL_FRAME) {
+                    try {
+                        Thread.sleep(STALL_PERIODS * period / (long)NANOSECONDS_IN_MILLISECOND);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                for (FrameStats.Stage stage : FrameStats.Stage.values()) {
+                    if (stage != FrameStats.Stage.FRAME) {
+                        trace.record(FrameTrace.Event.STAGE, stage.ordinal(), start, System.nanoTime() - start);
+                    }
+                }
+            }
+        };
+        updateThread.setName("Trace draw");
+        updateThread.setFps(fps);
+        updateThread.setTrace(trace);
+        updateThread.start();
+        Thread.sleep(LOOP_TIME);
+        updateThread.end();
+        updateThread.join(STOP_TIMEOUT);
+        trace.close();
+
+        File file = files.get(files.size() - 1);
+        List<TraceConverter.TraceEvent> events = TraceConverter.read(file);
+        double eventsPerFrame = (double)events.size() / Math.max(1, frames[0]);
+        double overhead = eventsPerFrame * cost / period;
+        report(overhead < OVERHEAD_MAX, String.format(Locale.US,
+                "overhead %.1f events/frame %.4f%% of %.1f ms frame", eventsPerFrame, overhead * 100,
+                period / NANOSECONDS_IN_MILLISECOND));
+
+        Map<FrameTrace.Event, Integer> counts = new HashMap<FrameTrace.Event, Integer>();
+        String name = null;
+        long stall = 0;
+        for (TraceConverter.TraceEvent event : events) {
+            Integer count = counts.get(event.event);
+            counts.put(event.event, count == null ? 1 : count + 1);
+            if (event.event == FrameTrace.Event.THREAD_NAME) {
+                name = event.getThreadName();
+            } else if (event.event == FrameTrace.Event.STALL) {
+                stall = Math.max(stall, event.value);
+            }
+        }
+        report(counts.get(FrameTrace.Event.FRAME) != null && counts.get(FrameTrace.Event.FRAME) == frames[0],
+                "frames " + counts.get(FrameTrace.Event.FRAME) + " of " + frames[0]);
+        report(counts.get(FrameTrace.Event.SLEEP) != null, "sleeps " + counts.get(FrameTrace.Event.SLEEP)
+                + " oversleeps " + counts.get(FrameTrace.Event.OVERSLEEP));
+        report(stall >= UpdateThread.STALL_PERIODS * period, String.format(Locale.US,
+                "stall %.1f ms", stall / NANOSECONDS_IN_MILLISECOND));
+        report("Trace draw".equals(name), "thread name " + name);
+
+        StringWriter json = new StringWriter();
+        int count = TraceConverter.write(events, json);
+        String text = json.toString();
+        report(count == events.size() && text.startsWith("{") && text.trim().endsWith("]}")
+                && count(text, "\"ph\":") == count && count(text, "{") == count(text, "}"),
+                "json " + count + " events " + text.length() + " chars");
+    }
+
+    /**
+     * Overwrites small ring by concurrent writers several times and checks that it holds
+     * the latest records once with values of their writers.
+     * Every writer lapped while preempted may clear one slot, so few records may be missing.
+     *
+     * @throws Exception    if trace file can not be used or thread failed
+     */
+    private void checkWrap() throws Exception {
+        final FrameTrace trace = createTrace(WRAP_CAPACITY);
+        final int perThread = WRAP_CAPACITY * 3 / 2;
+        final long[] ids = new long[WRAP_THREAD_COUNT];
+
+        Thread[] threads = new Thread[WRAP_THREAD_COUNT];
+        for (int i = 0; i < WRAP_THREAD_COUNT; i++) {
+            final int index = i;
+            threads[i] = new Thread("trace writer " + i) {
+                @Override
+                public void run() {
+                    for (int j = 0; j < perThread; j++) {
+                        trace.record(FrameTrace.Event.FRAME, index, System.nanoTime(), j);
+                    }
+                }
+            };
+            ids[i] = threads[i].getId();
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long total = trace.getEventCount();
+        trace.close();
+
+        List<TraceConverter.TraceEvent> events = TraceConverter.read(files.get(files.size() - 1));
+        boolean isValid = events.size() >= WRAP_CAPACITY - WRAP_THREAD_COUNT
+                && total == (long)perThread * WRAP_THREAD_COUNT;
+        long lastSequence = total - WRAP_CAPACITY - 1;
+        long[] lastValues = new long[WRAP_THREAD_COUNT];
+        Arrays.fill(lastValues, -1);
+        for (int i = 0; i < events.size() && isValid; i++) {
+            TraceConverter.TraceEvent event = events.get(i);
+            isValid = event.sequence > lastSequence && event.arg >= 0 && event.arg < WRAP_THREAD_COUNT
+                    && event.thread == (int)ids[event.arg] && event.value > lastValues[event.arg];
+            if (isValid) {
+                lastSequence = event.sequence;
+                lastValues[event.arg] = event.value;
+            }
+        }
+        report(isValid, "wrap " + events.size() + " of " + total + " records");
+    }
+
+    /**
+     * Checks that requested collection is detected once.
+     *
+     * @throws Exception    if trace file can not be used
+     */
+    private void checkCollection() throws Exception {
+        FrameTrace trace = createTrace(WRAP_CAPACITY);
+        boolean isCleanDetected = trace.pollCollection();
+        System.gc();
+        boolean isDetected = trace.pollCollection();
+        trace.close();
+
+        List<TraceConverter.TraceEvent> events = TraceConverter.read(files.get(files.size() - 1));
+        report(!isCleanDetected && isDetected && events.size() == 1 && events.get(0).event == FrameTrace.Event.GC,
+                "collection detected " + isDetected);
+    }
+
+    /**
+     * Creates trace in temporary file which is deleted after check.
+     *
+     * @param capacity      count of records
+     * @return              trace
+     * @throws IOException  if file can not be created
+     */
+    private FrameTrace createTrace(int capacity) throws IOException {
+        File file = File.createTempFile("plasma", ".trace");
+        files.add(file);
+        return new FrameTrace(file, capacity);
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + part.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    private void report(boolean isPassed, String text) {
+        if (!isPassed) {
+            failures++;
+        }
+        System.out.println((isPassed ? "ok     " : "FAIL   ") + text);
+    }
+
+    /**
+     * Parses <code>key=value</code> arguments.
+     *
+     * @param args  command line arguments
+     */
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i < 0) {
+                throw new IllegalArgumentException(arg);
+            }
+            String key = arg.substring(0, i);
+            String value = arg.substring(i + 1);
+
+            if (key.equals("events")) {
+                eventCount = Integer.parseInt(value);
+            } else if (key.equals("fps")) {
+                fps = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException(arg);
+            }
+        }
+
+        if (eventCount < THREAD_COUNT) {
+            throw new IllegalArgumentException("events");
+        }
+        if (fps < 1 || fps > UpdateThread.FPS_MAX) {
+            throw new IllegalArgumentException("fps");
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Converter of {@link FrameTrace} file into Chrome trace event JSON,
+ * which is opened by <code>chrome://tracing</code> or Perfetto UI.
+ * <p>
+ * Committed records are ordered by sequence, records torn by crash of writer are skipped.
+ * Durations become complete events, misses and collections become instant events
+ * and thread names become metadata events, times are in microseconds since trace start.
+ * <p>
+ * Arguments are <code>key=value</code> pairs:
+ * <ul>
+ *     <li><code>in=frames.trace</code> trace file, required</li>
+ *     <li><code>out=frames.json</code> JSON file, trace file name with <code>.json</code> by default</li>
+ * </ul>
+ *
+ * @author Vitaly Obukhov
+ * @version 1.0
+ */
+public final class TraceConverter {
+
+
+    private static final int PROCESS_ID = 1;
+    private static final double NANOSECONDS_IN_MICROSECOND = 1e3;
+    private static final double NANOSECONDS_IN_MILLISECOND = 1e6;
+
+
+    /* parameters */
+    private File in;
+    private File out;
+
+
+    public static void main(String[] args) throws IOException {
+        TraceConverter converter = new TraceConverter();
+        converter.parse(args);
+        converter.run();
+    }
+
+    /**
+     * Converts trace file and prints summary.
+     *
+     * @throws IOException  if file can not be read or written
+     */
+    private void run() throws IOException {
+        List<TraceEvent> events = read(in);
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), "UTF-8"));
+        int count;
+        try {
+            count = write(events, writer);
+        } finally {
+            writer.close();
+        }
+
+        System.out.println(String.format(Locale.US, "%d records, %d trace events written to %s",
+                events.size(), count, out));
+    }
+
+    /**
+     * Reads committed records of trace file.
+     *
+     * @param file          trace file
+     * @return              records ordered by sequence
+     * @throws IOException  if file can not be read or is not trace
+     */
+    public static List<TraceEvent> read(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try {
+            FileChannel channel = input.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            input.close();
+        }
+
+        if (buffer.capacity() < FrameTrace.HEADER_SIZE || buffer.getInt(0) != FrameTrace.MAGIC) {
+            throw new IOException("not frame trace: " + file);
+        }
+        if (buffer.getInt(4) != FrameTrace.VERSION || buffer.getInt(8) != FrameTrace.EVENT_SIZE) {
+            throw new IOException("unsupported frame trace version: " + file);
+        }
+        int capacity = buffer.getInt(12);
+        if (capacity < 1 || Integer.bitCount(capacity) != 1
+                || buffer.capacity() < FrameTrace.HEADER_SIZE + (long)capacity * FrameTrace.EVENT_SIZE) {
+            throw new IOException("truncated frame trace: " + file);
+        }
+
+        FrameTrace.Event[] types = FrameTrace.Event.values();
+        List<TraceEvent> events = new ArrayList<TraceEvent>();
+        for (int i = 0; i < capacity; i++) {
+            int offset = FrameTrace.HEADER_SIZE + i * FrameTrace.EVENT_SIZE;
+            long commit = buffer.getLong(offset);
+            int type = buffer.getShort(offset + 28);
+
+            /* empty slot, slot of other sequence or unknown type means record was not finished */
+            if (commit == 0 || ((commit - 1) & (capacity - 1)) != i || type < 0 || type >= types.length) {
+                continue;
+            }
+
+            events.add(new TraceEvent(commit - 1, types[type], buffer.getShort(offset + 30),
+                    buffer.getLong(offset + 8), buffer.getLong(offset + 16), buffer.getInt(offset + 24)));
+        }
+
+        Collections.sort(events, new Comparator<TraceEvent>() {
+            @Override
+            public int compare(TraceEvent a, TraceEvent b) {
+                return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+            }
+        });
+        return events;
+    }
+
+    /**
+     * Writes records as Chrome trace event JSON object.
+     *
+     * @param events        trace records
+     * @param out           JSON target
+     * @return              count of written trace events
+     * @throws IOException  if target can not be written
+     */
+    public static int write(List<TraceEvent> events, Writer out) throws IOException {
+        FrameStats.Stage[] stages = FrameStats.Stage.values();
+
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        int count = 0;
+        for (TraceEvent event : events) {
+            String json;
+            switch (event.event) {
+                case THREAD_NAME:
+                    json = String.format(Locale.US,
+                            "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":%d,\"tid\":%d,\"args\":{\"name\":\"%s\"}}",
+                            PROCESS_ID, event.thread, escape(event.getThreadName()));
+                    break;
+                case FRAME:
+                    json = complete("frame", "frame", event, "");
+                    break;
+                case STAGE:
+                    String name = event.arg >= 0 && event.arg < stages.length
+                            ? stages[event.arg].getTitle() : "stage " + event.arg;
+                    json = complete(name, "stage", event, "");
+                    break;
+                case SLEEP:
+                    json = complete("sleep", "scheduler", event, "");
+                    break;
+                case OVERSLEEP:
+                    json = complete("oversleep", "scheduler", event, "");
+                    break;
+                case MISS:
+                    json = instant("miss", "scheduler", "t", event,
+                            String.format(Locale.US, "\"late_ms\":%.3f", event.value / NANOSECONDS_IN_MILLISECOND));
+                    break;
+                case STALL:
+                    json = complete("stall", "stall", event, "\"gc\":" + (event.arg != 0));
+                    break;
+                case GC:
+                    json = instant("gc", "gc", "p", event, "\"count\":" + event.value);
+                    break;
+                default:
+                    continue;
+            }
+
+            out.write(count == 0 ? "\n" : ",\n");
+            out.write(json);
+            count++;
+        }
+        out.write("\n]}\n");
+
+        return count;
+    }
+
+    /**
+     * Formats complete event of record which value is duration.
+     */
+    private static String complete(String name, String category, TraceEvent event, String args) {
+        return String.format(Locale.US,
+                "{\"name\":\"%s\",\"cat\":\"%s\",\"ph\":\"X\",\"pid\":%d,\"tid\":%d,\"ts\":%.3f,\"dur\":%.3f,\"args\":{%s}}",
+                name, category, PROCESS_ID, event.thread, event.time / NANOSECONDS_IN_MICROSECOND,
+                Math.max(0, event.value) / NANOSECONDS_IN_MICROSECOND, args);
+    }
+
+    /**
+     * Formats instant event of record with scope <code>t</code> of thread or <code>p</code> of process.
+     */
+    private static String instant(String name, String category, String scope, TraceEvent event, String args) {
+        return String.format(Locale.US,
+                "{\"name\":\"%s\",\"cat\":\"%s\",\"ph\":\"i\",\"s\":\"%s\",\"pid\":%d,\"tid\":%d,\"ts\":%.3f,\"args\":{%s}}",
+                name, category, scope, PROCESS_ID, event.thread, event.time / NANOSECONDS_IN_MICROSECOND, args);
+    }
+
+    /**
+     * Escapes string for JSON.
+     */
+    private static String escape(String val) {
+        StringBuilder builder = new StringBuilder(val.length());
+        for (int i = 0; i < val.length(); i++) {
+            char c = val.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < ' ') {
+                builder.append(String.format(Locale.US, "\\u%04x", (int)c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Parses <code>key=value</code> arguments.
+     *
+     * @param args  command line arguments
+     */
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i < 0) {
+                throw new IllegalArgumentException(arg);
+            }
+            String key = arg.substring(0, i);
+            String value = arg.substring(i + 1);
+
+            if (key.equals("in")) {
+                in = new File(value);
+            } else if (key.equals("out")) {
+                out = new File(value);
+            } else {
+                throw new IllegalArgumentException(arg);
+            }
+        }
+
+        if (in == null) {
+            throw new IllegalArgumentException("in");
+        }
+        if (out == null) {
+            String name = in.getName();
+            int i = name.lastIndexOf('.');
+            out = new File(in.getParentFile(), (i > 0 ? name.substring(0, i) : name) + ".json");
+        }
+    }
+
+
+    /**
+     * Committed record of trace file.
+     */
+    public static final class TraceEvent {
+        public final long sequence;
+        public final FrameTrace.Event event;
+        public final int arg;
+        /* nanoseconds since trace start */
+        public final long time;
+        public final long value;
+        public final int thread;
+
+        TraceEvent(long sequence, FrameTrace.Event event, int arg, long time, long value, int thread) {
+            this.sequence = sequence;
+            this.event = event;
+            this.arg = arg;
+            this.time = time;
+            this.value = value;
+            this.thread = thread;
+        }
+
+        /**
+         * @return  name packed into time and value of {@link FrameTrace.Event#THREAD_NAME} record
+         */
+        public final String getThreadName() {
+            StringBuilder builder = new StringBuilder();
+            for (long chars : new long[] { time, value }) {
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    char c = (char)((chars >>> shift) & 0x7f);
+                    if (c == 0) {
+                        return builder.toString();
+                    }
+                    builder.append(c);
+                }
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.vitalyobukhov.plasmademo;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * {@link PlasmaCore.RowKernel} which calculates several pixels per instruction
+ * using <code>jdk.incubator.vector</code> module.
+ * <p>
+ * Requires JDK 16 or newer started with <code>--add-modules jdk.incubator.vector</code>,
+ * {@link PlasmaCore} loads it by name, so {@link PlasmaCore.Mode#VECTOR} is not supported otherwise.
+ * Pixels which do not fill whole vector are calculated by scalar code.
+ * Channel values are calculated in lanes, conversion and packing to ARGB is scalar.
+ *
+ * @author Vitaly Obukhov
+ * @version 1.0
+ */
+public final class VectorRowKernel implements PlasmaCore.RowKernel {
+
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    /* color constants */
+    private static final double COLOR_VAL_MAX = 255;
+    private static final double COLOR_VAL_HALF = 127;
+    private static final double COLOR_VAL_MIN = 0;
+    private static final int ALPHA = 255 << 24;
+
+
+    @Override
+    public void render(double[] columnDistSq, double[] rowDistSq, int width, double diag,
+            double[] scratch, int[] target, int offset) {
+        int r1 = PlasmaCore.SOURCE_R1 * width;
+        int r2 = PlasmaCore.SOURCE_R2 * width;
+        int g1 = PlasmaCore.SOURCE_G1 * width;
+        int g2 = PlasmaCore.SOURCE_G2 * width;
+        int b1 = PlasmaCore.SOURCE_B1 * width;
+        int b2 = PlasmaCore.SOURCE_B2 * width;
+
+        double dyR1 = rowDistSq[PlasmaCore.SOURCE_R1];
+        double dyR2 = rowDistSq[PlasmaCore.SOURCE_R2];
+        double dyG1 = rowDistSq[PlasmaCore.SOURCE_G1];
+        double dyG2 = rowDistSq[PlasmaCore.SOURCE_G2];
+        double dyB1 = rowDistSq[PlasmaCore.SOURCE_B1];
+        double dyB2 = rowDistSq[PlasmaCore.SOURCE_B2];
+
+        /* channel values are stored planar in scratch */
+        int r = 0;
+        int g = width;
+        int b = 2 * width;
+
+        int x = 0;
+        int vectorEnd = SPECIES.loopBound(width);
+        for (; x < vectorEnd; x += LANES) {
+            channel(columnDistSq, r1 + x, dyR1, r2 + x, dyR2, diag).intoArray(scratch, r + x);
+            channel(columnDistSq, g1 + x, dyG1, g2 + x, dyG2, diag).intoArray(scratch, g + x);
+            channel(columnDistSq, b1 + x, dyB1, b2 + x, dyB2, diag).intoArray(scratch, b + x);
+        }
+
+        /* scalar tail */
+        for (; x < width; x++) {
+            scratch[r + x] = channel(columnDistSq[r1 + x] + dyR1, columnDistSq[r2 + x] + dyR2, diag);
+            scratch[g + x] = channel(columnDistSq[g1 + x] + dyG1, columnDistSq[g2 + x] + dyG2, diag);
+            scratch[b + x] = channel(columnDistSq[b1 + x] + dyB1, columnDistSq[b2 + x] + dyB2, diag);
+        }
+
+        /* packing is scalar, lanes conversion to int is not intrinsified on every JDK */
+        for (x = 0; x < width; x++) {
+            target[offset + x] = ALPHA | ((int)scratch[r + x] << 16) | ((int)scratch[g + x] << 8) | (int)scratch[b + x];
+        }
+    }
+
+    /**
+     * Calculates channel values of <code>LANES</code> pixels.
+     *
+     * @param columnDistSq  squared horizontal distances
+     * @param i1            index of attractor distances
+     * @param dy1           squared vertical attractor distance
+     * @param i2            index of repulsor distances
+     * @param dy2           squared vertical repulsor distance
+     * @param diag          plasma effect diagonal
+     * @return              clamped channel values
+     */
+    private static DoubleVector channel(double[] columnDistSq, int i1, double dy1, int i2, double dy2, double diag) {
+        DoubleVector w1 = DoubleVector.fromArray(SPECIES, columnDistSq, i1).add(dy1)
+                .lanewise(VectorOperators.SQRT).div(diag).neg().add(1.0);
+        DoubleVector w2 = DoubleVector.fromArray(SPECIES, columnDistSq, i2).add(dy2)
+                .lanewise(VectorOperators.SQRT).div(diag).neg().add(1.0);
+
+        return w1.sub(w2).mul(COLOR_VAL_MAX).add(COLOR_VAL_HALF)
+                .max(COLOR_VAL_MIN).min(COLOR_VAL_MAX);
+    }
+
+    /**
+     * Calculates channel value of single pixel.
+     *
+     * @param distSq1   squared attractor distance
+     * @param distSq2   squared repulsor distance
+     * @param diag      plasma effect diagonal
+     * @return          clamped channel value
+     */
+    private static double channel(double distSq1, double distSq2, double diag) {
+        double c = COLOR_VAL_HALF + COLOR_VAL_MAX *
+                ((1.0 - Math.sqrt(distSq1) / diag) - (1.0 - Math.sqrt(distSq2) / diag));
+
+        return c > COLOR_VAL_MAX ? COLOR_VAL_MAX : (c < COLOR_VAL_MIN ? COLOR_VAL_MIN : c);
+    }
+}
@@ -0,0 +1,253 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Pool of pixel arrays and {@link Frame} buffers grouped by size classes.
+ * <p>
+ * Requested pixel count is rounded up to its size class, classes grow by quarter of power of two,
+ * so buffer is at most a quarter larger than requested and buffers of close sizes are shared.
+ * Recycled buffers are kept while their bytes fit budget, the oldest ones are dropped first,
+ * so repeated resizes take buffers of previously used sizes instead of allocating new ones.
+ * Buffers of other sizes are never pooled.
+ *
+ * @author Vitaly Obukhov
+ * @version 1.0
+ */
+public final class BufferPool {
+
+
+    public static final int SIZE_CLASS_MIN = 64;
+    public static final long BUDGET_DEFAULT = 8L << 20;
+
+    private static final int SIZE_CLASS_STEPS = 4;
+    private static final int BYTES_PER_PIXEL = 4;
+
+
+    private final long budget;
+
+    /* pooled buffers from oldest to newest */
+    private final List<int[]> pixels;
+    private final List<Frame> frames;
+    private long pooledBytes;
+    private final Object sync;
+
+    /* statistics */
+    private long allocationCount;
+    private long reuseCount;
+
+
+    /**
+     * Creates pool with {@link #BUDGET_DEFAULT} budget.
+     */
+    public BufferPool() {
+        this(BUDGET_DEFAULT);
+    }
+
+    /**
+     * Creates pool which keeps no more than <code>budget</code> bytes of recycled buffers.
+     *
+     * @param budget    maximum bytes of pooled buffers, 0 to pool nothing
+     */
+    public BufferPool(long budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget");
+        }
+
+        this.budget = budget;
+        pixels = new ArrayList<int[]>();
+        frames = new ArrayList<Frame>();
+        pooledBytes = 0;
+        sync = new Object();
+    }
+
+
+    /**
+     * Rounds pixel count up to its size class.
+     *
+     * @param size  count of pixels
+     * @return      capacity of buffers of <code>size</code> class
+     */
+    public static int getSizeClass(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size");
+        }
+        if (size <= SIZE_CLASS_MIN) {
+            return SIZE_CLASS_MIN;
+        }
+
+        int power = Integer.highestOneBit(size);
+        if (power == size) {
+            return size;
+        }
+
+        long step = power / SIZE_CLASS_STEPS;
+        return (int)Math.min(Integer.MAX_VALUE, (size + step - 1) / step * step);
+    }
+
+    /**
+     * Takes pooled array of <code>size</code> class or creates new one.
+     *
+     * @param size  count of pixels
+     * @return      array of size class length
+     */
+    public final int[] obtainPixels(int size) {
+        int capacity = getSizeClass(size);
+        synchronized (sync) {
+            for (int i = pixels.size() - 1; i >= 0; i--) {
+                if (pixels.get(i).length == capacity) {
+                    reuseCount++;
+                    pooledBytes -= (long)capacity * BYTES_PER_PIXEL;
+                    return pixels.remove(i);
+                }
+            }
+            allocationCount++;
+        }
+
+        return new int[capacity];
+    }
+
+    /**
+     * Takes pooled frame of <code>size</code> class or creates new one.
+     *
+     * @param size  count of pixels
+     * @return      empty frame of size class capacity
+     */
+    public final Frame obtainFrame(int size) {
+        int capacity = getSizeClass(size);
+        synchronized (sync) {
+            for (int i = frames.size() - 1; i >= 0; i--) {
+                if (frames.get(i).getCapacity() == capacity) {
+                    reuseCount++;
+                    pooledBytes -= (long)capacity * BYTES_PER_PIXEL;
+                    Frame frame = frames.remove(i);
+                    frame.setSize(0, 0);
+                    return frame;
+                }
+            }
+            allocationCount++;
+        }
+
+        return new Frame(capacity);
+    }
+
+    /**
+     * Returns array to pool, array must not be used after that.
+     *
+     * @param val   array taken by {@link #obtainPixels} or <code>null</code>
+     */
+    public final void recycle(int[] val) {
+        if (val == null || val.length != getSizeClass(val.length)) {
+            return;
+        }
+
+        synchronized (sync) {
+            pixels.add(val);
+            pooledBytes += (long)val.length * BYTES_PER_PIXEL;
+            trim();
+        }
+    }
+
+    /**
+     * Returns frame to pool, frame must not be used after that.
+     *
+     * @param val   frame taken by {@link #obtainFrame} or <code>null</code>
+     */
+    public final void recycle(Frame val) {
+        if (val == null || val.getCapacity() != getSizeClass(val.getCapacity())) {
+            return;
+        }
+
+        synchronized (sync) {
+            frames.add(val);
+            pooledBytes += (long)val.getCapacity() * BYTES_PER_PIXEL;
+            trim();
+        }
+    }
+
+    /**
+     * Fits array to <code>size</code> class, array of other class is recycled and replaced.
+     *
+     * @param val   current array or <code>null</code>
+     * @param size  count of pixels
+     * @return      <code>val</code> or array of <code>size</code> class
+     */
+    public final int[] fit(int[] val, int size) {
+        if (val != null && val.length == getSizeClass(size)) {
+            return val;
+        }
+
+        recycle(val);
+        return obtainPixels(size);
+    }
+
+    /**
+     * Fits frame to <code>size</code> class, frame of other class is recycled and replaced.
+     *
+     * @param val   current frame or <code>null</code>
+     * @param size  count of pixels
+     * @return      <code>val</code> or frame of <code>size</code> class
+     */
+    public final Frame fit(Frame val, int size) {
+        if (val != null && val.getCapacity() == getSizeClass(size)) {
+            return val;
+        }
+
+        recycle(val);
+        return obtainFrame(size);
+    }
+
+    public final long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return  bytes of pooled buffers
+     */
+    public final long getPooledBytes() {
+        synchronized (sync) {
+            return pooledBytes;
+        }
+    }
+
+    /**
+     * @return  count of buffers created because pool had none of requested class
+     */
+    public final long getAllocationCount() {
+        synchronized (sync) {
+            return allocationCount;
+        }
+    }
+
+    /**
+     * @return  count of buffers taken from pool
+     */
+    public final long getReuseCount() {
+        synchronized (sync) {
+            return reuseCount;
+        }
+    }
+
+    /**
+     * Drops the oldest buffers until pooled bytes fit budget.
+     * Must be called while sync is held.
+     */
+    private void trim() {
+        while (pooledBytes > budget) {
+            int[] oldestPixels = pixels.isEmpty() ? null : pixels.get(0);
+            Frame oldestFrame = frames.isEmpty() ? null : frames.get(0);
+
+            /* the larger of the oldest array and the oldest frame goes first */
+            if (oldestFrame == null
+                    || (oldestPixels != null && oldestPixels.length >= oldestFrame.getCapacity())) {
+                pixels.remove(0);
+                pooledBytes -= (long)oldestPixels.length * BYTES_PER_PIXEL;
+            } else {
+                frames.remove(0);
+                pooledBytes -= (long)oldestFrame.getCapacity() * BYTES_PER_PIXEL;
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+
+/**
+ * Rendered pixels with dimensions.
+ * Pixels are stored in direct buffer in {@link PlasmaCore.PixelFormat#RGBA} format,
+ * which is memory layout of <code>ARGB_8888</code> bitmap, so frame is copied to bitmap
+ * by plain memory copy.
+ * Buffer has fixed capacity, frame dimensions may be any which fit it.
+ *
+ * @author Vitaly Obukhov
+ * @version 1.1
+ */
+public final class Frame implements FrameSink {
+
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+
+    private final ByteBuffer bytes;
+    private final IntBuffer pixels;
+    private int width;
+    private int height;
+
+
+    /**
+     * Creates empty frame able to hold <code>capacity</code> pixels.
+     *
+     * @param capacity  count of pixels
+     */
+    public Frame(int capacity) {
+        bytes = ByteBuffer.allocateDirect(capacity * BYTES_PER_PIXEL).order(ByteOrder.nativeOrder());
+        pixels = bytes.asIntBuffer();
+        width = 0;
+        height = 0;
+    }
+
+
+    /**
+     * Sets dimensions of frame content, rows are stored without gaps.
+     *
+     * @param width     frame width
+     * @param height    frame height
+     */
+    public final void setSize(int width, int height) {
+        if (width < 0 || height < 0 || width * height > pixels.capacity()) {
+            throw new IllegalArgumentException("size");
+        }
+
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public final IntBuffer lock(int width, int height) {
+        setSize(width, height);
+        return pixels;
+    }
+
+    @Override
+    public final void unlock() {
+    }
+
+    @Override
+    public final PlasmaCore.PixelFormat getPixelFormat() {
+        return PlasmaCore.PixelFormat.RGBA;
+    }
+
+    /**
+     * @return  pixels buffer starting from first pixel
+     */
+    public final IntBuffer getPixels() {
+        return pixels;
+    }
+
+    /**
+     * Gets frame content as bytes.
+     *
+     * @return  buffer positioned at first pixel and limited by last one
+     */
+    public final ByteBuffer getBytes() {
+        bytes.limit(width * height * BYTES_PER_PIXEL);
+        bytes.position(0);
+        return bytes;
+    }
+
+    public final int getWidth() {
+        return width;
+    }
+
+    public final int getHeight() {
+        return height;
+    }
+
+    public final int getCapacity() {
+        return pixels.capacity();
+    }
+}
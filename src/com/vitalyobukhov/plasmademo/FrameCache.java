@@ -0,0 +1,514 @@
+package com.vitalyobukhov.plasmademo;
+
+
+/**
+ * Cache of {@link PlasmaCore} frames keyed by quantized time.
+ * <p>
+ * Time is rounded down to multiple of quantum before rendering, so all requests
+ * within one quantum share the same frame. Frames are kept in fixed slots, as many as fit budget
+ * for current dimensions, and are found by quantized time in open addressing table of primitive keys,
+ * so hit neither boxes nor allocates. Least recently used slot is reused when all slots are taken.
+ * Rendered frame is stored in {@link Storage} format and returned as stored,
+ * so lossy storage gives the same image on hit and on miss.
+ * Cache is cleared when plasma dimensions change.
+ * <p>
+ * Cache may be used from several threads. {@link PlasmaCore} renders one frame at a time,
+ * so misses are rendered one after another under render lock, and core must not be rendered
+ * by anything else while cache is used. Hits do not wait for rendering miss.
+ *
+ * @author Vitaly Obukhov
+ * @version 1.2
+ */
+public final class FrameCache {
+
+
+    /**
+     * Frame storage format.
+     */
+    public enum Storage {
+        /** exact 32 bit ARGB pixels */
+        ARGB_8888(4),
+        /** 16 bit RGB 565 pixels, half of memory, lossy */
+        RGB_565(2);
+
+        private final int bytesPerPixel;
+
+        Storage(int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+        }
+
+        public final int getBytesPerPixel() {
+            return bytesPerPixel;
+        }
+    }
+
+
+    /* slots of tiny frames are limited by count rather than by budget */
+    public static final int SLOT_COUNT_MAX = 4096;
+
+    private static final int NO_SLOT = -1;
+
+
+    private final PlasmaCore core;
+    private final long quantum;
+    private final long budget;
+    private final Storage storage;
+
+    /* frames of current dimensions, storage of slot is created on first use */
+    private int frameWidth;
+    private int frameHeight;
+    private int slotCount;
+    private int[][] argbFrames;
+    private short[][] rgb565Frames;
+    private long[] slotKeys;
+
+    /* used slots from most recently used one to least recently used one */
+    private int[] slotPrev;
+    private int[] slotNext;
+    private int head;
+    private int tail;
+    private int usedCount;
+
+    /* quantized time to slot, linear probing, power of two size */
+    private long[] tableKeys;
+    private int[] tableSlots;
+
+    /* statistics */
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private final Object sync;
+
+    /* held while core renders miss, taken before sync */
+    private final Object renderSync;
+
+
+    /**
+     * Creates cache for <code>core</code> frames.
+     *
+     * @param core      frames source
+     * @param quantum   time quantum in milliseconds
+     * @param budget    maximum bytes of cached frames
+     * @param storage   frame storage format
+     */
+    public FrameCache(PlasmaCore core, long quantum, long budget, Storage storage) {
+        if (core == null) {
+            throw new IllegalArgumentException("core");
+        }
+        if (quantum < 1) {
+            throw new IllegalArgumentException("quantum");
+        }
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget");
+        }
+        if (storage == null) {
+            throw new IllegalArgumentException("storage");
+        }
+
+        this.core = core;
+        this.quantum = quantum;
+        this.budget = budget;
+        this.storage = storage;
+
+        sync = new Object();
+        renderSync = new Object();
+        setFrameSize(0, 0);
+    }
+
+
+    /**
+     * Gets frame of quantized <code>time</code> into <code>target</code> array
+     * rendering it if it is not cached.
+     * Pixel <code>(x, y)</code> is stored at <code>offset + y * stride + x</code>.
+     *
+     * @param time      desired time
+     * @param target    destination ARGB pixels
+     * @param offset    index of first pixel
+     * @param stride    count of array elements between rows starts
+     */
+    public final void render(long time, int[] target, int offset, int stride) {
+        long key = getQuantizedTime(time);
+        if (copyCached(key, target, offset, stride)) {
+            return;
+        }
+
+        synchronized (renderSync) {
+            /* frame may be rendered by previous holder of render lock */
+            if (copyCached(key, target, offset, stride)) {
+                return;
+            }
+
+            int width = core.getWidth();
+            int height = core.getHeight();
+            synchronized (sync) {
+                missCount++;
+            }
+
+            core.render(key, target, offset, stride);
+
+            synchronized (sync) {
+                /* dimensions may be changed while rendering */
+                if (width != frameWidth || height != frameHeight || slotCount == 0) {
+                    quantize(target, offset, stride, width, height);
+                    return;
+                }
+
+                int slot = obtainSlot();
+                slotKeys[slot] = key;
+                put(key, slot);
+                copyTo(slot, target, offset, stride);
+                touch(slot);
+                copyFrom(slot, target, offset, stride);
+            }
+        }
+    }
+
+    /**
+     * Calculates time which frame is cached for.
+     *
+     * @param time  desired time
+     * @return      time rounded down to quantum
+     */
+    public final long getQuantizedTime(long time) {
+        long rem = time % quantum;
+        return rem >= 0 ? time - rem : time - rem - quantum;
+    }
+
+    /**
+     * Removes all cached frames, their storage is kept.
+     */
+    public final void clear() {
+        synchronized (sync) {
+            clearSlots();
+        }
+    }
+
+    public final long getHitCount() {
+        synchronized (sync) {
+            return hitCount;
+        }
+    }
+
+    public final long getMissCount() {
+        synchronized (sync) {
+            return missCount;
+        }
+    }
+
+    public final long getEvictionCount() {
+        synchronized (sync) {
+            return evictionCount;
+        }
+    }
+
+    public final int getFrameCount() {
+        synchronized (sync) {
+            return usedCount;
+        }
+    }
+
+    /**
+     * @return  bytes used by cached frames
+     */
+    public final long getUsedBytes() {
+        synchronized (sync) {
+            return (long)usedCount * frameWidth * frameHeight * storage.getBytesPerPixel();
+        }
+    }
+
+    public final long getBudget() {
+        return budget;
+    }
+
+    public final long getQuantum() {
+        return quantum;
+    }
+
+    public final Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Copies cached frame of quantized time into target, cache is cleared first if dimensions changed.
+     *
+     * @param key       quantized time
+     * @param target    destination ARGB pixels
+     * @param offset    index of first pixel
+     * @param stride    count of array elements between rows starts
+     * @return          <code>true</code> on hit, <code>false</code> if frame is not cached
+     */
+    private boolean copyCached(long key, int[] target, int offset, int stride) {
+        int width = core.getWidth();
+        int height = core.getHeight();
+
+        synchronized (sync) {
+            if (width != frameWidth || height != frameHeight) {
+                setFrameSize(width, height);
+            }
+
+            int slot = find(key);
+            if (slot == NO_SLOT) {
+                return false;
+            }
+
+            hitCount++;
+            touch(slot);
+            copyFrom(slot, target, offset, stride);
+            return true;
+        }
+    }
+
+    /**
+     * Drops frames and slots and creates slots which fit budget for new dimensions.
+     * Must be called while sync is held.
+     *
+     * @param width     frame width
+     * @param height    frame height
+     */
+    private void setFrameSize(int width, int height) {
+        frameWidth = width;
+        frameHeight = height;
+
+        long frameBytes = (long)width * height * storage.getBytesPerPixel();
+        slotCount = frameBytes == 0 ? 0 : (int)Math.min(SLOT_COUNT_MAX, budget / frameBytes);
+
+        if (storage == Storage.ARGB_8888) {
+            argbFrames = new int[slotCount][];
+        } else {
+            rgb565Frames = new short[slotCount][];
+        }
+        slotKeys = new long[slotCount];
+        slotPrev = new int[slotCount];
+        slotNext = new int[slotCount];
+
+        /* table is at most half full */
+        int tableSize = Integer.highestOneBit(Math.max(1, slotCount)) * 4;
+        tableKeys = new long[tableSize];
+        tableSlots = new int[tableSize];
+        clearSlots();
+    }
+
+    /**
+     * Marks all slots free.
+     * Must be called while sync is held.
+     */
+    private void clearSlots() {
+        for (int i = 0; i < tableSlots.length; i++) {
+            tableSlots[i] = NO_SLOT;
+        }
+        head = NO_SLOT;
+        tail = NO_SLOT;
+        usedCount = 0;
+    }
+
+    /**
+     * Takes free slot or evicts least recently used one.
+     * Must be called while sync is held.
+     *
+     * @return  slot which is not in use order and table
+     */
+    private int obtainSlot() {
+        if (usedCount < slotCount) {
+            slotPrev[usedCount] = NO_SLOT;
+            slotNext[usedCount] = NO_SLOT;
+            return usedCount++;
+        }
+
+        int slot = tail;
+        unlink(slot);
+        remove(slotKeys[slot]);
+        evictionCount++;
+        return slot;
+    }
+
+    /**
+     * Moves slot to the head of use order, slot may be not in order yet.
+     * Must be called while sync is held.
+     */
+    private void touch(int slot) {
+        if (slot == head) {
+            return;
+        }
+        /* every used slot but head has previous one */
+        if (slotPrev[slot] != NO_SLOT) {
+            unlink(slot);
+        }
+
+        slotPrev[slot] = NO_SLOT;
+        slotNext[slot] = head;
+        if (head != NO_SLOT) {
+            slotPrev[head] = slot;
+        }
+        head = slot;
+        if (tail == NO_SLOT) {
+            tail = slot;
+        }
+    }
+
+    /**
+     * Removes slot from use order.
+     * Must be called while sync is held.
+     */
+    private void unlink(int slot) {
+        int prev = slotPrev[slot];
+        int next = slotNext[slot];
+        if (prev != NO_SLOT) {
+            slotNext[prev] = next;
+        } else {
+            head = next;
+        }
+        if (next != NO_SLOT) {
+            slotPrev[next] = prev;
+        } else {
+            tail = prev;
+        }
+        slotPrev[slot] = NO_SLOT;
+        slotNext[slot] = NO_SLOT;
+    }
+
+    /**
+     * @return  table index key is searched from
+     */
+    private int getTableIndex(long key) {
+        return (int)((key * 0x9e3779b97f4a7c15L) >>> 40) & (tableKeys.length - 1);
+    }
+
+    /**
+     * Must be called while sync is held.
+     *
+     * @return  slot of key or {@link #NO_SLOT}
+     */
+    private int find(long key) {
+        int mask = tableKeys.length - 1;
+        for (int i = getTableIndex(key); tableSlots[i] != NO_SLOT; i = (i + 1) & mask) {
+            if (tableKeys[i] == key) {
+                return tableSlots[i];
+            }
+        }
+        return NO_SLOT;
+    }
+
+    /**
+     * Adds key which is not in table.
+     * Must be called while sync is held.
+     */
+    private void put(long key, int slot) {
+        int mask = tableKeys.length - 1;
+        int i = getTableIndex(key);
+        while (tableSlots[i] != NO_SLOT) {
+            i = (i + 1) & mask;
+        }
+        tableKeys[i] = key;
+        tableSlots[i] = slot;
+    }
+
+    /**
+     * Removes key from table shifting following entries of its probe sequence back.
+     * Must be called while sync is held.
+     */
+    private void remove(long key) {
+        int mask = tableKeys.length - 1;
+        int i = getTableIndex(key);
+        while (tableSlots[i] != NO_SLOT && tableKeys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (tableSlots[i] == NO_SLOT) {
+            return;
+        }
+
+        for (int j = (i + 1) & mask; tableSlots[j] != NO_SLOT; j = (j + 1) & mask) {
+            /* entry stays if its home index is cyclically within (i, j] */
+            int home = getTableIndex(tableKeys[j]);
+            if (i <= j ? (i < home && home <= j) : (i < home || home <= j)) {
+                continue;
+            }
+            tableKeys[i] = tableKeys[j];
+            tableSlots[i] = tableSlots[j];
+            i = j;
+        }
+        tableSlots[i] = NO_SLOT;
+    }
+
+    /**
+     * Stores frame pixels into slot.
+     * Must be called while sync is held.
+     *
+     * @param slot      frame slot
+     * @param source    source ARGB pixels
+     * @param offset    index of first pixel
+     * @param stride    count of array elements between rows starts
+     */
+    private void copyTo(int slot, int[] source, int offset, int stride) {
+        int size = frameWidth * frameHeight;
+        if (storage == Storage.ARGB_8888) {
+            if (argbFrames[slot] == null) {
+                argbFrames[slot] = new int[size];
+            }
+            int[] pixels = argbFrames[slot];
+            for (int y = 0; y < frameHeight; y++) {
+                System.arraycopy(source, offset + y * stride, pixels, y * frameWidth, frameWidth);
+            }
+        } else {
+            if (rgb565Frames[slot] == null) {
+                rgb565Frames[slot] = new short[size];
+            }
+            short[] pixels = rgb565Frames[slot];
+            for (int y = 0, p = 0; y < frameHeight; y++) {
+                for (int i = offset + y * stride, end = i + frameWidth; i < end; i++, p++) {
+                    pixels[p] = toRgb565(source[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores frame pixels from slot.
+     * Must be called while sync is held.
+     *
+     * @param slot      frame slot
+     * @param target    destination ARGB pixels
+     * @param offset    index of first pixel
+     * @param stride    count of array elements between rows starts
+     */
+    private void copyFrom(int slot, int[] target, int offset, int stride) {
+        if (storage == Storage.ARGB_8888) {
+            int[] pixels = argbFrames[slot];
+            for (int y = 0; y < frameHeight; y++) {
+                System.arraycopy(pixels, y * frameWidth, target, offset + y * stride, frameWidth);
+            }
+        } else {
+            short[] pixels = rgb565Frames[slot];
+            for (int y = 0, p = 0; y < frameHeight; y++) {
+                for (int i = offset + y * stride, end = i + frameWidth; i < end; i++, p++) {
+                    target[i] = fromRgb565(pixels[p]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts pixels in place to what storage returns, used for frames which are not stored.
+     */
+    private void quantize(int[] target, int offset, int stride, int width, int height) {
+        if (storage == Storage.ARGB_8888) {
+            return;
+        }
+
+        for (int y = 0; y < height; y++) {
+            for (int i = offset + y * stride, end = i + width; i < end; i++) {
+                target[i] = fromRgb565(toRgb565(target[i]));
+            }
+        }
+    }
+
+    private static short toRgb565(int color) {
+        return (short)(((color >> 8) & 0xf800) | ((color >> 5) & 0x07e0) | ((color >> 3) & 0x001f));
+    }
+
+    private static int fromRgb565(short color) {
+        int r = (color >> 11) & 0x1f;
+        int g = (color >> 5) & 0x3f;
+        int b = color & 0x1f;
+        return 0xff000000 | ((r << 3 | r >> 2) << 16) | ((g << 2 | g >> 4) << 8) | (b << 3 | b >> 2);
+    }
+}
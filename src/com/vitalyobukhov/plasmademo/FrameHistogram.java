@@ -0,0 +1,181 @@
+package com.vitalyobukhov.plasmademo;
+
+
+/**
+ * Fixed size histogram of durations.
+ * <p>
+ * Durations are counted in microseconds, values below 64 are exact,
+ * above that bucket width doubles every power of two keeping 32 buckets per power,
+ * so percentiles are within about 3% of real value. Recording never allocates.
+ *
+ * @author Vitaly Obukhov
+ * @version 1.1
+ */
+public final class FrameHistogram {
+
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /* highest counted value bit, about 67 seconds */
+    private static final int VALUE_BITS_MAX = 26;
+    private static final long VALUE_MAX = (1L << VALUE_BITS_MAX) - 1;
+    private static final int BUCKET_COUNT = getIndex(VALUE_MAX) + 1;
+
+    private static final long NANOSECONDS_IN_MICROSECOND = 1000L;
+
+
+    private final long[] counts;
+    private long count;
+    private long max;
+    private final Object sync;
+
+
+    /**
+     * Creates empty instance.
+     */
+    public FrameHistogram() {
+        counts = new long[BUCKET_COUNT];
+        sync = new Object();
+    }
+
+
+    /**
+     * Counts single duration.
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public final void record(long nanos) {
+        long micros = nanos / NANOSECONDS_IN_MICROSECOND;
+        if (micros < 0) {
+            micros = 0;
+        }
+        int index = getIndex(Math.min(micros, VALUE_MAX));
+
+        synchronized (sync) {
+            counts[index]++;
+            count++;
+            if (nanos > max) {
+                max = nanos;
+            }
+        }
+    }
+
+    /**
+     * Gets duration which is not exceeded by <code>percentile</code> of counted ones.
+     *
+     * @param percentile    percentile from 0 to 100
+     * @return              duration in nanoseconds, 0 if nothing was counted
+     */
+    public final long getPercentile(double percentile) {
+        synchronized (sync) {
+            if (count == 0) {
+                return 0;
+            }
+
+            long target = Math.max(1, (long)Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min(getUpperValue(i) * NANOSECONDS_IN_MICROSECOND, max);
+                }
+            }
+
+            return max;
+        }
+    }
+
+    /**
+     * @return  longest counted duration in nanoseconds
+     */
+    public final long getMax() {
+        synchronized (sync) {
+            return max;
+        }
+    }
+
+    /**
+     * @return  count of counted durations
+     */
+    public final long getCount() {
+        synchronized (sync) {
+            return count;
+        }
+    }
+
+    /**
+     * Forgets all counted durations.
+     */
+    public final void reset() {
+        synchronized (sync) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] = 0;
+            }
+            count = 0;
+            max = 0;
+        }
+    }
+
+    /**
+     * Copies counted durations to <code>target</code>.
+     *
+     * @param target    histogram to replace content of
+     */
+    public final void copyTo(FrameHistogram target) {
+        synchronized (sync) {
+            synchronized (target.sync) {
+                System.arraycopy(counts, 0, target.counts, 0, BUCKET_COUNT);
+                target.count = count;
+                target.max = max;
+            }
+        }
+    }
+
+    /**
+     * Moves counted durations to <code>target</code> and resets current instance.
+     *
+     * @param target    histogram to replace content of
+     */
+    public final void moveTo(FrameHistogram target) {
+        synchronized (sync) {
+            synchronized (target.sync) {
+                System.arraycopy(counts, 0, target.counts, 0, BUCKET_COUNT);
+                target.count = count;
+                target.max = max;
+            }
+            reset();
+        }
+    }
+
+    /**
+     * Calculates bucket of value.
+     *
+     * @param value value in microseconds
+     * @return      bucket index
+     */
+    private static int getIndex(long value) {
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return (int)value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_COUNT + (int)(value >> shift);
+    }
+
+    /**
+     * Calculates highest value of bucket.
+     *
+     * @param index bucket index
+     * @return      value in microseconds
+     */
+    private static long getUpperValue(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long sub = index - shift * SUB_BUCKET_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
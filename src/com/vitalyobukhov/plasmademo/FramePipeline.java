@@ -0,0 +1,182 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.util.ArrayDeque;
+
+
+/**
+ * Fixed set of frame buffers shared by single producer which renders frames
+ * and single consumer which presents them.
+ * <p>
+ * Producer blocks in {@link #acquire()} while all buffers are in use,
+ * so rendering never runs more than <code>bufferCount - 1</code> frames ahead of presenting.
+ * Without frame dropping producer also blocks while published frame is not taken,
+ * so every rendered frame is presented.
+ * With frame dropping producer renders freely and newer frame replaces published one
+ * which was not taken yet, so consumer always gets the latest frame.
+ * Frames are taken from {@link BufferPool} and follow frame size set by producer,
+ * buffers of other size class are replaced when producer acquires them.
+ *
+ * @author Vitaly Obukhov
+ * @version 1.1
+ */
+public final class FramePipeline {
+
+
+    public static final int BUFFER_COUNT_MIN = 2;
+
+
+    /* buffers state */
+    private final ArrayDeque<Frame> free;
+    private Frame ready;
+    private final boolean dropFrames;
+    private final BufferPool pool;
+    private volatile int frameSize;
+    private final Object sync;
+
+    /* statistics */
+    private long publishedCount;
+    private long droppedCount;
+
+
+    /**
+     * Creates pipeline with <code>bufferCount</code> frames of <code>frameSize</code> pixels capacity.
+     *
+     * @param bufferCount   count of buffers, 2 for double buffering, 3 for triple buffering
+     * @param frameSize     maximum count of pixels in frame
+     * @param dropFrames    <code>true</code> to replace published frames which were not taken
+     */
+    public FramePipeline(int bufferCount, int frameSize, boolean dropFrames) {
+        this(bufferCount, frameSize, dropFrames, new BufferPool());
+    }
+
+    /**
+     * Creates pipeline with <code>bufferCount</code> frames of <code>frameSize</code> pixels capacity
+     * taken from <code>pool</code>.
+     *
+     * @param bufferCount   count of buffers, 2 for double buffering, 3 for triple buffering
+     * @param frameSize     count of pixels in frame
+     * @param dropFrames    <code>true</code> to replace published frames which were not taken
+     * @param pool          source of frames
+     */
+    public FramePipeline(int bufferCount, int frameSize, boolean dropFrames, BufferPool pool) {
+        if (bufferCount < BUFFER_COUNT_MIN) {
+            throw new IllegalArgumentException("bufferCount");
+        }
+        if (frameSize < 0) {
+            throw new IllegalArgumentException("frameSize");
+        }
+        if (pool == null) {
+            throw new IllegalArgumentException("pool");
+        }
+
+        sync = new Object();
+        free = new ArrayDeque<Frame>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            free.add(pool.obtainFrame(frameSize));
+        }
+        ready = null;
+        this.dropFrames = dropFrames;
+        this.pool = pool;
+        this.frameSize = frameSize;
+    }
+
+
+    /**
+     * Takes free buffer for rendering, waits while there is none
+     * or, without frame dropping, while published frame is not taken.
+     *
+     * @return                      buffer to render into
+     * @throws InterruptedException if producer was interrupted while waiting
+     */
+    public final Frame acquire() throws InterruptedException {
+        Frame frame;
+        synchronized (sync) {
+            while (free.isEmpty() || (!dropFrames && ready != null)) {
+                sync.wait();
+            }
+
+            frame = free.poll();
+        }
+
+        /* buffer is owned by producer now, so it is replaced outside of sync */
+        return pool.fit(frame, frameSize);
+    }
+
+    /**
+     * Makes rendered buffer available to consumer.
+     * Previously published frame which was not taken yet is dropped.
+     *
+     * @param frame buffer taken by {@link #acquire()}
+     */
+    public final void publish(Frame frame) {
+        synchronized (sync) {
+            if (ready != null) {
+                free.add(ready);
+                droppedCount++;
+                sync.notifyAll();
+            }
+
+            ready = frame;
+            publishedCount++;
+        }
+    }
+
+    /**
+     * Takes latest published frame.
+     *
+     * @return  frame or <code>null</code> if nothing was published since last call
+     */
+    public final Frame takeLatest() {
+        synchronized (sync) {
+            Frame frame = ready;
+            if (frame != null) {
+                ready = null;
+                sync.notifyAll();
+            }
+
+            return frame;
+        }
+    }
+
+    /**
+     * Returns presented frame buffer to producer.
+     *
+     * @param frame buffer taken by {@link #takeLatest()}
+     */
+    public final void release(Frame frame) {
+        synchronized (sync) {
+            free.add(frame);
+            sync.notifyAll();
+        }
+    }
+
+    public final int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Sets count of pixels of frames acquired from now on, frames are replaced one by one
+     * when producer acquires them, frames in flight keep their size.
+     *
+     * @param val   count of pixels
+     */
+    public final void setFrameSize(int val) {
+        if (val < 0) {
+            throw new IllegalArgumentException("frameSize");
+        }
+
+        frameSize = val;
+    }
+
+    public final long getPublishedCount() {
+        synchronized (sync) {
+            return publishedCount;
+        }
+    }
+
+    public final long getDroppedCount() {
+        synchronized (sync) {
+            return droppedCount;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.vitalyobukhov.plasmademo;
+
+
+/**
+ * Frame pacing by absolute deadlines.
+ * <p>
+ * Frame <code>n</code> is due at <code>origin + n * period</code>,
+ * so sleep rounding and oversleep of one frame do not shift following frames.
+ * When frame misses its deadline {@link MissPolicy} decides what happens with following ones.
+ * Misses, sleeps and oversleeps are recorded to {@link FrameTrace} if one is set,
+ * their times are taken from {@link System#nanoTime()} whatever clock is.
+ *
+ * @author Vitaly Obukhov
+ * @version 1.1
+ */
+public final class FrameScheduler {
+
+
+    /**
+     * Time source and sleeping strategy.
+     */
+    public interface Clock {
+
+        /**
+         * @return  monotonic time in nanoseconds
+         */
+        long nanoTime();
+
+        /**
+         * Sleeps for about <code>nanos</code> nanoseconds.
+         *
+         * @param nanos                 sleep time
+         * @throws InterruptedException if interrupted while sleeping
+         */
+        void sleep(long nanos) throws InterruptedException;
+    }
+
+    /**
+     * Behaviour after missed deadline.
+     */
+    public enum MissPolicy {
+        /** drop missed frame slots and wait for next slot */
+        SKIP,
+        /** run late frames without delay until schedule is caught up */
+        CATCH_UP
+    }
+
+
+    /**
+     * {@link Clock} based on {@link System#nanoTime()} and {@link Thread#sleep(long, int)}.
+     */
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleep(long nanos) throws InterruptedException {
+            Thread.sleep(nanos / NANOSECONDS_IN_MILLISECOND, (int)(nanos % NANOSECONDS_IN_MILLISECOND));
+        }
+    };
+
+    public static final long NANOSECONDS_IN_SECOND = 1000000000L;
+    private static final long NANOSECONDS_IN_MILLISECOND = 1000000L;
+
+    /* schedule deeper behind than this count of frames is restarted even when catching up */
+    private static final int CATCH_UP_FRAMES_MAX = 10;
+
+
+    private final Clock clock;
+
+    /* settings, may be changed from any thread */
+    private volatile long period;
+    private volatile MissPolicy missPolicy;
+    private volatile FrameTrace trace;
+
+    /* schedule, used by pacing thread only */
+    private long deadline;
+    private boolean isStarted;
+
+    /* statistics */
+    private volatile long missedCount;
+    private volatile long skippedCount;
+
+
+    /**
+     * Creates instance with desired clock and frame period.
+     *
+     * @param clock     time source
+     * @param period    frame period in nanoseconds
+     */
+    public FrameScheduler(Clock clock, long period) {
+        if (clock == null) {
+            throw new IllegalArgumentException("clock");
+        }
+
+        this.clock = clock;
+        setPeriod(period);
+        missPolicy = MissPolicy.SKIP;
+        isStarted = false;
+    }
+
+
+    /**
+     * Starts schedule from current time, first frame is due immediately.
+     */
+    public final void start() {
+        deadline = clock.nanoTime();
+        isStarted = true;
+    }
+
+    /**
+     * Waits until start of next frame.
+     * Must be called from pacing thread after each frame.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public final void awaitNextFrame() throws InterruptedException {
+        if (!isStarted) {
+            start();
+        }
+
+        long period = this.period;
+        deadline += period;
+
+        long now = clock.nanoTime();
+        long late = now - deadline;
+
+        FrameTrace trace = this.trace;
+        if (late > 0) {
+            missedCount++;
+            if (trace != null) {
+                trace.record(FrameTrace.Event.MISS, 0, System.nanoTime() - late, late);
+            }
+
+            if (missPolicy == MissPolicy.SKIP || late > CATCH_UP_FRAMES_MAX * period) {
+                /* move to first slot which is still ahead */
+                long skipped = late / period + 1;
+                deadline += skipped * period;
+                skippedCount += skipped;
+            } else {
+                return;
+            }
+        }
+
+        long wait = deadline - now;
+        if (wait > 0) {
+            if (trace == null) {
+                clock.sleep(wait);
+                return;
+            }
+
+            long sleepStart = System.nanoTime();
+            clock.sleep(wait);
+            long slept = System.nanoTime() - sleepStart;
+
+            trace.record(FrameTrace.Event.SLEEP, 0, sleepStart, wait);
+            if (slept > wait) {
+                trace.record(FrameTrace.Event.OVERSLEEP, 0, sleepStart + wait, slept - wait);
+            }
+        }
+    }
+
+    public final Clock getClock() {
+        return clock;
+    }
+
+    public final FrameTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * @param val   trace to record misses and sleeps to, <code>null</code> to stop recording
+     */
+    public final void setTrace(FrameTrace val) {
+        trace = val;
+    }
+
+    public final long getPeriod() {
+        return period;
+    }
+
+    public final void setPeriod(long val) {
+        if (val <= 0) {
+            throw new IllegalArgumentException("period");
+        }
+
+        period = val;
+    }
+
+    public final MissPolicy getMissPolicy() {
+        return missPolicy;
+    }
+
+    public final void setMissPolicy(MissPolicy val) {
+        if (val != null) {
+            missPolicy = val;
+        }
+    }
+
+    /**
+     * @return  count of frames finished after their deadline
+     */
+    public final long getMissedCount() {
+        return missedCount;
+    }
+
+    /**
+     * @return  count of frame slots dropped by {@link MissPolicy#SKIP}
+     */
+    public final long getSkippedCount() {
+        return skippedCount;
+    }
+}
@@ -0,0 +1,34 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.nio.IntBuffer;
+
+
+/**
+ * Destination of {@link PlasmaCore} frames which renderer writes pixels directly into.
+ *
+ * @author Vitaly Obukhov
+ * @version 1.0
+ */
+public interface FrameSink {
+
+    /**
+     * Prepares storage of frame with desired dimensions.
+     * Pixel <code>(x, y)</code> is written at <code>position + y * width + x</code>
+     * of returned buffer, buffer position is not changed by renderer.
+     *
+     * @param width     frame width
+     * @param height    frame height
+     * @return          buffer of at least <code>width * height</code> remaining pixels
+     */
+    IntBuffer lock(int width, int height);
+
+    /**
+     * Called when all pixels of frame locked by {@link #lock} are written.
+     */
+    void unlock();
+
+    /**
+     * @return  layout of pixels in buffer
+     */
+    PlasmaCore.PixelFormat getPixelFormat();
+}
@@ -0,0 +1,102 @@
+package com.vitalyobukhov.plasmademo;
+
+
+/**
+ * Per stage frame durations.
+ * Each {@link Stage} has own {@link FrameHistogram}.
+ *
+ * @author Vitaly Obukhov
+ * @version 1.1
+ */
+public final class FrameStats {
+
+
+    /**
+     * Frame processing stage.
+     */
+    public enum Stage {
+        /** attractors / repulsors positions calculation */
+        TRAJECTORY("trajectory"),
+        /** pixels colors calculation */
+        FIELD("field"),
+        /** rendered pixels copying to bitmap */
+        SET_PIXELS("pixels"),
+        /** drawing on locked canvas */
+        DRAW("draw"),
+        /** canvas unlocking and posting */
+        POST("post"),
+        /** whole update of drawing thread */
+        FRAME("frame");
+
+        private final String title;
+
+        Stage(String title) {
+            this.title = title;
+        }
+
+        public final String getTitle() {
+            return title;
+        }
+    }
+
+
+    private final FrameHistogram[] histograms;
+
+
+    /**
+     * Creates empty instance.
+     */
+    public FrameStats() {
+        Stage[] stages = Stage.values();
+        histograms = new FrameHistogram[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            histograms[i] = new FrameHistogram();
+        }
+    }
+
+
+    /**
+     * Counts single stage duration.
+     *
+     * @param stage frame stage
+     * @param nanos duration in nanoseconds
+     */
+    public final void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    public final FrameHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * Moves counted durations of all stages to <code>target</code> and resets current instance.
+     *
+     * @param target    stats to replace content of
+     */
+    public final void moveTo(FrameStats target) {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i].moveTo(target.histograms[i]);
+        }
+    }
+
+    /**
+     * Copies counted durations of all stages to <code>target</code>.
+     *
+     * @param target    stats to replace content of
+     */
+    public final void copyTo(FrameStats target) {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i].copyTo(target.histograms[i]);
+        }
+    }
+
+    /**
+     * Forgets all counted durations.
+     */
+    public final void reset() {
+        for (FrameHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Always-on recorder of frame events into ring of fixed size records in memory mapped file.
+ * <p>
+ * Writer reserves record by atomic sequence, writes its fields and commits it by writing
+ * sequence last, so writers never wait for each other and nothing is allocated per event.
+ * The oldest records are overwritten when ring is full, writer which was lapped by others
+ * while writing drops its record and clears the slot, so records are lost but not mixed
+ * when whole ring is written during preemption of one writer. Pages of mapped file are written back
+ * by system, so records survive crash of process, {@link #flush()} forces them to storage.
+ * Garbage collections are detected by weakly referenced canary object, so stalls of drawing
+ * thread are correlated with collections on any VM.
+ * <p>
+ * File layout, all numbers are big-endian:
+ * <ul>
+ *     <li><code>int</code> magic {@link #MAGIC}, <code>int</code> version {@link #VERSION},
+ *     <code>int</code> record size {@link #EVENT_SIZE}, <code>int</code> records capacity,
+ *     <code>long</code> wall clock time of trace start in milliseconds,
+ *     padding to {@link #HEADER_SIZE}</li>
+ *     <li>records of <code>long</code> sequence + 1 or 0 if empty, <code>long</code> start time
+ *     in nanoseconds since trace start, <code>long</code> value, <code>int</code> thread id,
+ *     <code>short</code> {@link Event} ordinal, <code>short</code> argument</li>
+ * </ul>
+ *
+ * @author Vitaly Obukhov
+ * @version 1.0
+ */
+public final class FrameTrace {
+
+
+    /**
+     * Recorded event, value and argument meaning depends on it.
+     */
+    public enum Event {
+        /** thread name, start time and value hold up to 16 ASCII characters */
+        THREAD_NAME,
+        /** update of drawing thread, value is duration */
+        FRAME,
+        /** frame stage, argument is {@link FrameStats.Stage} ordinal, value is duration */
+        STAGE,
+        /** sleep until frame deadline, value is requested duration */
+        SLEEP,
+        /** sleep past frame deadline, value is duration */
+        OVERSLEEP,
+        /** frame finished after its deadline, value is lateness */
+        MISS,
+        /** gap between frames starts longer than {@link UpdateThread#STALL_PERIODS} periods,
+            value is gap, argument is 1 if garbage collection was detected during it */
+        STALL,
+        /** garbage collection detected, value is count of detected collections */
+        GC
+    }
+
+
+    public static final int MAGIC = 0x504c5452;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int EVENT_SIZE = 32;
+    public static final int CAPACITY_DEFAULT = 1 << 16;
+
+    /* record fields offsets */
+    private static final int COMMIT_OFFSET = 0;
+    private static final int TIME_OFFSET = 8;
+    private static final int VALUE_OFFSET = 16;
+    private static final int THREAD_OFFSET = 24;
+    private static final int TYPE_OFFSET = 28;
+    private static final int ARG_OFFSET = 30;
+
+    private static final int NAME_LENGTH_MAX = 16;
+
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer mapped;
+    private final int capacity;
+    private final long startTime;
+
+    /* next record sequence */
+    private final AtomicLong sequence;
+    private volatile boolean isClosed;
+
+    /* collection detection, used by one thread */
+    private WeakReference<Object> gcCanary;
+    private long gcCount;
+
+
+    /**
+     * Creates empty trace in <code>file</code>.
+     *
+     * @param file          trace file, it is overwritten
+     * @param capacity      count of records in ring, power of two
+     * @throws IOException  if file can not be created or mapped
+     */
+    public FrameTrace(File file, int capacity) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file");
+        }
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity");
+        }
+
+        this.capacity = capacity;
+        long size = HEADER_SIZE + (long)capacity * EVENT_SIZE;
+
+        this.file = new RandomAccessFile(file, "rw");
+        try {
+            this.file.setLength(0);
+            this.file.setLength(size);
+            mapped = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+
+        startTime = System.nanoTime();
+        mapped.putInt(0, MAGIC);
+        mapped.putInt(4, VERSION);
+        mapped.putInt(8, EVENT_SIZE);
+        mapped.putInt(12, capacity);
+        mapped.putLong(16, System.currentTimeMillis());
+
+        sequence = new AtomicLong();
+        isClosed = false;
+        gcCanary = new WeakReference<Object>(new Object());
+        gcCount = 0;
+    }
+
+
+    /**
+     * Records event of current thread.
+     * Buffer is accessed by absolute positions only, so records of concurrent writers do not interfere.
+     *
+     * @param event event type
+     * @param arg   event argument
+     * @param start {@link System#nanoTime()} of event start
+     * @param value event value
+     */
+    public final void record(Event event, int arg, long start, long value) {
+        if (isClosed) {
+            return;
+        }
+
+        long seq = sequence.getAndIncrement();
+        int offset = HEADER_SIZE + (int)(seq & (capacity - 1)) * EVENT_SIZE;
+
+        MappedByteBuffer mapped = this.mapped;
+        mapped.putLong(offset + COMMIT_OFFSET, 0);
+        mapped.putLong(offset + TIME_OFFSET, start - startTime);
+        mapped.putLong(offset + VALUE_OFFSET, value);
+        mapped.putInt(offset + THREAD_OFFSET, (int)Thread.currentThread().getId());
+        mapped.putShort(offset + TYPE_OFFSET, (short)event.ordinal());
+        mapped.putShort(offset + ARG_OFFSET, (short)arg);
+        mapped.putLong(offset + COMMIT_OFFSET, sequence.get() - seq <= capacity ? seq + 1 : 0);
+    }
+
+    /**
+     * Records name of current thread, only first 16 ASCII characters are kept.
+     *
+     * @param name  thread name
+     */
+    public final void nameThread(String name) {
+        long[] chars = new long[2];
+        for (int i = 0; i < Math.min(name.length(), NAME_LENGTH_MAX); i++) {
+            chars[i / 8] |= (long)(name.charAt(i) & 0x7f) << (56 - 8 * (i % 8));
+        }
+
+        record(Event.THREAD_NAME, 0, startTime + chars[0], chars[1]);
+    }
+
+    /**
+     * Checks whether garbage collection ran since previous check and records it.
+     * Must be called from one thread, canary is allocated only after detected collection.
+     *
+     * @return  <code>true</code> if collection was detected
+     */
+    public final boolean pollCollection() {
+        if (gcCanary.get() != null) {
+            return false;
+        }
+
+        gcCanary = new WeakReference<Object>(new Object());
+        record(Event.GC, 0, System.nanoTime(), ++gcCount);
+        return true;
+    }
+
+    /**
+     * @return  count of recorded events including overwritten ones
+     */
+    public final long getEventCount() {
+        return sequence.get();
+    }
+
+    public final int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Forces recorded events to storage.
+     */
+    public final void flush() {
+        mapped.force();
+    }
+
+    /**
+     * Flushes events and closes file, following events are ignored.
+     *
+     * @throws IOException  if file can not be closed
+     */
+    public final void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+
+        isClosed = true;
+        flush();
+        file.close();
+    }
+}
@@ -0,0 +1,435 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.nio.IntBuffer;
+
+
+/**
+ * Temporal interpolation of {@link PlasmaCore} frames shared by single producer
+ * which renders keyframes and single consumer which presents frames at display rate.
+ * <p>
+ * Keyframe interval is whole count of display frames chosen from measured keyframe cost,
+ * so rendering takes no more than {@link #LOAD_MAX} of interval.
+ * While keyframe fits single frame, or blending is off, keyframes are exact frames:
+ * producer renders frame of current time, consumer presents the newest one as is
+ * and producer waits for it to be presented before rendering the next one.
+ * Only when keyframe cost is over frame period producer renders keyframes ahead of presenting
+ * and consumer blends two keyframes around its time,
+ * so motion stays smooth at display rate while field is calculated at a fraction of it.
+ * Keyframes are kept in three buffers: two are blended while the next one is rendered,
+ * producer waits for consumer to pass the older keyframe before rendering into it.
+ * Pixel arrays are taken from {@link BufferPool}, so resizes of plasma reuse arrays of previous sizes.
+ *
+ * @author Vitaly Obukhov
+ * @version 1.2
+ */
+public final class KeyframeInterpolator {
+
+
+    public static final int BUFFER_COUNT = 3;
+    public static final double LOAD_MAX = 0.75;
+
+    /* weight of last keyframe cost in average */
+    private static final double COST_SMOOTHING = 0.25;
+
+    private static final int WEIGHT_SHIFT = 8;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_SHIFT;
+
+    private static final long NANOSECONDS_IN_MILLISECOND = 1000000L;
+
+
+    private final PlasmaCore core;
+    private final int intervalFramesMax;
+    private final BufferPool pool;
+
+    /* keyframes from oldest to newest, free buffers and blended frame */
+    private final Keyframe[] ready;
+    private int readyCount;
+    private final Keyframe[] free;
+    private int freeCount;
+    private int[] blendPixels;
+    private final Object sync;
+
+    /* display frame period in nanoseconds, keyframe interval in display frames and milliseconds */
+    private volatile long framePeriod;
+    private volatile int intervalFrames;
+    private volatile long interval;
+    private volatile boolean isBlending;
+    private volatile double keyframeCost;
+
+    /* statistics */
+    private long keyframeCount;
+    private long frameCount;
+
+
+    /**
+     * Creates interpolator of <code>core</code> frames with own buffer pool.
+     *
+     * @param core              keyframes source
+     * @param intervalFramesMax maximum count of display frames between keyframes
+     */
+    public KeyframeInterpolator(PlasmaCore core, int intervalFramesMax) {
+        this(core, intervalFramesMax, new BufferPool());
+    }
+
+    /**
+     * Creates interpolator of <code>core</code> frames.
+     *
+     * @param core              keyframes source
+     * @param intervalFramesMax maximum count of display frames between keyframes
+     * @param pool              source of keyframe arrays
+     */
+    public KeyframeInterpolator(PlasmaCore core, int intervalFramesMax, BufferPool pool) {
+        if (core == null) {
+            throw new IllegalArgumentException("core");
+        }
+        if (intervalFramesMax < 1) {
+            throw new IllegalArgumentException("intervalFramesMax");
+        }
+        if (pool == null) {
+            throw new IllegalArgumentException("pool");
+        }
+
+        this.core = core;
+        this.intervalFramesMax = intervalFramesMax;
+        this.pool = pool;
+
+        sync = new Object();
+        ready = new Keyframe[BUFFER_COUNT];
+        readyCount = 0;
+        free = new Keyframe[BUFFER_COUNT];
+        for (freeCount = 0; freeCount < BUFFER_COUNT; freeCount++) {
+            free[freeCount] = new Keyframe();
+        }
+
+        framePeriod = FrameScheduler.NANOSECONDS_IN_SECOND / UpdateThread.FPS_DEFAULT;
+        intervalFrames = 1;
+        interval = getInterval(1);
+        keyframeCost = 0.0;
+        isBlending = true;
+    }
+
+
+    /**
+     * Renders next keyframe, waits while all buffers are in use.
+     * Exact keyframe of single frame interval is rendered for <code>now</code>
+     * after the newest one is presented, so producer runs no more than one frame ahead.
+     * Keyframe of longer interval follows the newest one by it, or <code>now</code> if producer fell behind.
+     *
+     * @param now                   current time of plasma timeline
+     * @throws InterruptedException if producer was interrupted while waiting
+     */
+    public final void renderKeyframe(long now) throws InterruptedException {
+        Keyframe keyframe;
+        long time;
+        boolean isExact = intervalFrames == 1;
+        synchronized (sync) {
+            while (freeCount == 0 || (isExact && readyCount > 1)) {
+                sync.wait();
+            }
+
+            keyframe = free[--freeCount];
+            if (isExact || readyCount == 0) {
+                time = now;
+            } else {
+                time = Math.max(ready[readyCount - 1].time + interval, now);
+            }
+        }
+
+        int width = core.getWidth();
+        int height = core.getHeight();
+        keyframe.pixels = pool.fit(keyframe.pixels, width * height);
+        keyframe.time = time;
+        keyframe.width = width;
+        keyframe.height = height;
+        keyframe.isExact = isExact;
+
+        long start = System.nanoTime();
+        core.render(time, keyframe.pixels, 0, width);
+        updateInterval(System.nanoTime() - start);
+
+        synchronized (sync) {
+            /* keyframes of previous dimensions can not be blended with new ones */
+            if (readyCount > 0 && (ready[0].width != width || ready[0].height != height)) {
+                releaseKeyframes(readyCount);
+            }
+
+            ready[readyCount++] = keyframe;
+            keyframeCount++;
+        }
+    }
+
+    /**
+     * Blends frame of <code>time</code> from keyframes around it into <code>target</code> array.
+     * Time before the oldest keyframe or after the newest one gets that keyframe,
+     * exact newest keyframe is copied whatever the time is.
+     * Pixel <code>(x, y)</code> is stored at <code>offset + y * stride + x</code>.
+     *
+     * @param time      desired time
+     * @param target    destination ARGB pixels, at least of keyframe dimensions
+     * @param offset    index of first pixel
+     * @param stride    count of array elements between rows starts
+     * @return          <code>false</code> if there is no keyframe yet
+     */
+    public final boolean render(long time, int[] target, int offset, int stride) {
+        synchronized (sync) {
+            if (!selectKeyframes(time)) {
+                return false;
+            }
+
+            blendKeyframes(time, target, offset, stride);
+            return true;
+        }
+    }
+
+    /**
+     * Blends frame of <code>time</code> into <code>sink</code>.
+     *
+     * @param time  desired time
+     * @param sink  destination of frame pixels
+     * @return      <code>false</code> if there is no keyframe yet
+     */
+    public final boolean render(long time, FrameSink sink) {
+        synchronized (sync) {
+            if (!selectKeyframes(time)) {
+                return false;
+            }
+
+            int width = ready[0].width;
+            int height = ready[0].height;
+            int size = width * height;
+            blendPixels = pool.fit(blendPixels, size);
+            blendKeyframes(time, blendPixels, 0, width);
+
+            IntBuffer buffer = sink.lock(width, height);
+            try {
+                sink.getPixelFormat().put(blendPixels, 0, buffer, buffer.position(), size);
+            } finally {
+                sink.unlock();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Sets display frame period which keyframe interval is multiple of.
+     *
+     * @param val   period in nanoseconds
+     */
+    public final void setFramePeriod(long val) {
+        if (val > 0) {
+            framePeriod = val;
+        }
+    }
+
+    public final long getFramePeriod() {
+        return framePeriod;
+    }
+
+    /**
+     * @return  time between keyframes in milliseconds
+     */
+    public final long getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return  count of display frames between keyframes, 1 if keyframes are exact frames
+     */
+    public final int getIntervalFrames() {
+        return intervalFrames;
+    }
+
+    /**
+     * Sets whether keyframes of cost over frame period are rendered ahead and blended,
+     * otherwise every keyframe is exact frame however long it takes.
+     * Next keyframe follows new setting.
+     *
+     * @param val   <code>true</code> to blend keyframes
+     */
+    public final void setBlending(boolean val) {
+        isBlending = val;
+        updateInterval();
+    }
+
+    public final boolean getBlending() {
+        return isBlending;
+    }
+
+    /**
+     * @return  average keyframe rendering time in nanoseconds
+     */
+    public final long getKeyframeCost() {
+        return (long)keyframeCost;
+    }
+
+    public final int getIntervalFramesMax() {
+        return intervalFramesMax;
+    }
+
+    public final long getKeyframeCount() {
+        synchronized (sync) {
+            return keyframeCount;
+        }
+    }
+
+    /**
+     * @return  count of frames blended by consumer
+     */
+    public final long getFrameCount() {
+        synchronized (sync) {
+            return frameCount;
+        }
+    }
+
+    /**
+     * Removes all keyframes, so next keyframe starts new timeline.
+     */
+    public final void clear() {
+        synchronized (sync) {
+            releaseKeyframes(readyCount);
+        }
+    }
+
+    /**
+     * Counts keyframe cost and chooses interval of display frames which fits it.
+     *
+     * @param cost  keyframe rendering time in nanoseconds
+     */
+    private void updateInterval(long cost) {
+        keyframeCost = keyframeCost == 0.0 ? cost : keyframeCost + COST_SMOOTHING * (cost - keyframeCost);
+        updateInterval();
+    }
+
+    /**
+     * Chooses interval of display frames which fits average keyframe cost, single frame if blending is off.
+     */
+    private void updateInterval() {
+        int frames = 1;
+        if (isBlending) {
+            frames = (int)Math.ceil(keyframeCost / (framePeriod * LOAD_MAX));
+            frames = Math.max(1, Math.min(frames, intervalFramesMax));
+        }
+
+        interval = getInterval(frames);
+        intervalFrames = frames;
+    }
+
+    private long getInterval(int frames) {
+        return Math.max(1, Math.round((double)frames * framePeriod / NANOSECONDS_IN_MILLISECOND));
+    }
+
+    /**
+     * Releases keyframes older than the pair around <code>time</code>,
+     * or all keyframes older than the newest one if it is exact.
+     * Must be called while sync is held.
+     *
+     * @param time  desired time
+     * @return      <code>false</code> if there is no keyframe
+     */
+    private boolean selectKeyframes(long time) {
+        int passed = 0;
+        if (readyCount > 0 && ready[readyCount - 1].isExact) {
+            passed = readyCount - 1;
+        }
+        while (passed + 1 < readyCount && ready[passed + 1].time <= time) {
+            passed++;
+        }
+        if (passed > 0) {
+            releaseKeyframes(passed);
+        }
+
+        return readyCount > 0;
+    }
+
+    /**
+     * Moves <code>count</code> oldest keyframes to free buffers and wakes producer.
+     * Must be called while sync is held.
+     *
+     * @param count count of keyframes
+     */
+    private void releaseKeyframes(int count) {
+        for (int i = 0; i < count; i++) {
+            free[freeCount++] = ready[i];
+        }
+        for (int i = count; i < readyCount; i++) {
+            ready[i - count] = ready[i];
+        }
+        for (int i = readyCount - count; i < readyCount; i++) {
+            ready[i] = null;
+        }
+        readyCount -= count;
+
+        sync.notifyAll();
+    }
+
+    /**
+     * Blends the oldest keyframes by position of <code>time</code> between them.
+     * Must be called while sync is held.
+     *
+     * @param time      desired time
+     * @param target    destination ARGB pixels
+     * @param offset    index of first pixel
+     * @param stride    count of array elements between rows starts
+     */
+    private void blendKeyframes(long time, int[] target, int offset, int stride) {
+        Keyframe from = ready[0];
+        Keyframe to = from;
+        int weight = 0;
+        if (readyCount > 1 && time > from.time && ready[1].time > from.time) {
+            to = ready[1];
+            weight = (int)((time - from.time) * WEIGHT_ONE / (to.time - from.time));
+        }
+
+        blend(from, to, weight, target, offset, stride);
+        frameCount++;
+    }
+
+    /**
+     * Blends channels of keyframes of equal dimensions,
+     * two channels are blended at once in separate halves of integer.
+     *
+     * @param from      keyframe of weight 0
+     * @param to        keyframe of weight {@link #WEIGHT_ONE}
+     * @param weight    weight of <code>to</code> keyframe
+     * @param target    destination ARGB pixels
+     * @param offset    index of first pixel
+     * @param stride    count of array elements between rows starts
+     */
+    private static void blend(Keyframe from, Keyframe to, int weight, int[] target, int offset, int stride) {
+        int width = from.width;
+        int height = from.height;
+        int[] a = from.pixels;
+        int[] b = to.pixels;
+
+        if (weight <= 0 || weight >= WEIGHT_ONE) {
+            int[] source = weight <= 0 ? a : b;
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(source, y * width, target, offset + y * stride, width);
+            }
+            return;
+        }
+
+        int inverse = WEIGHT_ONE - weight;
+        for (int y = 0, p = 0; y < height; y++) {
+            for (int i = offset + y * stride, end = i + width; i < end; i++, p++) {
+                int ca = a[p];
+                int cb = b[p];
+                int rb = ((ca & 0x00ff00ff) * inverse + (cb & 0x00ff00ff) * weight) >>> WEIGHT_SHIFT;
+                int ag = ((ca >>> 8) & 0x00ff00ff) * inverse + ((cb >>> 8) & 0x00ff00ff) * weight;
+                target[i] = (rb & 0x00ff00ff) | (ag & 0xff00ff00);
+            }
+        }
+    }
+
+
+    /**
+     * Keyframe pixels with dimensions and time.
+     */
+    private static final class Keyframe {
+        int[] pixels;
+        long time;
+        int width;
+        int height;
+        boolean isExact;
+    }
+}
@@ -5,18 +5,25 @@ import android.os.Bundle;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.View;
+import java.io.File;
+import java.io.IOException;
 
 
 /**
  * Main {@link Activity} of app.
+ * Frames are traced to {@link #TRACE_FILE_NAME} file in cache directory while activity lives.
  *
  * @author  Vitaly Obukhov
- * @version 1.2
+ * @version 1.4
  */
 public final class MainActivity extends Activity implements View.OnTouchListener {
 
 
+    public static final String TRACE_FILE_NAME = "frames.trace";
+
+
     private MainView view;
+    private FrameTrace trace;
 
 
     @Override
@@ -33,9 +40,44 @@ public final class MainActivity extends Activity implements View.OnTouchListener
         setContentView(view);
         view.setOnTouchListener(this);
 
+        /* drawing goes on without trace if it can not be created */
+        try {
+            trace = new FrameTrace(new File(getCacheDir(), TRACE_FILE_NAME), FrameTrace.CAPACITY_DEFAULT);
+            view.setTrace(trace);
+        } catch (IOException ignored) {
+        }
+
         view.start();
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        view.pause();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        view.resume();
+    }
+
+    @Override
+    protected void onDestroy() {
+        view.end();
+
+        if (trace != null) {
+            try {
+                trace.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        super.onDestroy();
+    }
+
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
         if (event.getKeyCode() == KeyEvent.KEYCODE_BACK) {
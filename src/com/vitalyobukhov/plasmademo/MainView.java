@@ -3,13 +3,14 @@ package com.vitalyobukhov.plasmademo;
 import android.content.Context;
 import android.graphics.*;
 import android.view.*;
+import java.nio.IntBuffer;
 
 /**
  * Main {@link View} of app.
  * Contains drawing logic.
  *
  * @author Vitaly Obukhov
- * @version 1.3
+ * @version 1.11
  */
 public final class MainView extends SurfaceView implements SurfaceHolder.Callback {
 
@@ -24,14 +25,31 @@ public final class MainView extends SurfaceView implements SurfaceHolder.Callbac
     private static final int FPS_TEXT_FILL_COLOR = Color.WHITE;
     private static final Typeface FPS_TEXT_TYPEFACE = Typeface.create(Typeface.MONOSPACE, Typeface.BOLD);
 
-    /* plasma effect size divider */
+    /* frame stats text related */
+    private static final int STATS_TEXT_SCREEN_CHAR_COUNT = 40;
+    private static final double NANOSECONDS_IN_MILLISECOND = 1e6;
+
+    /* plasma effect size dividers from lowest resolution to highest, and initial one */
+    private static final int[] PLASMA_SIZE_DIVS = { 160, 120, 80, 60, 40, 30, 20 };
     private static final int PLASMA_SIZE_DIV = 80;
 
+    /* plasma effect keyframes are exact frames while they fit drawing frame, over it they are rendered
+       at fraction of drawing fps and blended between if interpolation is on,
+       resolution is lowered only when keyframe interval reaches its maximum */
+    private static final boolean PLASMA_INTERPOLATION_DEFAULT = true;
+    private static final int PLASMA_KEYFRAME_INTERVAL_FRAMES_MAX = 4;
+
+    /* thread names recorded to frame trace */
+    private static final String UPDATE_THREAD_NAME = "Plasma draw";
+    private static final String RENDER_THREAD_NAME = "Plasma render";
+
 
     private final PointF FPS_TEXT_OFFSET;
 
     /* state */
     private boolean isRunning;
+    private boolean isPaused;
+    private boolean isParked;
     private final Object isRunningSync;
 
     /* fps text related */
@@ -41,19 +59,59 @@ public final class MainView extends SurfaceView implements SurfaceHolder.Callbac
     private Paint fpsTextStrokePaint;
     private Paint fpsTextFillPaint;
 
-    /* for surface view */
+    /* frame stats, current window is recorded and previous one is shown */
+    private final FrameStats frameStats;
+    private final FrameStats lastFrameStats;
+    private final Object lastFrameStatsSync;
+    private long frameStatsUpdateTime;
+    private final OverlayText overlayText;
+    private int statsLineCount;
+    private final float statsTextLineHeight;
+    private final Rect textBounds;
+
+    /* frame stages are also recorded here if set */
+    private volatile FrameTrace trace;
+
+    private Paint statsTextStrokePaint;
+    private Paint statsTextFillPaint;
+
+    /* for surface view, size version is changed on every surface resize */
     private final SurfaceHolder holder;
     private boolean isSurfaceCreated;
+    private final Rect surfaceSize;
+    private int surfaceSizeVersion;
     private final Object isSurfaceCreatedLock;
 
     /* drawing invocation thread*/
     private UpdateThread updateThread;
 
+    /* plasma effect rendering thread */
+    private Thread renderThread;
+
     /* plasma effect data */
+    private final Rect screenSize;
     private Plasma plasma;
-    private Matrix plasmaMatrix;
+    private BufferPool plasmaPool;
+    private KeyframeInterpolator plasmaInterpolator;
+    private Frame plasmaInterpolatedFrame;
+    private FrameSink plasmaInterpolatedSink;
+    private ResolutionGovernor plasmaGovernor;
     private Paint plasmaPaint;
 
+    /* surface size seen by rendering thread */
+    private final Rect plasmaSurfaceSize;
+    private int plasmaSurfaceSizeVersion;
+
+    /* surface size seen by drawing thread and plasma bitmap scale to it */
+    private final Rect drawSurfaceSize;
+    private int drawSurfaceSizeVersion;
+    private Matrix plasmaMatrix;
+    private Bitmap plasmaMatrixBitmap;
+
+    /* plasma effect timeline stands still while drawing is parked */
+    private volatile long plasmaTimeOffset;
+    private long parkTime;
+
 
     public MainView(Context context) {
         super(context);
@@ -61,14 +119,17 @@ public final class MainView extends SurfaceView implements SurfaceHolder.Callbac
 
         /* init default values*/
         isRunning = false;
+        isPaused = false;
+        isParked = false;
         isRunningSync = new Object();
 
         fpsVisibleSync = new Object();
         fpsVisible = FPS_VISIBLE_DEFAULT;
 
-        Rect screenSize = Utility.ViewUtility.getScreenSize(this);
+        screenSize = Utility.ViewUtility.getScreenSize(this);
 
         String fpsText = Integer.toString(UpdateThread.FPS_MAX);
+        textBounds = new Rect();
 
         fpsTextFillPaint = new Paint();
         fpsTextFillPaint.setColor(FPS_TEXT_FILL_COLOR);
@@ -76,7 +137,8 @@ public final class MainView extends SurfaceView implements SurfaceHolder.Callbac
         fpsTextFillPaint.setTypeface(FPS_TEXT_TYPEFACE);
         fpsTextFillPaint.setTextSize(FPS_TEXT_DEFAULT_SIZE);
         fpsTextFillPaint.setAntiAlias(true);
-        Utility.PaintUtility.adjustFontSize(fpsTextFillPaint, fpsText, FPS_TEXT_SCREEN_CHAR_COUNT, screenSize, false);
+        Utility.PaintUtility.adjustFontSize(fpsTextFillPaint, fpsText, FPS_TEXT_SCREEN_CHAR_COUNT, screenSize, false,
+                textBounds);
 
         fpsTextStrokePaint = new Paint();
         fpsTextStrokePaint.setColor(FPS_TEXT_STROKE_COLOR);
@@ -86,10 +148,38 @@ public final class MainView extends SurfaceView implements SurfaceHolder.Callbac
         fpsTextStrokePaint.setAntiAlias(true);
         fpsTextStrokePaint.setTextSize(fpsTextFillPaint.getTextSize());
 
-        float fpsTextCharWidth = Utility.PaintUtility.getFontCharWidth(fpsTextFillPaint, fpsText);
-        float fpsTextCharHeight = Utility.PaintUtility.getFontCharHeight(fpsTextFillPaint, fpsText);
+        float fpsTextCharWidth = Utility.PaintUtility.getFontCharWidth(fpsTextFillPaint, fpsText, textBounds);
+        float fpsTextCharHeight = Utility.PaintUtility.getFontCharHeight(fpsTextFillPaint, fpsText, textBounds);
         FPS_TEXT_OFFSET = new PointF(fpsTextCharWidth, fpsTextCharHeight * 2);
 
+        /* frame stats related */
+        frameStats = new FrameStats();
+        lastFrameStats = new FrameStats();
+        lastFrameStatsSync = new Object();
+        frameStatsUpdateTime = System.nanoTime();
+        overlayText = new OverlayText(UpdateThread.FPS_MAX);
+        statsLineCount = 0;
+
+        statsTextFillPaint = new Paint();
+        statsTextFillPaint.setColor(FPS_TEXT_FILL_COLOR);
+        statsTextFillPaint.setStyle(Paint.Style.FILL);
+        statsTextFillPaint.setTypeface(FPS_TEXT_TYPEFACE);
+        statsTextFillPaint.setTextSize(FPS_TEXT_DEFAULT_SIZE);
+        statsTextFillPaint.setAntiAlias(true);
+        Utility.PaintUtility.adjustFontSize(statsTextFillPaint, OverlayText.STATS_HEADER,
+                STATS_TEXT_SCREEN_CHAR_COUNT, screenSize, false, textBounds);
+
+        statsTextStrokePaint = new Paint();
+        statsTextStrokePaint.setColor(FPS_TEXT_STROKE_COLOR);
+        statsTextStrokePaint.setStyle(Paint.Style.STROKE);
+        statsTextStrokePaint.setStrokeWidth(FPS_TEXT_STROKE_WIDTH / 2);
+        statsTextStrokePaint.setTypeface(FPS_TEXT_TYPEFACE);
+        statsTextStrokePaint.setAntiAlias(true);
+        statsTextStrokePaint.setTextSize(statsTextFillPaint.getTextSize());
+
+        statsTextLineHeight = Utility.PaintUtility.getFontCharHeight(statsTextFillPaint, OverlayText.STATS_HEADER,
+                textBounds) * 1.5f;
+
         /* surface related */
         holder = getHolder();
         holder.addCallback(this);
@@ -97,6 +187,14 @@ public final class MainView extends SurfaceView implements SurfaceHolder.Callbac
         isSurfaceCreated = false;
         isSurfaceCreatedLock = new Object();
 
+        /* screen size is the guess until surface reports its size */
+        surfaceSize = new Rect(screenSize);
+        surfaceSizeVersion = 0;
+        plasmaSurfaceSize = new Rect(screenSize);
+        plasmaSurfaceSizeVersion = 0;
+        drawSurfaceSize = new Rect(screenSize);
+        drawSurfaceSizeVersion = 0;
+
         /* configure drawing thread */
         updateThread = new UpdateThread() {
             @Override
@@ -104,30 +202,133 @@ public final class MainView extends SurfaceView implements SurfaceHolder.Callbac
                 onUpdateThreadUpdate();
             }
         };
+        updateThread.setName(UPDATE_THREAD_NAME);
         updateThread.setPriority(Thread.MAX_PRIORITY);
 
-        /* configure plasma effect */
-        plasma = new Plasma(new Rect(0, 0, screenSize.width() / PLASMA_SIZE_DIV,
-                screenSize.height() / PLASMA_SIZE_DIV));
+        /* configure plasma rendering thread */
+        renderThread = new Thread() {
+            @Override
+            public void run() {
+                onRenderThreadRun();
+            }
+        };
+        renderThread.setName(RENDER_THREAD_NAME);
+        renderThread.setPriority(Thread.MAX_PRIORITY);
+
+        /* configure plasma effect, frames follow its size and are shared through buffer pool */
+        int plasmaLevel = 0;
+        while (PLASMA_SIZE_DIVS[plasmaLevel] != PLASMA_SIZE_DIV) {
+            plasmaLevel++;
+        }
+        plasmaGovernor = new ResolutionGovernor(PLASMA_SIZE_DIVS.length, plasmaLevel);
+        plasma = new Plasma(getPlasmaSize(plasmaLevel));
+        plasmaPool = plasma.getBufferPool();
+        plasmaInterpolator = new KeyframeInterpolator(plasma.getCore(), PLASMA_KEYFRAME_INTERVAL_FRAMES_MAX,
+                plasmaPool);
+        plasmaInterpolator.setBlending(PLASMA_INTERPOLATION_DEFAULT);
+        plasmaInterpolatedFrame = plasmaPool.obtainFrame(plasma.getFrameSize());
+        plasmaInterpolatedSink = new FrameSink() {
+            @Override
+            public IntBuffer lock(int width, int height) {
+                plasmaInterpolatedFrame = plasmaPool.fit(plasmaInterpolatedFrame, width * height);
+                return plasmaInterpolatedFrame.lock(width, height);
+            }
+
+            @Override
+            public void unlock() {
+                plasmaInterpolatedFrame.unlock();
+            }
+
+            @Override
+            public PlasmaCore.PixelFormat getPixelFormat() {
+                return plasmaInterpolatedFrame.getPixelFormat();
+            }
+        };
         plasmaMatrix = new Matrix();
-        plasmaMatrix.setScale(PLASMA_SIZE_DIV, PLASMA_SIZE_DIV);
         plasmaPaint = new Paint();
         plasmaPaint.setDither(true);
         plasmaPaint.setFilterBitmap(true);
+
+        /* drawing starts parked until surface is created */
+        plasmaTimeOffset = 0;
+        synchronized (isRunningSync) {
+            updateParked();
+        }
     }
 
 
     @Override
-    public final void surfaceChanged(SurfaceHolder holder, int format, int width, int height) { }
+    public final void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        synchronized (isSurfaceCreatedLock) {
+            if (width != surfaceSize.width() || height != surfaceSize.height()) {
+                surfaceSize.set(0, 0, width, height);
+                surfaceSizeVersion++;
+            }
+        }
+    }
 
     @Override
     public final void surfaceCreated(SurfaceHolder holder) {
         setIsSurfaceCreated(true);
+        synchronized (isRunningSync) {
+            updateParked();
+        }
     }
 
     @Override
     public final void surfaceDestroyed(SurfaceHolder holder) {
         setIsSurfaceCreated(false);
+        synchronized (isRunningSync) {
+            updateParked();
+        }
+    }
+
+    /**
+     * Renders plasma effect exact frames or keyframes ahead of drawing until interrupted.
+     */
+    private void onRenderThreadRun() {
+        FrameTrace trace = this.trace;
+        if (trace != null) {
+            trace.nameThread(RENDER_THREAD_NAME);
+        }
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                /* follow surface size, plasma timeline is kept through resize */
+                int surfaceVersion = getSurfaceSize(plasmaSurfaceSize);
+                if (surfaceVersion != plasmaSurfaceSizeVersion) {
+                    plasmaSurfaceSizeVersion = surfaceVersion;
+                    resizePlasma();
+                }
+
+                long budget = FrameScheduler.NANOSECONDS_IN_SECOND / updateThread.getFps();
+                plasmaInterpolator.setFramePeriod(budget);
+                plasmaInterpolator.renderKeyframe(getPlasmaTime());
+                if (plasmaInterpolator.getBlending()) {
+                    budget *= PLASMA_KEYFRAME_INTERVAL_FRAMES_MAX;
+                }
+
+                long trajectoryTime = plasma.getCore().getTrajectoryTime();
+                long fieldTime = plasma.getCore().getFieldTime();
+                frameStats.record(FrameStats.Stage.TRAJECTORY, trajectoryTime);
+                frameStats.record(FrameStats.Stage.FIELD, fieldTime);
+
+                /* stages run back to back, so their starts are counted back from now */
+                trace = this.trace;
+                if (trace != null) {
+                    long fieldStart = System.nanoTime() - fieldTime;
+                    trace.record(FrameTrace.Event.STAGE, FrameStats.Stage.TRAJECTORY.ordinal(),
+                            fieldStart - trajectoryTime, trajectoryTime);
+                    trace.record(FrameTrace.Event.STAGE, FrameStats.Stage.FIELD.ordinal(), fieldStart, fieldTime);
+                }
+
+                /* adjust resolution to drawing thread frame budget */
+                if (plasmaGovernor.update(trajectoryTime + fieldTime, budget)) {
+                    resizePlasma();
+                }
+            }
+        } catch (InterruptedException ignored) {
+        }
     }
 
     /**
@@ -135,23 +336,126 @@ public final class MainView extends SurfaceView implements SurfaceHolder.Callbac
      */
     private void onUpdateThreadUpdate() {
         if(getIsSurfaceCreated()){
+            long startTime = System.nanoTime();
+
+            /* compose latest exact frame or blended one, previous one is drawn again if there is no keyframe */
+            if (plasmaInterpolator.render(getPlasmaTime(), plasmaInterpolatedSink)) {
+                plasma.getBitmap(plasmaInterpolatedFrame);
+            }
+
+            /* stretch plasma bitmap to surface, sizes of both change with resolution level and resizes */
+            Bitmap plasmaBitmap = plasma.getBitmap();
+            int surfaceVersion = getSurfaceSize(drawSurfaceSize);
+            if (plasmaBitmap != plasmaMatrixBitmap || surfaceVersion != drawSurfaceSizeVersion) {
+                plasmaMatrix.setScale(1.0f * drawSurfaceSize.width() / plasmaBitmap.getWidth(),
+                        1.0f * drawSurfaceSize.height() / plasmaBitmap.getHeight());
+                plasmaMatrixBitmap = plasmaBitmap;
+                drawSurfaceSizeVersion = surfaceVersion;
+            }
+            long pixelsTime = System.nanoTime();
+
             Canvas canvas = holder.lockCanvas();
 
             /* draw plasma effect */
-            Bitmap plasmaBitmap = plasma.getBitmap(System.currentTimeMillis());
             canvas.drawBitmap(plasmaBitmap, plasmaMatrix, plasmaPaint);
 
-            /* draw fps if required */
+            /* draw fps and frame stats if required, text is preformatted so drawing does not allocate */
             if (getFpsVisible()) {
-                String fpsText = Integer.toString(updateThread.getRealFps());
-                canvas.drawText(fpsText, FPS_TEXT_OFFSET.x, FPS_TEXT_OFFSET.y, fpsTextStrokePaint);
-                canvas.drawText(fpsText, FPS_TEXT_OFFSET.x, FPS_TEXT_OFFSET.y, fpsTextFillPaint);
+                char[] fpsText = overlayText.getFpsText(updateThread.getRealFps());
+                canvas.drawText(fpsText, 0, fpsText.length, FPS_TEXT_OFFSET.x, FPS_TEXT_OFFSET.y, fpsTextStrokePaint);
+                canvas.drawText(fpsText, 0, fpsText.length, FPS_TEXT_OFFSET.x, FPS_TEXT_OFFSET.y, fpsTextFillPaint);
+
+                float y = FPS_TEXT_OFFSET.y + statsTextLineHeight;
+                for (int i = 0; i < statsLineCount; i++) {
+                    char[] line = overlayText.getStatsLine(i);
+                    canvas.drawText(line, 0, line.length, FPS_TEXT_OFFSET.x, y, statsTextStrokePaint);
+                    canvas.drawText(line, 0, line.length, FPS_TEXT_OFFSET.x, y, statsTextFillPaint);
+                    y += statsTextLineHeight;
+                }
             }
+            long drawTime = System.nanoTime();
 
             holder.unlockCanvasAndPost(canvas);
+            long endTime = System.nanoTime();
+
+            frameStats.record(FrameStats.Stage.SET_PIXELS, pixelsTime - startTime);
+            frameStats.record(FrameStats.Stage.DRAW, drawTime - pixelsTime);
+            frameStats.record(FrameStats.Stage.POST, endTime - drawTime);
+            frameStats.record(FrameStats.Stage.FRAME, endTime - startTime);
+
+            /* whole frame is recorded by drawing thread itself */
+            FrameTrace trace = this.trace;
+            if (trace != null) {
+                trace.record(FrameTrace.Event.STAGE, FrameStats.Stage.SET_PIXELS.ordinal(),
+                        startTime, pixelsTime - startTime);
+                trace.record(FrameTrace.Event.STAGE, FrameStats.Stage.DRAW.ordinal(), pixelsTime, drawTime - pixelsTime);
+                trace.record(FrameTrace.Event.STAGE, FrameStats.Stage.POST.ordinal(), drawTime, endTime - drawTime);
+            }
+
+            /* publish frame stats window */
+            if (endTime - frameStatsUpdateTime >= updateThread.getRealFpsUpdateDelay() * NANOSECONDS_IN_MILLISECOND) {
+                /* window is replaced as a whole for readers of other threads */
+                synchronized (lastFrameStatsSync) {
+                    frameStats.moveTo(lastFrameStats);
+                }
+                overlayText.update(lastFrameStats);
+                statsLineCount = overlayText.getStatsLineCount();
+                frameStatsUpdateTime = endTime;
+            }
         }
     }
 
+    /**
+     * Calculates plasma effect size of resolution level for surface size known to rendering thread.
+     *
+     * @param level resolution level
+     * @return      plasma effect size
+     */
+    private Rect getPlasmaSize(int level) {
+        int div = PLASMA_SIZE_DIVS[level];
+        return new Rect(0, 0, Math.max(1, plasmaSurfaceSize.width() / div),
+                Math.max(1, plasmaSurfaceSize.height() / div));
+    }
+
+    /**
+     * Resizes plasma effect to current resolution level and surface size.
+     * Keyframes of new size are taken from buffer pool as they are rendered.
+     * Must be called by rendering thread.
+     */
+    private void resizePlasma() {
+        plasma.resize(getPlasmaSize(plasmaGovernor.getLevel()));
+    }
+
+    /**
+     * Gets time of plasma effect timeline, which does not include parked time.
+     *
+     * @return  time in milliseconds
+     */
+    private long getPlasmaTime() {
+        return System.currentTimeMillis() - plasmaTimeOffset;
+    }
+
+    /**
+     * Parks drawing thread while view is paused or surface is gone and resumes it otherwise.
+     * Plasma effect rendering thread stops by itself when drawing does not take its frames.
+     * Must be called while state sync is held.
+     */
+    private void updateParked() {
+        boolean val = isPaused || !getIsSurfaceCreated();
+        if (val == isParked) {
+            return;
+        }
+        isParked = val;
+
+        long now = System.currentTimeMillis();
+        if (val) {
+            parkTime = now;
+        } else {
+            plasmaTimeOffset += now - parkTime;
+        }
+        updateThread.setPaused(val);
+    }
+
     /**
      * Starts drawing cycle.
      */
@@ -159,23 +463,93 @@ public final class MainView extends SurfaceView implements SurfaceHolder.Callbac
         synchronized (isRunningSync) {
             if (!isRunning) {
                 isRunning = true;
+                renderThread.start();
                 updateThread.start();
             }
         }
     }
 
     /**
-     * Finishes drawing cycle.
+     * Pauses drawing cycle keeping plasma effect buffers and timeline,
+     * paused threads do not consume CPU.
+     */
+    public final void pause() {
+        synchronized (isRunningSync) {
+            isPaused = true;
+            updateParked();
+        }
+    }
+
+    /**
+     * Resumes drawing cycle from the plasma effect time it was paused at.
+     */
+    public final void resume() {
+        synchronized (isRunningSync) {
+            isPaused = false;
+            updateParked();
+        }
+    }
+
+    /**
+     * Finishes drawing cycle, it can not be started again.
      */
     public final void end() {
         synchronized (isRunningSync) {
             if (isRunning) {
                 updateThread.end();
+                renderThread.interrupt();
                 isRunning = false;
             }
         }
     }
 
+    /**
+     * Copies frame stages durations of last completed stats window.
+     * Window length is real fps update delay of drawing thread.
+     * Window is copied as a whole, so it may be called from any thread.
+     *
+     * @param target    stats to replace content of
+     */
+    public final void getFrameStats(FrameStats target) {
+        if (target == null) {
+            throw new IllegalArgumentException("target");
+        }
+
+        synchronized (lastFrameStatsSync) {
+            lastFrameStats.copyTo(target);
+        }
+    }
+
+    public final FrameTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * Sets trace to record frames, their stages and drawing thread pacing to.
+     * Threads names are recorded only if trace is set before {@link #start()}.
+     *
+     * @param val   trace, <code>null</code> to stop recording
+     */
+    public final void setTrace(FrameTrace val) {
+        trace = val;
+        updateThread.setTrace(val);
+    }
+
+    public final boolean getPlasmaInterpolation() {
+        return plasmaInterpolator.getBlending();
+    }
+
+    /**
+     * Sets whether plasma effect keyframes which are over drawing frame budget are blended between,
+     * otherwise every frame is rendered exactly and resolution is lowered sooner.
+     * Keyframes which fit the budget are exact frames either way.
+     *
+     * @param val   <code>true</code> to interpolate
+     */
+    public final void setPlasmaInterpolation(boolean val) {
+        plasmaInterpolator.setBlending(val);
+    }
+
     public final boolean getFpsVisible() {
         synchronized (fpsVisibleSync) {
             return fpsVisible;
@@ -194,6 +568,19 @@ public final class MainView extends SurfaceView implements SurfaceHolder.Callbac
         }
     }
 
+    /**
+     * Copies surface size into <code>target</code>.
+     *
+     * @param target    destination of size
+     * @return          version of size, it is changed on every resize
+     */
+    private int getSurfaceSize(Rect target) {
+        synchronized (isSurfaceCreatedLock) {
+            target.set(surfaceSize.left, surfaceSize.top, surfaceSize.right, surfaceSize.bottom);
+            return surfaceSizeVersion;
+        }
+    }
+
     private boolean getIsSurfaceCreated() {
         synchronized (isSurfaceCreatedLock) {
             return isSurfaceCreated;
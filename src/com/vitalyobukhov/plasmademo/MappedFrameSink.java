@@ -0,0 +1,134 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * {@link FrameSink} which keeps frame in memory mapped file for headless use.
+ * <p>
+ * File contains single frame of the last locked dimensions, rows are stored without gaps
+ * starting from file beginning. Renderer writes straight into mapped pages,
+ * operating system writes them to file.
+ * <p>
+ * File only grows while sink is open: mapping of previous dimensions stays valid until it is collected,
+ * and access to its pages cut off by truncation faults with <code>SIGBUS</code>.
+ * So file may be longer than the last frame, bytes after it are left from larger frames.
+ *
+ * @author Vitaly Obukhov
+ * @version 1.1
+ */
+public final class MappedFrameSink implements FrameSink, Closeable {
+
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final PlasmaCore.PixelFormat format;
+
+    /* mapped region of current dimensions */
+    private MappedByteBuffer mapped;
+    private IntBuffer pixels;
+    private int width;
+    private int height;
+
+
+    /**
+     * Creates sink writing into <code>path</code> file, file is created if it does not exist.
+     *
+     * @param path          frame file
+     * @param format        pixels layout
+     * @throws IOException  if file can not be opened
+     */
+    public MappedFrameSink(File path, PlasmaCore.PixelFormat format) throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException("path");
+        }
+        if (format == null) {
+            throw new IllegalArgumentException("format");
+        }
+
+        this.format = format;
+        file = new RandomAccessFile(path, "rw");
+        channel = file.getChannel();
+    }
+
+
+    /**
+     * Maps file region of frame, file is extended when frame is larger than it.
+     * Buffer returned for previous dimensions must not be used after dimensions change.
+     *
+     * @param width     frame width
+     * @param height    frame height
+     * @return          mapped pixels
+     */
+    @Override
+    public final IntBuffer lock(int width, int height) {
+        if (pixels == null || width != this.width || height != this.height) {
+            long size = (long)width * height * BYTES_PER_PIXEL;
+
+            try {
+                mapped = null;
+                pixels = null;
+                mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            /* bytes follow format in file regardless of platform */
+            mapped.order(ByteOrder.BIG_ENDIAN);
+            pixels = mapped.asIntBuffer();
+            this.width = width;
+            this.height = height;
+        }
+
+        return pixels;
+    }
+
+    @Override
+    public final void unlock() {
+    }
+
+    @Override
+    public final PlasmaCore.PixelFormat getPixelFormat() {
+        return format;
+    }
+
+    /**
+     * Writes mapped pages of last frame to storage.
+     */
+    public final void flush() {
+        if (mapped != null) {
+            mapped.force();
+        }
+    }
+
+    public final int getWidth() {
+        return width;
+    }
+
+    public final int getHeight() {
+        return height;
+    }
+
+    /**
+     * Closes file. Mapping is released by garbage collector.
+     *
+     * @throws IOException  if file can not be closed
+     */
+    @Override
+    public final void close() throws IOException {
+        mapped = null;
+        pixels = null;
+        channel.close();
+        file.close();
+    }
+}
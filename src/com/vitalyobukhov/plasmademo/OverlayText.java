@@ -0,0 +1,143 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.util.Arrays;
+
+
+/**
+ * Preformatted text of fps and frame stats overlay.
+ * <p>
+ * Fps glyphs are formatted once for every fps value, stats lines are formatted
+ * into fixed character buffers, so overlay is drawn every frame without allocations.
+ * Stats line is stage title padded to eight characters followed by
+ * p50, p95, p99 and max duration in milliseconds, every number is preceded by space.
+ *
+ * @author Vitaly Obukhov
+ * @version 1.1
+ */
+public final class OverlayText {
+
+
+    public static final String STATS_HEADER = "ms          p50    p95    p99    max";
+
+    private static final int TITLE_WIDTH = 8;
+    /* the longest number is six characters, one more is separating space */
+    private static final int NUMBER_WIDTH = 7;
+    private static final int NUMBER_FRACTION_DIGITS = 2;
+    private static final double[] PERCENTILES = { 50, 95, 99 };
+
+    /* stages are cached, values() copies array on every call */
+    private static final FrameStats.Stage[] STAGES = FrameStats.Stage.values();
+
+    /* hundredths of millisecond */
+    private static final double NANOSECONDS_IN_NUMBER_UNIT = 1e4;
+    private static final long NUMBER_MAX = 99999;
+
+
+    /* fps glyphs of every value */
+    private final char[][] fpsText;
+
+    /* stats lines, header first, then stages in order */
+    private final char[][] statsText;
+
+
+    /**
+     * Creates text of fps from 0 to <code>fpsMax</code> and empty stats of every {@link FrameStats.Stage}.
+     *
+     * @param fpsMax    highest fps value
+     */
+    public OverlayText(int fpsMax) {
+        if (fpsMax < 0) {
+            throw new IllegalArgumentException("fpsMax");
+        }
+
+        fpsText = new char[fpsMax + 1][];
+        for (int i = 0; i <= fpsMax; i++) {
+            fpsText[i] = Integer.toString(i).toCharArray();
+        }
+
+        FrameStats.Stage[] stages = STAGES;
+        statsText = new char[stages.length + 1][];
+        statsText[0] = STATS_HEADER.toCharArray();
+        for (int i = 0; i < stages.length; i++) {
+            String title = stages[i].getTitle();
+            char[] line = new char[Math.max(TITLE_WIDTH, title.length()) + NUMBER_WIDTH * (PERCENTILES.length + 1)];
+            Arrays.fill(line, ' ');
+            title.getChars(0, title.length(), line, 0);
+            statsText[i + 1] = line;
+        }
+        update(new FrameStats());
+    }
+
+
+    /**
+     * Gets fps glyphs, values out of range are clamped.
+     *
+     * @param fps   fps value
+     * @return      characters of decimal value
+     */
+    public final char[] getFpsText(int fps) {
+        return fpsText[Math.max(0, Math.min(fps, fpsText.length - 1))];
+    }
+
+    /**
+     * Formats stats lines of <code>stats</code> percentiles.
+     *
+     * @param stats frame stats
+     */
+    public final void update(FrameStats stats) {
+        FrameStats.Stage[] stages = STAGES;
+        for (int i = 0; i < stages.length; i++) {
+            FrameHistogram histogram = stats.getHistogram(stages[i]);
+            char[] line = statsText[i + 1];
+
+            int end = line.length - NUMBER_WIDTH * (PERCENTILES.length + 1);
+            for (double percentile : PERCENTILES) {
+                end += NUMBER_WIDTH;
+                formatNumber(line, end, histogram.getPercentile(percentile));
+            }
+            end += NUMBER_WIDTH;
+            formatNumber(line, end, histogram.getMax());
+        }
+    }
+
+    /**
+     * @return  count of stats lines including header
+     */
+    public final int getStatsLineCount() {
+        return statsText.length;
+    }
+
+    /**
+     * Gets stats line, content is changed by {@link #update}.
+     *
+     * @param index line index, 0 for header
+     * @return      line characters
+     */
+    public final char[] getStatsLine(int index) {
+        return statsText[index];
+    }
+
+    /**
+     * Formats duration right aligned in milliseconds with two fraction digits,
+     * durations which do not fit width are clamped. The first character of field is left blank.
+     *
+     * @param line  destination characters
+     * @param end   index after last character of number
+     * @param nanos duration in nanoseconds
+     */
+    private static void formatNumber(char[] line, int end, long nanos) {
+        long value = Math.min(NUMBER_MAX, Math.round(nanos / NANOSECONDS_IN_NUMBER_UNIT));
+
+        int i = end - 1;
+        for (int digit = 0; digit < NUMBER_WIDTH - 1; digit++, i--) {
+            if (digit == NUMBER_FRACTION_DIGITS) {
+                line[i] = '.';
+            } else if (value > 0 || digit <= NUMBER_FRACTION_DIGITS + 1) {
+                line[i] = (char)('0' + value % 10);
+                value /= 10;
+            } else {
+                line[i] = ' ';
+            }
+        }
+    }
+}
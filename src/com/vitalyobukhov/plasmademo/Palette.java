@@ -0,0 +1,105 @@
+package com.vitalyobukhov.plasmademo;
+
+
+/**
+ * ARGB palettes of {@link PlasmaCore.Mode#PALETTE} mode.
+ * Entry 0 is used for the strongest repulsion, last entry for the strongest attraction.
+ *
+ * @author Vitaly Obukhov
+ * @version 1.1
+ */
+public final class Palette {
+
+
+    public static final int SIZE_MIN = 2;
+    public static final int SIZE_MAX = 4096;
+    public static final int SIZE_DEFAULT = 256;
+
+    private static final int ALPHA = 0xff000000;
+
+    /* default gradient ends */
+    private static final int DEFAULT_REPULSION_COLOR = 0xff10105a;
+    private static final int DEFAULT_ATTRACTION_COLOR = 0xffffc846;
+
+
+    private Palette() {
+    }
+
+
+    /**
+     * Creates default palette, gradient from dark blue of repulsion to warm yellow of attraction.
+     * Palette is not cyclic, so the strongest attraction and repulsion differ.
+     *
+     * @param size  count of entries
+     * @return      ARGB colors
+     */
+    public static int[] createDefault(int size) {
+        return createGradient(size, DEFAULT_REPULSION_COLOR, DEFAULT_ATTRACTION_COLOR);
+    }
+
+    /**
+     * Creates cyclic palette of phase shifted sine waves, classic plasma colors.
+     * First and last entries are alike, so the strongest attraction and repulsion look the same.
+     *
+     * @param size  count of entries
+     * @return      ARGB colors
+     */
+    public static int[] createRainbow(int size) {
+        checkSize(size);
+
+        int[] colors = new int[size];
+        for (int i = 0; i < size; i++) {
+            double phase = 2.0 * Math.PI * i / size;
+            int r = (int)(127.5 + 127.5 * Math.sin(phase));
+            int g = (int)(127.5 + 127.5 * Math.sin(phase + 2.0 * Math.PI / 3.0));
+            int b = (int)(127.5 + 127.5 * Math.sin(phase + 4.0 * Math.PI / 3.0));
+            colors[i] = ALPHA | (r << 16) | (g << 8) | b;
+        }
+
+        return colors;
+    }
+
+    /**
+     * Creates palette of linear transitions between evenly spaced <code>stops</code>.
+     *
+     * @param size  count of entries
+     * @param stops ARGB colors of first entry, last entry and evenly spaced entries between them
+     * @return      ARGB colors
+     */
+    public static int[] createGradient(int size, int... stops) {
+        checkSize(size);
+        if (stops == null || stops.length < 2) {
+            throw new IllegalArgumentException("stops");
+        }
+
+        int[] colors = new int[size];
+        for (int i = 0; i < size; i++) {
+            double position = (double)i * (stops.length - 1) / (size - 1);
+            int stop = Math.min((int)position, stops.length - 2);
+            double k = position - stop;
+
+            int from = stops[stop];
+            int to = stops[stop + 1];
+            int color = 0;
+            for (int shift = 0; shift < 32; shift += 8) {
+                int a = (from >>> shift) & 0xff;
+                int b = (to >>> shift) & 0xff;
+                color |= ((int)Math.round(a + (b - a) * k) & 0xff) << shift;
+            }
+            colors[i] = color;
+        }
+
+        return colors;
+    }
+
+    /**
+     * Checks that <code>size</code> is valid palette size.
+     *
+     * @param size  count of entries
+     */
+    static void checkSize(int size) {
+        if (size < SIZE_MIN || size > SIZE_MAX) {
+            throw new IllegalArgumentException("size");
+        }
+    }
+}
@@ -2,99 +2,73 @@ package com.vitalyobukhov.plasmademo;
 
 import android.graphics.Bitmap;
 import android.graphics.Rect;
-import java.util.Random;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
- * Plasma effect logic.
+ * Plasma effect {@link Bitmap} adapter for {@link PlasmaCore}.
+ * Frames are rendered into direct buffers of bitmap memory layout
+ * and copied to bitmap without pixels conversion.
+ * Frames and arrays are taken from {@link BufferPool} by size class, bitmaps are kept
+ * for recently used sizes, so repeated resizes do not allocate large buffers.
  *
  * @author Vitaly Obukhov
- * @version 1.3
+ * @version 1.6
  */
 public final class Plasma {
 
 
-    /* color constants */
-    private final int COLOR_VAL_MAX = 255;
-    private final int COLOR_VAL_HALF = 127;
-    private final int COLOR_VAL_MIN = 0;
+    /* bitmaps are created for exact sizes, so count of kept ones is limited */
+    private static final int BITMAP_COUNT_MAX = 16;
 
-    /* speed constants */
-    private final double SPEED_MIN_DIV = 40.0;
-    private final double SPEED_MAX_DIV = 20.0;
-    private final double TIME_DIV = 100.0;
+    /* plasma field logic */
+    private final PlasmaCore core;
+    private volatile FrameCache frameCache;
 
-    /* dimensions */
-    private int width;
-    private int height;
-    private double diag;
-
-    /* drawing objects */
-    private int[] pixels;
+    /* drawing objects, bitmaps are kept from least recently used to most recently used */
+    private final BufferPool pool;
+    private Frame frame;
+    private int[] cachePixels;
     private Bitmap bitmap;
-
-    /* initial coordinates */
-    private double rcx1, rcy1, gcx1, gcy1, bcx1, bcy1;
-    private double rcx2, rcy2, gcx2, gcy2, bcx2, bcy2;
-
-    /* speeds */
-    private double rsx1, rsy1, gsx1, gsy1, bsx1, bsy1;
-    private double rsx2, rsy2, gsx2, gsy2, bsx2, bsy2;
+    private final List<Bitmap> bitmaps;
 
 
     /**
-     * Creates instance width desired <code>size</code>
+     * Creates single threaded instance width desired <code>size</code>
      * @param size  plasma effect dimensions
      */
     public Plasma(Rect size) {
-        /* init dimensions */
-        width = size.width();
-        height = size.height();
-        diag = Math.sqrt(width * width + height * height);
+        this(size, 1);
+    }
+
+    /**
+     * Creates instance width desired <code>size</code> which calculates
+     * plasma field using <code>threadCount</code> threads.
+     *
+     * @param size          plasma effect dimensions
+     * @param threadCount   count of field calculation threads, 1 to calculate on caller thread
+     */
+    public Plasma(Rect size, int threadCount) {
+        this(size, createConfig(threadCount));
+    }
+
+    /**
+     * Creates instance width desired <code>size</code> and <code>config</code> parameters,
+     * so frames are reproducible by config seed.
+     *
+     * @param size      plasma effect dimensions
+     * @param config    creation parameters
+     */
+    public Plasma(Rect size, PlasmaConfig config) {
+        core = new PlasmaCore(size.width(), size.height(), config);
 
         /* init drawing data */
-        pixels = new int[width * height];
-        bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-
-        Random rnd = new Random();
-
-        /* attractors coordinates */
-        rcx1 = rnd.nextDouble() * width;
-        rcy1 = rnd.nextDouble() * height;
-        gcx1 = rnd.nextDouble() * width;
-        gcy1 = rnd.nextDouble() * height;
-        bcx1 = rnd.nextDouble() * width;
-        bcy1 = rnd.nextDouble() * height;
-
-        /* repulsors coordinates*/
-        rcx2 = rnd.nextDouble() * width;
-        rcy2 = rnd.nextDouble() * height;
-        gcx2 = rnd.nextDouble() * width;
-        gcy2 = rnd.nextDouble() * height;
-        bcx2 = rnd.nextDouble() * width;
-        bcy2 = rnd.nextDouble() * height;
-
-        /* speed constants */
-        double sxb = 1.0 * width / SPEED_MIN_DIV;
-        double sxa = 1.0 * width / SPEED_MAX_DIV;
-        double syb = 1.0 * height / SPEED_MIN_DIV;
-        double sya = 1.0 * height / SPEED_MAX_DIV;
-
-        /* attractors speeds */
-        rsx1 = syb + rnd.nextDouble() * sxa;
-        rsy1 = sxb + rnd.nextDouble() * sya;
-        gsx1 = sxb + rnd.nextDouble() * sxa;
-        gsy1 = sxb + rnd.nextDouble() * sya;
-        bsx1 = sxb + rnd.nextDouble() * sxa;
-        bsy1 = sxb + rnd.nextDouble() * sya;
-
-        /* repulsors speeds */
-        rsx2 = sxb + rnd.nextDouble() * sxa;
-        rsy2 = sxb + rnd.nextDouble() * sya;
-        gsx2 = sxb + rnd.nextDouble() * sxa;
-        gsy2 = sxb + rnd.nextDouble() * sya;
-        bsx2 = sxb + rnd.nextDouble() * sxa;
-        bsy2 = sxb + rnd.nextDouble() * sya;
+        pool = new BufferPool();
+        frame = pool.obtainFrame(size.width() * size.height());
+        bitmaps = new ArrayList<Bitmap>();
+        bitmap = obtainBitmap(size.width(), size.height());
     }
 
     /**
@@ -104,100 +78,168 @@ public final class Plasma {
      * @return      plasma effect {@link Bitmap}
      */
     public final Bitmap getBitmap(long time) {
-        /* scale time */
-        double t = time / TIME_DIV;
-
-        /* new coordinates and color parts*/
-        double rcx1n, rcy1n, gcx1n, gcy1n, bcx1n, bcy1n;
-        double rcx2n, rcy2n, gcx2n, gcy2n, bcx2n, bcy2n;
-        double rn, gn, bn;
-
-        /* cycle each pixel */
-        for(int x = 0; x < width; x++) {
-            for(int y = 0; y < height; y++) {
-                /* calculate new coordinates */
-                rcx1n = getNewCord(rcx1, rsx1, width, t);
-                rcy1n = getNewCord(rcy1, rsy1, height, t);
-                gcx1n = getNewCord(gcx1, gsx1, width, t);
-                gcy1n = getNewCord(gcy1, gsy1, height, t);
-                bcx1n = getNewCord(bcx1, bsx1, width, t);
-                bcy1n = getNewCord(bcy1, bsy1, height, t);
-
-                rcx2n = getNewCord(rcx2, rsx2, width, t);
-                rcy2n = getNewCord(rcy2, rsy2, height, t);
-                gcx2n = getNewCord(gcx2, gsx2, width, t);
-                gcy2n = getNewCord(gcy2, gsy2, height, t);
-                bcx2n = getNewCord(bcx2, bsx2, width, t);
-                bcy2n = getNewCord(bcy2, bsy2, height, t);
-
-                /* calculate new color parts using current coordinates and related attractors / repulsors weight */
-                rn = COLOR_VAL_HALF + COLOR_VAL_MAX * (getColorWeight(rcx1n, rcy1n, x, y) - getColorWeight(rcx2n, rcy2n, x, y));
-                gn = COLOR_VAL_HALF + COLOR_VAL_MAX * (getColorWeight(gcx1n, gcy1n, x, y) - getColorWeight(gcx2n, gcy2n, x, y));
-                bn = COLOR_VAL_HALF + COLOR_VAL_MAX * (getColorWeight(bcx1n, bcy1n, x, y) - getColorWeight(bcx2n, bcy2n, x, y));
-
-                /* fix color parts */
-                rn = rn > COLOR_VAL_MAX ? COLOR_VAL_MAX : (rn < COLOR_VAL_MIN ? COLOR_VAL_MIN : rn);
-                gn = gn > COLOR_VAL_MAX ? COLOR_VAL_MAX : (gn < COLOR_VAL_MIN ? COLOR_VAL_MIN : gn);
-                bn = bn > COLOR_VAL_MAX ? COLOR_VAL_MAX : (bn < COLOR_VAL_MIN ? COLOR_VAL_MIN : bn);
-
-                /* set color */
-                pixels[y * width + x] = (255 << 24) | ((int)rn << 16) | ((int)gn << 8) | (int)bn;
-            }
+        frame = pool.fit(frame, getFrameSize());
+        render(time, frame);
+
+        return getBitmap(frame);
+    }
+
+    /**
+     * Calculates plasma effect image into <code>frame</code>
+     * without touching {@link Bitmap}, so it can run on any thread.
+     *
+     * @param time  desired time
+     * @param frame destination frame, at least {@link #getFrameSize()} pixels capacity
+     */
+    public final void render(long time, Frame frame) {
+        FrameCache cache = frameCache;
+        if (cache == null) {
+            core.render(time, frame);
+            return;
         }
 
-        /* compose bitmap */
-        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        /* cached frames are kept as ARGB pixels */
+        int width = core.getWidth();
+        int height = core.getHeight();
+        cachePixels = pool.fit(cachePixels, width * height);
+        cache.render(time, cachePixels, 0, width);
+
+        IntBuffer buffer = frame.lock(width, height);
+        frame.getPixelFormat().put(cachePixels, 0, buffer, buffer.position(), width * height);
+        frame.unlock();
+    }
+
+    /**
+     * Composes plasma effect image from <code>frame</code> rendered by {@link #render}.
+     *
+     * @param frame rendered frame
+     * @return      plasma effect {@link Bitmap} of frame size
+     */
+    public final Bitmap getBitmap(Frame frame) {
+        bitmap = obtainBitmap(frame.getWidth(), frame.getHeight());
+        bitmap.copyPixelsFromBuffer(frame.getBytes());
         return bitmap;
     }
 
     /**
-     * Calculates actual object coordinate.
+     * Gets last composed plasma effect image.
      *
-     * @param cord      initial object coordinate
-     * @param speed     object speed
-     * @param size      area size
-     * @param time      desired time
-     * @return          new object coordinate
+     * @return  plasma effect {@link Bitmap}
      */
-    private double getNewCord(double cord, double speed, double size, double time) {
-        /* new coordinate remainder */
-        double rem = (speed * time) % (2.0 * size);
-        double val;
-
-        /* object in area scope */
-        if (cord + rem >= 0.0 && cord + rem < size){
-            val = cord + rem;
-        /* object has left area scope */
-        } else if (cord + rem > size) {
-            if (cord + rem > 2.0 * size) {
-                val = cord + rem - 2.0 * size;
-            } else {
-                val = size - (cord + rem - size);
-            }
-        } else {
-            if ( cord + rem < -1.0 * size) {
-                val = size - (-1.0 * (cord + rem) - size);
-            } else {
-                val = -1.0 * (cord + rem);
-            }
-        }
+    public final Bitmap getBitmap() {
+        return bitmap;
+    }
 
-        return val;
+    /**
+     * Changes plasma effect dimensions keeping its timeline.
+     * Must not be called concurrently with rendering.
+     *
+     * @param size  new plasma effect dimensions
+     */
+    public final void resize(Rect size) {
+        core.resize(size.width(), size.height());
     }
 
     /**
-     * Calculates color weight metric.
+     * @return  pool of frames and arrays, it may be shared with frames consumers
+     */
+    public final BufferPool getBufferPool() {
+        return pool;
+    }
+
+    public final int getFrameSize() {
+        return core.getWidth() * core.getHeight();
+    }
+
+    /**
+     * Releases field calculation threads.
+     * Instance must not be used after release.
+     */
+    public final void release() {
+        core.release();
+    }
+
+    public final FrameCache getFrameCache() {
+        return frameCache;
+    }
+
+    /**
+     * Sets cache which frames are taken from.
+     *
+     * @param val   cache of current instance core or <code>null</code> to render every frame
+     */
+    public final void setFrameCache(FrameCache val) {
+        frameCache = val;
+    }
+
+    /**
+     * @return  seed which plasma effect was created from
+     */
+    public final long getSeed() {
+        return core.getSeed();
+    }
+
+    public final PlasmaCore getCore() {
+        return core;
+    }
+
+    public final PlasmaCore.Mode getMode() {
+        return core.getMode();
+    }
+
+    public final void setMode(PlasmaCore.Mode val) {
+        core.setMode(val);
+    }
+
+    public final int[] getPalette() {
+        return core.getPalette();
+    }
+
+    /**
+     * Sets {@link PlasmaCore.Mode#PALETTE} mode colors without waiting for rendering frame.
      *
-     * @param cx    object x coordinate
-     * @param cy    object y coordinate
-     * @param tx    target x coordinate
-     * @param ty    target y coordinate
-     * @return      color weight metric from 0 to 1
+     * @param val   ARGB colors
      */
-    private double getColorWeight(double cx, double cy, double tx, double ty) {
-        double dx = cx - tx;
-        double dy = cy - ty;
+    public final void setPalette(int[] val) {
+        core.setPalette(val);
+    }
+
+    private static PlasmaConfig createConfig(int threadCount) {
+        PlasmaConfig config = new PlasmaConfig();
+        config.setThreadCount(threadCount);
+        return config;
+    }
+
+    /**
+     * Gets bitmap of desired size creating it on first request.
+     * The least recently used bitmap is recycled when there are too many.
+     *
+     * @param width     bitmap width
+     * @param height    bitmap height
+     * @return          bitmap
+     */
+    private Bitmap obtainBitmap(int width, int height) {
+        if (bitmap != null && bitmap.getWidth() == width && bitmap.getHeight() == height) {
+            return bitmap;
+        }
+
+        for (int i = 0; i < bitmaps.size(); i++) {
+            Bitmap pooled = bitmaps.get(i);
+            if (pooled.getWidth() == width && pooled.getHeight() == height) {
+                bitmaps.remove(i);
+                bitmaps.add(pooled);
+                return pooled;
+            }
+        }
+
+        /* current bitmap may be drawn, so it is kept */
+        if (bitmaps.size() >= BITMAP_COUNT_MAX) {
+            int i = bitmaps.get(0) != bitmap ? 0 : 1;
+            bitmaps.remove(i).recycle();
+        }
 
-        return 1.0 - Math.sqrt(dx * dx + dy * dy) / diag;
+        Bitmap created = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmaps.add(created);
+        return created;
     }
 }
@@ -0,0 +1,158 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * {@link PlasmaCore} creation parameters.
+ * Initial coordinates and speeds are generated from seed only,
+ * so plasmas of equal seeds, layers and dimensions render equal frames.
+ *
+ * @author Vitaly Obukhov
+ * @version 1.1
+ */
+public final class PlasmaConfig {
+
+
+    private long seed;
+    private int threadCount;
+    private PlasmaCore.Mode mode;
+    private int sourcesPerChannel;
+    private int latticeStep;
+    private final List<PlasmaLayer> layers;
+
+
+    /**
+     * Creates single threaded {@link PlasmaCore.Mode#DOUBLE} configuration
+     * of default sources count and random seed.
+     */
+    public PlasmaConfig() {
+        this(new Random().nextLong());
+    }
+
+    /**
+     * Creates single threaded {@link PlasmaCore.Mode#DOUBLE} configuration
+     * of default sources count and <code>seed</code>.
+     *
+     * @param seed  random generator seed
+     */
+    public PlasmaConfig(long seed) {
+        this.seed = seed;
+        threadCount = 1;
+        mode = PlasmaCore.Mode.DOUBLE;
+        sourcesPerChannel = PlasmaCore.SOURCES_PER_CHANNEL_DEFAULT;
+        latticeStep = 1;
+        layers = new ArrayList<PlasmaLayer>();
+    }
+
+
+    public final long getSeed() {
+        return seed;
+    }
+
+    public final void setSeed(long val) {
+        seed = val;
+    }
+
+    public final int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Sets count of field calculation threads.
+     *
+     * @param val   thread count, 1 to calculate on caller thread
+     */
+    public final void setThreadCount(int val) {
+        if (val < 1) {
+            throw new IllegalArgumentException("threadCount");
+        }
+
+        threadCount = val;
+    }
+
+    public final PlasmaCore.Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Sets initial field calculation mode.
+     *
+     * @param val   mode, unsupported mode is replaced by {@link PlasmaCore.Mode#DOUBLE} at creation
+     */
+    public final void setMode(PlasmaCore.Mode val) {
+        if (val == null) {
+            throw new IllegalArgumentException("mode");
+        }
+
+        mode = val;
+    }
+
+    public final int getSourcesPerChannel() {
+        return sourcesPerChannel;
+    }
+
+    /**
+     * Sets count of attractors / repulsors of every color channel.
+     * Only default count is calculated by {@link PlasmaCore.Mode} kernels,
+     * other counts are calculated in double precision.
+     *
+     * @param val   sources count from 1 to {@link PlasmaCore#SOURCES_PER_CHANNEL_MAX}
+     */
+    public final void setSourcesPerChannel(int val) {
+        if (val < 1 || val > PlasmaCore.SOURCES_PER_CHANNEL_MAX) {
+            throw new IllegalArgumentException("sourcesPerChannel");
+        }
+
+        sourcesPerChannel = val;
+    }
+
+    public final int getLatticeStep() {
+        return latticeStep;
+    }
+
+    /**
+     * Sets distance in pixels between points field is evaluated at, other pixels are interpolated.
+     *
+     * @param val   lattice step from 1 to {@link PlasmaCore#LATTICE_STEP_MAX}, 1 to evaluate every pixel
+     */
+    public final void setLatticeStep(int val) {
+        if (val < 1 || val > PlasmaCore.LATTICE_STEP_MAX) {
+            throw new IllegalArgumentException("latticeStep");
+        }
+
+        latticeStep = val;
+    }
+
+    /**
+     * @return  additional layers from the lowest one
+     */
+    public final PlasmaLayer[] getLayers() {
+        return layers.toArray(new PlasmaLayer[layers.size()]);
+    }
+
+    /**
+     * Adds layer over base plasma and previously added layers.
+     *
+     * @param val   layer, no more than {@link PlasmaCore#LAYER_COUNT_MAX} layers including base one
+     */
+    public final void addLayer(PlasmaLayer val) {
+        if (val == null) {
+            throw new IllegalArgumentException("layer");
+        }
+        if (layers.size() + 1 >= PlasmaCore.LAYER_COUNT_MAX) {
+            throw new IllegalArgumentException("layers");
+        }
+
+        layers.add(val);
+    }
+
+    /**
+     * Removes additional layers, only base plasma is rendered.
+     */
+    public final void clearLayers() {
+        layers.clear();
+    }
+}
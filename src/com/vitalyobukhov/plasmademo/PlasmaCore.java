@@ -0,0 +1,1665 @@
+package com.vitalyobukhov.plasmademo;
+
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Plasma effect logic independent from platform graphics.
+ * Renders frames into caller supplied <code>int</code> ARGB targets, buffers or {@link FrameSink} sinks.
+ * <p>
+ * Field can be calculated in one of {@link Mode} modes.
+ * {@link Mode#FIXED_POINT} mode differs from {@link Mode#DOUBLE} mode
+ * by at most {@link #FIXED_POINT_MAX_ERROR} per color channel,
+ * {@link Mode#VECTOR} mode differs by at most {@link #VECTOR_MAX_ERROR}.
+ * {@link Mode#PALETTE} mode calculates two distances per pixel instead of six and looks color up in palette,
+ * so it renders different image.
+ * <p>
+ * Attractors / repulsors are kept in struct of arrays form. Source <code>s</code> affects channel
+ * <code>s % 3</code> (red, green, blue), sources of even <code>s / 3</code> attract and odd ones repulse.
+ * Default {@link #SOURCES_PER_CHANNEL_DEFAULT} sources per channel are calculated by mode kernels,
+ * other counts are calculated in double precision by sources grouped by channel, so cost grows linearly with count.
+ * <p>
+ * With {@link #setLatticeStep lattice step} above 1 field is evaluated only at coarse lattice
+ * in double precision and full resolution frame is reconstructed by bilinear interpolation.
+ * <p>
+ * {@link PlasmaLayer Layers} add own sources over base plasma. All layers are evaluated and blended
+ * row by row in one pass in double precision, so frame memory is written once whatever layers count is
+ * and cost grows with layers multiplied by sources. Layers of default sources count take horizontal distances
+ * precalculated per frame like {@link Mode#DOUBLE} mode, so every layer costs about as much as single plasma.
+ * Lattice stores blended values of layers.
+ *
+ * @author Vitaly Obukhov
+ * @version 1.8
+ */
+public final class PlasmaCore {
+
+
+    /**
+     * Field calculation mode.
+     */
+    public enum Mode {
+        /** double precision arithmetic */
+        DOUBLE,
+        /** fixed-point coordinates and distance lookup table */
+        FIXED_POINT,
+        /** SIMD kernel, supported only where {@link #VECTOR_KERNEL_CLASS} can be loaded */
+        VECTOR,
+        /** single scalar field of red attractor / repulsor mapped through {@link #setPalette palette} */
+        PALETTE;
+
+        /**
+         * @return  <code>true</code> if mode can be used in current runtime
+         */
+        public boolean isSupported() {
+            return this != VECTOR || VectorKernelHolder.KERNEL != null;
+        }
+    }
+
+    /**
+     * Layout of pixels in {@link IntBuffer} targets.
+     */
+    public enum PixelFormat {
+        /** <code>int</code> values <code>0xAARRGGBB</code> regardless of buffer byte order */
+        ARGB,
+        /** bytes R, G, B, A in memory, layout of <code>ARGB_8888</code> bitmaps and <code>RGBA</code> textures */
+        RGBA;
+
+        /**
+         * Writes ARGB pixels into <code>target</code> in current format.
+         * Source pixels are converted in place, target position is not changed.
+         *
+         * @param source    source ARGB pixels
+         * @param offset    index of first source pixel
+         * @param target    destination buffer
+         * @param index     index of first destination pixel
+         * @param count     count of pixels
+         */
+        public final void put(int[] source, int offset, IntBuffer target, int index, int count) {
+            if (this == RGBA) {
+                if (target.order() == ByteOrder.LITTLE_ENDIAN) {
+                    /* R is the lowest byte */
+                    for (int i = offset, end = offset + count; i < end; i++) {
+                        int color = source[i];
+                        source[i] = (color & 0xff00ff00) | ((color >> 16) & 0xff) | ((color & 0xff) << 16);
+                    }
+                } else {
+                    for (int i = offset, end = offset + count; i < end; i++) {
+                        int color = source[i];
+                        source[i] = (color << 8) | (color >>> 24);
+                    }
+                }
+            }
+
+            int position = target.position();
+            target.position(index);
+            target.put(source, offset, count);
+            target.position(position);
+        }
+    }
+
+    /**
+     * Pixels colors calculation of single row used by {@link Mode#VECTOR} mode.
+     * Implementation must produce <code>127 + 255 * (weight1 - weight2)</code> channel values
+     * clamped and packed same way as {@link Mode#DOUBLE} mode does,
+     * where source weight is <code>1 - sqrt(columnDistSq + rowDistSq) / diag</code>.
+     */
+    public interface RowKernel {
+
+        /**
+         * Calculates row pixels.
+         *
+         * @param columnDistSq  squared horizontal distances, source <code>s</code> at column <code>x</code>
+         *                      is at <code>s * width + x</code>
+         * @param rowDistSq     squared vertical distances of sources
+         * @param width         row width
+         * @param diag          plasma effect diagonal
+         * @param scratch       temporary data of at least <code>3 * width</code> length
+         * @param target        destination ARGB pixels
+         * @param offset        index of row first pixel
+         */
+        void render(double[] columnDistSq, double[] rowDistSq, int width, double diag,
+                double[] scratch, int[] target, int offset);
+    }
+
+    /**
+     * Name of {@link RowKernel} implementation based on <code>jdk.incubator.vector</code> module.
+     * It is not a part of android build, so {@link Mode#VECTOR} is supported only on desktop JVM
+     * which has both the class and the module.
+     */
+    public static final String VECTOR_KERNEL_CLASS = "com.vitalyobukhov.plasmademo.VectorRowKernel";
+
+    /**
+     * Maximum per channel difference between {@link Mode#VECTOR} and {@link Mode#DOUBLE} results.
+     * Lanes perform the same correctly rounded operations in the same order,
+     * only fused or reordered operations of particular hardware may change last bits.
+     */
+    public static final int VECTOR_MAX_ERROR = 1;
+
+    /**
+     * Maximum per channel difference between {@link Mode#FIXED_POINT} and {@link Mode#DOUBLE} results.
+     * Each source distance is looked up in a table of at most {@link #DIST_TABLE_SIZE_MAX} entries,
+     * so its error is about <code>255 / sqrt(DIST_TABLE_SIZE_MAX)</code> levels regardless of size,
+     * and a channel is a difference of two sources.
+     */
+    public static final int FIXED_POINT_MAX_ERROR = 2;
+
+    /* color constants */
+    private final int COLOR_VAL_MAX = 255;
+    private final int COLOR_VAL_HALF = 127;
+    private final int COLOR_VAL_MIN = 0;
+
+    /* speed constants */
+    private final double SPEED_MIN_DIV = 40.0;
+    private final double SPEED_MAX_DIV = 20.0;
+    private final double TIME_DIV = 100.0;
+
+    /* default layout attractors / repulsors indices */
+    public static final int SOURCE_R1 = 0;
+    public static final int SOURCE_G1 = 1;
+    public static final int SOURCE_B1 = 2;
+    public static final int SOURCE_R2 = 3;
+    public static final int SOURCE_G2 = 4;
+    public static final int SOURCE_B2 = 5;
+    public static final int SOURCE_COUNT = 6;
+
+    /* sources layout */
+    public static final int CHANNEL_COUNT = 3;
+    public static final int SOURCES_PER_CHANNEL_DEFAULT = SOURCE_COUNT / CHANNEL_COUNT;
+    public static final int SOURCES_PER_CHANNEL_MAX = 1024;
+
+    /* base plasma and additional layers */
+    public static final int LAYER_COUNT_MAX = 8;
+
+    /* field calculation tile side in pixels */
+    private static final int TILE_SIZE = 32;
+
+    /* fixed-point constants */
+    private static final int FIXED_SHIFT_MAX = 8;
+    private static final int FIXED_DIST_SQ_MAX = Integer.MAX_VALUE / 2;
+    private static final int DIST_TABLE_SIZE_MAX = 1 << 16;
+    private static final int COLOR_SHIFT = 8;
+
+    /* coarse lattice constants */
+    public static final int LATTICE_STEP_MAX = 64;
+    private static final int LATTICE_SHIFT = 16;
+
+    /* dimensions */
+    private int width;
+    private int height;
+    private double diag;
+
+    /* frame target, buffer targets are written band by band through staging array */
+    private int[] target;
+    private int targetOffset;
+    private int targetStride;
+    private IntBuffer bufferTarget;
+    private int bufferOffset;
+    private PixelFormat bufferFormat;
+    private final Object bufferSync;
+
+    /* per frame attractors / repulsors data */
+    private final double[] sourceX;
+    private final double[] sourceY;
+    private double[] columnDistSq;
+
+    /* fixed-point field data */
+    private int fixedShift;
+    private int distTableShift;
+    private int[] distTable;
+    private final int[] fixedSourceX;
+    private final int[] fixedSourceY;
+    private int[] fixedColumnDistSq;
+
+    /* last frame stages durations in nanoseconds */
+    private long trajectoryTime;
+    private long fieldTime;
+
+    /* field calculation mode */
+    private volatile Mode mode;
+    private Mode frameMode;
+
+    /* coarse lattice, values are fixed-point channels or palette index of every lattice point */
+    private volatile int latticeStep;
+    private int frameLatticeStep;
+    private int latticeWidth;
+    private int latticeHeight;
+    private int[] latticeValues;
+
+    /* rows of current parallel phase */
+    private int bandRows;
+    private boolean isLatticePhase;
+
+    /* palette mode colors, replaced as a whole so rendering frame keeps its own */
+    private volatile int[] palette;
+    private int[] framePalette;
+
+    /* parallel field calculation, workers run every started generation once */
+    private final int threadCount;
+    private final FieldTask[] fieldTasks;
+    private final AtomicInteger nextFieldBand;
+    private long fieldGeneration;
+    private int finishedTaskCount;
+    private Throwable fieldError;
+    private boolean isReleased;
+    private final Object fieldSync;
+
+    /* initial coordinates and speeds generator seed */
+    private final long seed;
+
+    /* attractors / repulsors, initial coordinates, speeds, affected channel and weight sign */
+    private final int sourceCount;
+    private final double[] sourceInitX;
+    private final double[] sourceInitY;
+    private final double[] sourceSpeedX;
+    private final double[] sourceSpeedY;
+    private final int[] sourceChannel;
+    private final double[] sourceSign;
+    private final double colorScale;
+
+    /* layers, base plasma is layer 0 and its blend is not used */
+    private final int layerCount;
+    private final PlasmaLayer.Blend[] layerBlend;
+    private final double[] layerOpacity;
+
+    /* layers of default sources count, their column distances are precalculated for all ordered sources */
+    private final boolean isLayerSourcesDefault;
+
+    /* sources grouped by layer and channel for N sources calculation, channel c of layer l
+       is from channelSources[l * 3 + c] to channelSources[l * 3 + c + 1] */
+    private final int[] sourceOrder;
+    private final int[] channelSources;
+    private final double[] orderedSourceX;
+    private final double[] orderedSourceY;
+    private final double[] orderedSourceSign;
+
+
+    /**
+     * Creates single threaded instance width desired dimensions.
+     *
+     * @param width     plasma effect width
+     * @param height    plasma effect height
+     */
+    public PlasmaCore(int width, int height) {
+        this(width, height, 1);
+    }
+
+    /**
+     * Creates instance width desired dimensions which calculates
+     * plasma field using <code>threadCount</code> threads.
+     * Result does not depend on thread count.
+     *
+     * @param width         plasma effect width
+     * @param height        plasma effect height
+     * @param threadCount   count of field calculation threads, 1 to calculate on caller thread
+     */
+    public PlasmaCore(int width, int height, int threadCount) {
+        this(width, height, threadCount, new Random().nextLong());
+    }
+
+    /**
+     * Creates instance width desired dimensions and <code>config</code> parameters.
+     *
+     * @param width     plasma effect width
+     * @param height    plasma effect height
+     * @param config    creation parameters
+     */
+    public PlasmaCore(int width, int height, PlasmaConfig config) {
+        this(width, height, config.getThreadCount(), config.getSeed(), config.getSourcesPerChannel(),
+                config.getLayers());
+        setMode(config.getMode());
+        setLatticeStep(config.getLatticeStep());
+    }
+
+    /**
+     * Creates instance width desired dimensions which initial coordinates and speeds
+     * are generated from <code>seed</code>, so equal seeds produce equal frames.
+     *
+     * @param width         plasma effect width
+     * @param height        plasma effect height
+     * @param threadCount   count of field calculation threads, 1 to calculate on caller thread
+     * @param seed          random generator seed
+     */
+    public PlasmaCore(int width, int height, int threadCount, long seed) {
+        this(width, height, threadCount, seed, SOURCES_PER_CHANNEL_DEFAULT, new PlasmaLayer[0]);
+    }
+
+    private PlasmaCore(int width, int height, int threadCount, long seed, int sourcesPerChannel,
+                       PlasmaLayer[] layers) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("size");
+        }
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount");
+        }
+        if (sourcesPerChannel < 1 || sourcesPerChannel > SOURCES_PER_CHANNEL_MAX) {
+            throw new IllegalArgumentException("sourcesPerChannel");
+        }
+        if (layers.length + 1 > LAYER_COUNT_MAX) {
+            throw new IllegalArgumentException("layers");
+        }
+
+        this.seed = seed;
+
+        layerCount = layers.length + 1;
+        layerBlend = new PlasmaLayer.Blend[layerCount];
+        layerOpacity = new double[layerCount];
+        for (int l = 1; l < layerCount; l++) {
+            layerBlend[l] = layers[l - 1].getBlend();
+            layerOpacity[l] = layers[l - 1].getOpacity();
+        }
+
+        /* channel is a sum of source weights scaled to default contrast */
+        int layerSourceCount = sourcesPerChannel * CHANNEL_COUNT;
+        sourceCount = layerSourceCount * layerCount;
+        colorScale = COLOR_VAL_MAX * (double)SOURCES_PER_CHANNEL_DEFAULT / sourcesPerChannel;
+        isLayerSourcesDefault = layerCount > 1 && sourcesPerChannel == SOURCES_PER_CHANNEL_DEFAULT;
+        sourceInitX = new double[sourceCount];
+        sourceInitY = new double[sourceCount];
+        sourceSpeedX = new double[sourceCount];
+        sourceSpeedY = new double[sourceCount];
+        sourceChannel = new int[sourceCount];
+        sourceSign = new double[sourceCount];
+
+        sourceX = new double[sourceCount];
+        sourceY = new double[sourceCount];
+        fixedSourceX = new int[SOURCE_COUNT];
+        fixedSourceY = new int[SOURCE_COUNT];
+
+        /* init dimensions */
+        setSize(width, height);
+
+        mode = Mode.DOUBLE;
+        frameMode = mode;
+        palette = Palette.createDefault(Palette.SIZE_DEFAULT);
+        latticeStep = 1;
+
+        /* init worker pool once, tasks pull tile rows until none left */
+        this.threadCount = threadCount;
+        nextFieldBand = new AtomicInteger();
+        fieldSync = new Object();
+        bufferSync = new Object();
+        fieldTasks = new FieldTask[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            fieldTasks[i] = new FieldTask();
+        }
+        if (threadCount > 1) {
+            for (FieldTask task : fieldTasks) {
+                Thread thread = new Thread(task, "Plasma worker");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MAX_PRIORITY);
+                thread.start();
+            }
+        }
+
+        /* speed constants */
+        double sxb = 1.0 * width / SPEED_MIN_DIV;
+        double sxa = 1.0 * width / SPEED_MAX_DIV;
+        double syb = 1.0 * height / SPEED_MIN_DIV;
+        double sya = 1.0 * height / SPEED_MAX_DIV;
+
+        /* every layer is generated from own seed like base plasma */
+        for (int l = 0; l < layerCount; l++) {
+            Random rnd = new Random(l == 0 ? seed : layers[l - 1].getSeed());
+            int from = l * layerSourceCount;
+            int to = from + layerSourceCount;
+
+            /* attractors / repulsors coordinates */
+            for (int i = from; i < to; i++) {
+                sourceInitX[i] = rnd.nextDouble() * width;
+                sourceInitY[i] = rnd.nextDouble() * height;
+                sourceChannel[i] = i % CHANNEL_COUNT;
+                sourceSign[i] = ((i - from) / CHANNEL_COUNT) % 2 == 0 ? 1.0 : -1.0;
+            }
+
+            /* attractors / repulsors speeds, first one has always had vertical base of horizontal speed */
+            for (int i = from; i < to; i++) {
+                sourceSpeedX[i] = (i == from ? syb : sxb) + rnd.nextDouble() * sxa;
+                sourceSpeedY[i] = sxb + rnd.nextDouble() * sya;
+            }
+        }
+
+        /* stable grouping by layer and channel keeps attractor / repulsor order of every channel */
+        sourceOrder = new int[sourceCount];
+        channelSources = new int[layerCount * CHANNEL_COUNT + 1];
+        orderedSourceX = new double[sourceCount];
+        orderedSourceY = new double[sourceCount];
+        orderedSourceSign = new double[sourceCount];
+        for (int l = 0, k = 0; l < layerCount; l++) {
+            for (int c = 0; c < CHANNEL_COUNT; c++) {
+                channelSources[l * CHANNEL_COUNT + c] = k;
+                for (int i = l * layerSourceCount; i < (l + 1) * layerSourceCount; i++) {
+                    if (sourceChannel[i] == c) {
+                        orderedSourceSign[k] = sourceSign[i];
+                        sourceOrder[k++] = i;
+                    }
+                }
+                channelSources[l * CHANNEL_COUNT + c + 1] = k;
+            }
+        }
+    }
+
+    /**
+     * Calculates plasma effect image into <code>target</code> array.
+     * Pixel <code>(x, y)</code> is stored at <code>offset + y * stride + x</code>.
+     *
+     * @param time      desired time
+     * @param target    destination ARGB pixels
+     * @param offset    index of first pixel
+     * @param stride    count of array elements between rows starts
+     */
+    public final void render(long time, int[] target, int offset, int stride) {
+        if (offset < 0 || stride < width || offset + (height - 1) * stride + width > target.length) {
+            throw new IllegalArgumentException("target");
+        }
+
+        /* keep mode and target during whole frame */
+        this.target = target;
+        targetOffset = offset;
+        targetStride = stride;
+        renderFrame(time);
+        this.target = null;
+    }
+
+    /**
+     * Calculates plasma effect image into <code>target</code> buffer
+     * starting from its current position, rows are stored without gaps.
+     * Buffer position is not changed.
+     *
+     * @param time      desired time
+     * @param target    destination ARGB pixels
+     */
+    public final void render(long time, IntBuffer target) {
+        render(time, target, PixelFormat.ARGB);
+    }
+
+    /**
+     * Calculates plasma effect image into <code>target</code> buffer
+     * starting from its current position, rows are stored without gaps.
+     * Pixels are written directly into buffer, so direct and mapped buffers are not copied.
+     * Buffer position is not changed.
+     *
+     * @param time      desired time
+     * @param target    destination pixels
+     * @param format    layout of pixels in <code>target</code>
+     */
+    public final void render(long time, IntBuffer target, PixelFormat format) {
+        if (target.remaining() < width * height) {
+            throw new IllegalArgumentException("target");
+        }
+        if (format == null) {
+            throw new IllegalArgumentException("format");
+        }
+
+        if (format == PixelFormat.ARGB && target.hasArray()) {
+            render(time, target.array(), target.arrayOffset() + target.position(), width);
+        } else {
+            bufferTarget = target;
+            bufferOffset = target.position();
+            bufferFormat = format;
+            renderFrame(time);
+            bufferTarget = null;
+        }
+    }
+
+    /**
+     * Calculates plasma effect image into <code>sink</code>.
+     *
+     * @param time  desired time
+     * @param sink  frame destination
+     */
+    public final void render(long time, FrameSink sink) {
+        IntBuffer buffer = sink.lock(width, height);
+        render(time, buffer, sink.getPixelFormat());
+        sink.unlock();
+    }
+
+    /**
+     * Changes plasma effect dimensions keeping its timeline.
+     * Coordinates and speeds are scaled with dimensions, so frame of same time
+     * shows the same picture in new resolution.
+     * Internal buffers only grow, so returning to previously used dimensions does not allocate.
+     * Must not be called concurrently with rendering.
+     *
+     * @param width     new plasma effect width
+     * @param height    new plasma effect height
+     */
+    public final void resize(int width, int height) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("size");
+        }
+        if (width == this.width && height == this.height) {
+            return;
+        }
+
+        double kx = (double)width / this.width;
+        double ky = (double)height / this.height;
+
+        for (int i = 0; i < sourceCount; i++) {
+            sourceInitX[i] *= kx;
+            sourceInitY[i] *= ky;
+            sourceSpeedX[i] *= kx;
+            sourceSpeedY[i] *= ky;
+        }
+
+        setSize(width, height);
+    }
+
+    /**
+     * @return  duration of last frame positions calculation in nanoseconds
+     */
+    public final long getTrajectoryTime() {
+        return trajectoryTime;
+    }
+
+    /**
+     * @return  duration of last frame pixels calculation in nanoseconds
+     */
+    public final long getFieldTime() {
+        return fieldTime;
+    }
+
+    public final int getWidth() {
+        return width;
+    }
+
+    public final int getHeight() {
+        return height;
+    }
+
+    /**
+     * Releases field calculation threads.
+     * Instance must not be used after release.
+     */
+    public final void release() {
+        synchronized (fieldSync) {
+            isReleased = true;
+            fieldSync.notifyAll();
+        }
+    }
+
+    /**
+     * @return  seed which initial coordinates and speeds were generated from
+     */
+    public final long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return  count of attractors / repulsors of every channel
+     */
+    public final int getSourcesPerChannel() {
+        return sourceCount / layerCount / CHANNEL_COUNT;
+    }
+
+    /**
+     * @return  count of layers including base plasma
+     */
+    public final int getLayerCount() {
+        return layerCount;
+    }
+
+    public final int getThreadCount() {
+        return threadCount;
+    }
+
+    public final Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Sets field calculation mode, unsupported mode is ignored.
+     *
+     * @param val   new mode
+     */
+    public final void setMode(Mode val) {
+        if (val != null && val.isSupported()) {
+            mode = val;
+        }
+    }
+
+    public final int getLatticeStep() {
+        return latticeStep;
+    }
+
+    /**
+     * Sets distance in pixels between points of coarse lattice which field is evaluated at,
+     * other pixels are interpolated. Field cost is divided by about <code>val * val</code>.
+     *
+     * @param val   lattice step from 1 to {@link #LATTICE_STEP_MAX}, 1 to evaluate every pixel
+     */
+    public final void setLatticeStep(int val) {
+        if (val < 1 || val > LATTICE_STEP_MAX) {
+            throw new IllegalArgumentException("latticeStep");
+        }
+
+        latticeStep = val;
+    }
+
+    /**
+     * @return  copy of {@link Mode#PALETTE} mode colors, {@link Palette#createDefault} by default
+     */
+    public final int[] getPalette() {
+        return palette.clone();
+    }
+
+    /**
+     * Sets {@link Mode#PALETTE} mode colors.
+     * Colors are copied and replace current ones from the next frame, rendering frame is not waited for.
+     *
+     * @param val   ARGB colors, from {@link Palette#SIZE_MIN} to {@link Palette#SIZE_MAX} entries
+     */
+    public final void setPalette(int[] val) {
+        if (val == null) {
+            throw new IllegalArgumentException("palette");
+        }
+        Palette.checkSize(val.length);
+
+        palette = val.clone();
+    }
+
+    /**
+     * Calculates frame into current target.
+     *
+     * @param time  desired time
+     */
+    private void renderFrame(long time) {
+        /* scale time */
+        double t = time / TIME_DIV;
+
+        frameMode = mode;
+        framePalette = palette;
+        frameLatticeStep = latticeStep;
+
+        long startTime = System.nanoTime();
+        updateSources(t);
+        long sourcesTime = System.nanoTime();
+        if (frameLatticeStep > 1) {
+            setLatticeSize();
+            updateBands(latticeHeight, true);
+        }
+        updateBands(height, false);
+        long endTime = System.nanoTime();
+
+        trajectoryTime = sourcesTime - startTime;
+        fieldTime = endTime - sourcesTime;
+    }
+
+    /**
+     * Runs field calculation phase by tile rows on worker pool or caller thread.
+     *
+     * @param rows      count of rows
+     * @param lattice   <code>true</code> to evaluate lattice rows, <code>false</code> to calculate pixels
+     */
+    private void updateBands(int rows, boolean lattice) {
+        bandRows = rows;
+        isLatticePhase = lattice;
+
+        if (threadCount > 1) {
+            updateFieldParallel();
+        } else {
+            nextFieldBand.set(0);
+            fieldTasks[0].calculate();
+        }
+    }
+
+    /**
+     * Calculates lattice dimensions of current frame, last lattice column and row
+     * are at the last pixel column and row.
+     */
+    private void setLatticeSize() {
+        int step = frameLatticeStep;
+        latticeWidth = (width - 1 + step - 1) / step + 1;
+        latticeHeight = (height - 1 + step - 1) / step + 1;
+
+        int size = latticeWidth * latticeHeight * CHANNEL_COUNT;
+        if (latticeValues == null || latticeValues.length < size) {
+            latticeValues = new int[size];
+        }
+    }
+
+    /**
+     * Sets dimensions and prepares dimension dependent data.
+     *
+     * @param width     plasma effect width
+     * @param height    plasma effect height
+     */
+    private void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        diag = Math.sqrt(width * width + height * height);
+
+        int columnSourceCount = isLayerSourcesDefault ? sourceCount : SOURCE_COUNT;
+        if (columnDistSq == null || columnDistSq.length < width * columnSourceCount) {
+            columnDistSq = new double[width * columnSourceCount];
+        }
+        if (fixedColumnDistSq == null || fixedColumnDistSq.length < width * SOURCE_COUNT) {
+            fixedColumnDistSq = new int[width * SOURCE_COUNT];
+        }
+
+        /* init fixed-point data, precision is limited by squared diagonal fitting int */
+        int shift = FIXED_SHIFT_MAX;
+        while (shift > 0 && fixedDistSq(width, height, shift) > FIXED_DIST_SQ_MAX) {
+            shift--;
+        }
+        fixedShift = shift;
+
+        long distSqMax = fixedDistSq(width, height, fixedShift);
+        int tableShift = 0;
+        while ((distSqMax >> tableShift) >= DIST_TABLE_SIZE_MAX) {
+            tableShift++;
+        }
+        distTableShift = tableShift;
+        updateDistTable((int)(distSqMax >> distTableShift) + 1);
+    }
+
+    /**
+     * Calculates attractors / repulsors positions for desired time.
+     * Positions depend on time only, so this stage runs once per frame.
+     *
+     * @param t     scaled time
+     */
+    private void updateSources(double t) {
+        for (int i = 0; i < sourceCount; i++) {
+            sourceX[i] = getNewCord(sourceInitX[i], sourceSpeedX[i], width, t);
+            sourceY[i] = getNewCord(sourceInitY[i], sourceSpeedY[i], height, t);
+        }
+
+        /* N sources and lattice distances are calculated on the fly */
+        if (sourceCount != SOURCE_COUNT || frameLatticeStep > 1) {
+            for (int k = 0; k < sourceCount; k++) {
+                orderedSourceX[k] = sourceX[sourceOrder[k]];
+                orderedSourceY[k] = sourceY[sourceOrder[k]];
+            }
+
+            /* squared horizontal distances of layers, interleaved by ordered source */
+            if (isLayerSourcesDefault && frameLatticeStep == 1) {
+                for (int x = 0; x < width; x++) {
+                    int i = x * sourceCount;
+                    for (int k = 0; k < sourceCount; k++) {
+                        double dx = orderedSourceX[k] - x;
+                        columnDistSq[i + k] = dx * dx;
+                    }
+                }
+            }
+            return;
+        }
+
+        /* squared horizontal distances, interleaved by source for sequential access */
+        if (frameMode == Mode.FIXED_POINT) {
+            double scale = 1 << fixedShift;
+            for (int s = 0; s < SOURCE_COUNT; s++) {
+                fixedSourceX[s] = (int)Math.round(sourceX[s] * scale);
+                fixedSourceY[s] = (int)Math.round(sourceY[s] * scale);
+            }
+
+            for (int x = 0; x < width; x++) {
+                int i = x * SOURCE_COUNT;
+                for (int s = 0; s < SOURCE_COUNT; s++) {
+                    int dx = fixedSourceX[s] - (x << fixedShift);
+                    fixedColumnDistSq[i + s] = dx * dx;
+                }
+            }
+        } else if (frameMode == Mode.VECTOR) {
+            /* planar by source for sequential lanes loading */
+            for (int s = 0; s < SOURCE_COUNT; s++) {
+                int i = s * width;
+                for (int x = 0; x < width; x++) {
+                    double dx = sourceX[s] - x;
+                    columnDistSq[i + x] = dx * dx;
+                }
+            }
+        } else {
+            for (int x = 0; x < width; x++) {
+                int i = x * SOURCE_COUNT;
+                for (int s = 0; s < SOURCE_COUNT; s++) {
+                    double dx = sourceX[s] - x;
+                    columnDistSq[i + s] = dx * dx;
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates pixels colors of rows from <code>rowFrom</code> inclusive
+     * to <code>rowTo</code> exclusive using current frame mode.
+     *
+     * @param rowFrom   first row
+     * @param rowTo     row after last one
+     * @param target    destination ARGB pixels
+     * @param offset    index of first frame pixel, may be negative if rows before <code>rowFrom</code> are not stored
+     * @param stride    count of array elements between rows starts
+     * @param task      calculating worker, owner of scratch arrays
+     */
+    private void updateField(int rowFrom, int rowTo, int[] target, int offset, int stride, FieldTask task) {
+        if (frameLatticeStep > 1) {
+            updateFieldLattice(rowFrom, rowTo, target, offset, stride, task);
+        } else if (isLayerSourcesDefault) {
+            updateFieldLayersDefault(rowFrom, rowTo, target, offset, stride, task);
+        } else if (layerCount > 1) {
+            updateFieldLayers(rowFrom, rowTo, target, offset, stride, task);
+        } else if (sourceCount != SOURCE_COUNT) {
+            updateFieldSources(rowFrom, rowTo, target, offset, stride, task);
+        } else if (frameMode == Mode.FIXED_POINT) {
+            updateFieldFixed(rowFrom, rowTo, target, offset, stride, task);
+        } else if (frameMode == Mode.VECTOR) {
+            updateFieldVector(rowFrom, rowTo, target, offset, stride, task);
+        } else if (frameMode == Mode.PALETTE) {
+            updateFieldPalette(rowFrom, rowTo, target, offset, stride, task);
+        } else {
+            updateFieldDouble(rowFrom, rowTo, target, offset, stride, task);
+        }
+    }
+
+    /**
+     * Calculates pixels colors of rows from <code>rowFrom</code> inclusive
+     * to <code>rowTo</code> exclusive, tile by tile in row-major order.
+     * Color weight metric of source is <code>1 - distance / diag</code>.
+     *
+     * @param rowFrom   first row
+     * @param rowTo     row after last one
+     * @param target    destination ARGB pixels
+     * @param offset    index of first frame pixel
+     * @param stride    count of array elements between rows starts
+     * @param task      calculating worker, owner of scratch arrays
+     */
+    private void updateFieldDouble(int rowFrom, int rowTo, int[] target, int offset, int stride, FieldTask task) {
+        double[] rowDistSq = task.rowDistSq;
+
+        for (int ty = rowFrom; ty < rowTo; ty += TILE_SIZE) {
+            int tyEnd = Math.min(ty + TILE_SIZE, rowTo);
+
+            for (int tx = 0; tx < width; tx += TILE_SIZE) {
+                int txEnd = Math.min(tx + TILE_SIZE, width);
+
+                for (int y = ty; y < tyEnd; y++) {
+                    /* squared vertical distances are shared by the whole tile row */
+                    for (int s = 0; s < SOURCE_COUNT; s++) {
+                        double dy = sourceY[s] - y;
+                        rowDistSq[s] = dy * dy;
+                    }
+
+                    int p = offset + y * stride + tx;
+                    for (int x = tx; x < txEnd; x++, p++) {
+                        int i = x * SOURCE_COUNT;
+
+                        /* calculate new color parts using current coordinates and related attractors / repulsors weight */
+                        double rn = COLOR_VAL_HALF + COLOR_VAL_MAX *
+                                ((1.0 - Math.sqrt(columnDistSq[i + SOURCE_R1] + rowDistSq[SOURCE_R1]) / diag) -
+                                 (1.0 - Math.sqrt(columnDistSq[i + SOURCE_R2] + rowDistSq[SOURCE_R2]) / diag));
+                        double gn = COLOR_VAL_HALF + COLOR_VAL_MAX *
+                                ((1.0 - Math.sqrt(columnDistSq[i + SOURCE_G1] + rowDistSq[SOURCE_G1]) / diag) -
+                                 (1.0 - Math.sqrt(columnDistSq[i + SOURCE_G2] + rowDistSq[SOURCE_G2]) / diag));
+                        double bn = COLOR_VAL_HALF + COLOR_VAL_MAX *
+                                ((1.0 - Math.sqrt(columnDistSq[i + SOURCE_B1] + rowDistSq[SOURCE_B1]) / diag) -
+                                 (1.0 - Math.sqrt(columnDistSq[i + SOURCE_B2] + rowDistSq[SOURCE_B2]) / diag));
+
+                        /* fix color parts */
+                        rn = rn > COLOR_VAL_MAX ? COLOR_VAL_MAX : (rn < COLOR_VAL_MIN ? COLOR_VAL_MIN : rn);
+                        gn = gn > COLOR_VAL_MAX ? COLOR_VAL_MAX : (gn < COLOR_VAL_MIN ? COLOR_VAL_MIN : gn);
+                        bn = bn > COLOR_VAL_MAX ? COLOR_VAL_MAX : (bn < COLOR_VAL_MIN ? COLOR_VAL_MIN : bn);
+
+                        /* set color */
+                        target[p] = (255 << 24) | ((int)rn << 16) | ((int)gn << 8) | (int)bn;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates pixels colors of rows from <code>rowFrom</code> inclusive
+     * to <code>rowTo</code> exclusive in fixed-point arithmetic.
+     * Channel value is <code>127 + 255 * (distance2 - distance1) / diag</code>,
+     * where scaled distances are taken from lookup table by squared fixed-point distance.
+     *
+     * @param rowFrom   first row
+     * @param rowTo     row after last one
+     * @param target    destination ARGB pixels
+     * @param offset    index of first frame pixel
+     * @param stride    count of array elements between rows starts
+     * @param task      calculating worker, owner of scratch arrays
+     */
+    private void updateFieldFixed(int rowFrom, int rowTo, int[] target, int offset, int stride, FieldTask task) {
+        int[] rowDistSq = task.fixedRowDistSq;
+        int[] table = distTable;
+        int tableShift = distTableShift;
+        int colorHalf = COLOR_VAL_HALF << COLOR_SHIFT;
+        int colorMax = (COLOR_VAL_MAX + 1) << COLOR_SHIFT;
+
+        for (int ty = rowFrom; ty < rowTo; ty += TILE_SIZE) {
+            int tyEnd = Math.min(ty + TILE_SIZE, rowTo);
+
+            for (int tx = 0; tx < width; tx += TILE_SIZE) {
+                int txEnd = Math.min(tx + TILE_SIZE, width);
+
+                for (int y = ty; y < tyEnd; y++) {
+                    for (int s = 0; s < SOURCE_COUNT; s++) {
+                        int dy = fixedSourceY[s] - (y << fixedShift);
+                        rowDistSq[s] = dy * dy;
+                    }
+
+                    int p = offset + y * stride + tx;
+                    for (int x = tx; x < txEnd; x++, p++) {
+                        int i = x * SOURCE_COUNT;
+
+                        int rn = colorHalf +
+                                table[(fixedColumnDistSq[i + SOURCE_R2] + rowDistSq[SOURCE_R2]) >>> tableShift] -
+                                table[(fixedColumnDistSq[i + SOURCE_R1] + rowDistSq[SOURCE_R1]) >>> tableShift];
+                        int gn = colorHalf +
+                                table[(fixedColumnDistSq[i + SOURCE_G2] + rowDistSq[SOURCE_G2]) >>> tableShift] -
+                                table[(fixedColumnDistSq[i + SOURCE_G1] + rowDistSq[SOURCE_G1]) >>> tableShift];
+                        int bn = colorHalf +
+                                table[(fixedColumnDistSq[i + SOURCE_B2] + rowDistSq[SOURCE_B2]) >>> tableShift] -
+                                table[(fixedColumnDistSq[i + SOURCE_B1] + rowDistSq[SOURCE_B1]) >>> tableShift];
+
+                        /* fix color parts */
+                        rn = rn >= colorMax ? colorMax - 1 : (rn < 0 ? 0 : rn);
+                        gn = gn >= colorMax ? colorMax - 1 : (gn < 0 ? 0 : gn);
+                        bn = bn >= colorMax ? colorMax - 1 : (bn < 0 ? 0 : bn);
+
+                        /* set color */
+                        target[p] = (255 << 24) | ((rn >> COLOR_SHIFT) << 16) | ((gn >> COLOR_SHIFT) << 8) | (bn >> COLOR_SHIFT);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates pixels colors of rows from <code>rowFrom</code> inclusive
+     * to <code>rowTo</code> exclusive row by row using {@link RowKernel}.
+     *
+     * @param rowFrom   first row
+     * @param rowTo     row after last one
+     * @param target    destination ARGB pixels
+     * @param offset    index of first frame pixel
+     * @param stride    count of array elements between rows starts
+     * @param task      calculating worker, owner of scratch arrays
+     */
+    private void updateFieldVector(int rowFrom, int rowTo, int[] target, int offset, int stride, FieldTask task) {
+        RowKernel kernel = VectorKernelHolder.KERNEL;
+        double[] rowDistSq = task.rowDistSq;
+        double[] scratch = task.getScratch(3 * width);
+
+        for (int y = rowFrom; y < rowTo; y++) {
+            for (int s = 0; s < SOURCE_COUNT; s++) {
+                double dy = sourceY[s] - y;
+                rowDistSq[s] = dy * dy;
+            }
+
+            kernel.render(columnDistSq, rowDistSq, width, diag, scratch, target, offset + y * stride);
+        }
+    }
+
+    /**
+     * Calculates pixels colors of rows from <code>rowFrom</code> inclusive
+     * to <code>rowTo</code> exclusive, tile by tile in row-major order.
+     * Scalar value is <code>(distance2 - distance1) / diag</code> of red attractor / repulsor,
+     * it is scaled like {@link Mode#DOUBLE} red channel, so channel range from 0 to 255
+     * is mapped to palette from first entry to last one.
+     *
+     * @param rowFrom   first row
+     * @param rowTo     row after last one
+     * @param target    destination ARGB pixels
+     * @param offset    index of first frame pixel
+     * @param stride    count of array elements between rows starts
+     * @param task      calculating worker, owner of scratch arrays
+     */
+    private void updateFieldPalette(int rowFrom, int rowTo, int[] target, int offset, int stride, FieldTask task) {
+        int[] colors = framePalette;
+        int indexMax = colors.length - 1;
+        double indexScale = indexMax / diag;
+        double indexBase = indexMax * (double)COLOR_VAL_HALF / COLOR_VAL_MAX + 0.5;
+        double[] rowDistSq = task.rowDistSq;
+
+        for (int ty = rowFrom; ty < rowTo; ty += TILE_SIZE) {
+            int tyEnd = Math.min(ty + TILE_SIZE, rowTo);
+
+            for (int tx = 0; tx < width; tx += TILE_SIZE) {
+                int txEnd = Math.min(tx + TILE_SIZE, width);
+
+                for (int y = ty; y < tyEnd; y++) {
+                    double dy1 = sourceY[SOURCE_R1] - y;
+                    double dy2 = sourceY[SOURCE_R2] - y;
+                    rowDistSq[SOURCE_R1] = dy1 * dy1;
+                    rowDistSq[SOURCE_R2] = dy2 * dy2;
+
+                    int p = offset + y * stride + tx;
+                    for (int x = tx; x < txEnd; x++, p++) {
+                        int i = x * SOURCE_COUNT;
+
+                        int index = (int)(indexBase + indexScale *
+                                (Math.sqrt(columnDistSq[i + SOURCE_R2] + rowDistSq[SOURCE_R2]) -
+                                 Math.sqrt(columnDistSq[i + SOURCE_R1] + rowDistSq[SOURCE_R1])));
+
+                        target[p] = colors[index < 0 ? 0 : (index > indexMax ? indexMax : index)];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluates field at lattice rows from <code>rowFrom</code> inclusive
+     * to <code>rowTo</code> exclusive in double precision.
+     * {@link Mode#PALETTE} mode stores palette index, other modes store channel values before clamping,
+     * layers store blended channel values, all in fixed-point with {@link #LATTICE_SHIFT} fraction bits.
+     *
+     * @param rowFrom   first lattice row
+     * @param rowTo     lattice row after last one
+     * @param task      calculating worker, owner of scratch arrays
+     */
+    private void updateLattice(int rowFrom, int rowTo, FieldTask task) {
+        int step = frameLatticeStep;
+        int[] values = latticeValues;
+        double one = 1 << LATTICE_SHIFT;
+        double[] x0 = orderedSourceX;
+        double[] sign = orderedSourceSign;
+        double[] rowDistSq = task.rowDistSq;
+        double[] color = task.layerColor;
+        int rFrom = channelSources[0];
+        int gFrom = channelSources[1];
+        int bFrom = channelSources[2];
+        int bTo = channelSources[3];
+
+        /* palette index of red attractor / repulsor like updateFieldPalette */
+        boolean isPalette = frameMode == Mode.PALETTE && sourceCount == SOURCE_COUNT;
+        int indexMax = framePalette.length - 1;
+        double indexScale = indexMax / diag;
+        double indexBase = indexMax * (double)COLOR_VAL_HALF / COLOR_VAL_MAX;
+
+        for (int j = rowFrom; j < rowTo; j++) {
+            int y = Math.min(j * step, height - 1);
+            for (int i = 0; i < sourceCount; i++) {
+                double dy = orderedSourceY[i] - y;
+                rowDistSq[i] = dy * dy;
+            }
+
+            int p = j * latticeWidth * CHANNEL_COUNT;
+            for (int i = 0; i < latticeWidth; i++, p += CHANNEL_COUNT) {
+                int x = Math.min(i * step, width - 1);
+
+                if (isPalette) {
+                    double dx1 = sourceX[SOURCE_R1] - x;
+                    double dx2 = sourceX[SOURCE_R2] - x;
+                    double dy1 = sourceY[SOURCE_R1] - y;
+                    double dy2 = sourceY[SOURCE_R2] - y;
+                    values[p] = (int)(one * (indexBase + indexScale *
+                            (Math.sqrt(dx2 * dx2 + dy2 * dy2) - Math.sqrt(dx1 * dx1 + dy1 * dy1))));
+                    continue;
+                }
+
+                if (layerCount > 1) {
+                    blendLayers(x, rowDistSq, color);
+                    values[p] = (int)(one * color[0]);
+                    values[p + 1] = (int)(one * color[1]);
+                    values[p + 2] = (int)(one * color[2]);
+                    continue;
+                }
+
+                double rs = 0.0;
+                double gs = 0.0;
+                double bs = 0.0;
+                for (int k = rFrom; k < gFrom; k++) {
+                    double dx = x0[k] - x;
+                    rs += sign[k] * (1.0 - Math.sqrt(dx * dx + rowDistSq[k]) / diag);
+                }
+                for (int k = gFrom; k < bFrom; k++) {
+                    double dx = x0[k] - x;
+                    gs += sign[k] * (1.0 - Math.sqrt(dx * dx + rowDistSq[k]) / diag);
+                }
+                for (int k = bFrom; k < bTo; k++) {
+                    double dx = x0[k] - x;
+                    bs += sign[k] * (1.0 - Math.sqrt(dx * dx + rowDistSq[k]) / diag);
+                }
+
+                values[p] = (int)(one * (COLOR_VAL_HALF + colorScale * rs));
+                values[p + 1] = (int)(one * (COLOR_VAL_HALF + colorScale * gs));
+                values[p + 2] = (int)(one * (COLOR_VAL_HALF + colorScale * bs));
+            }
+        }
+    }
+
+    /**
+     * Reconstructs pixels colors of rows from <code>rowFrom</code> inclusive
+     * to <code>rowTo</code> exclusive from lattice values.
+     * Values are interpolated vertically once per lattice column of row,
+     * then incrementally along row, so pixel costs a few integer additions.
+     * Unused channels of palette index are interpolated too, they are cheaper than a branch.
+     *
+     * @param rowFrom   first row
+     * @param rowTo     row after last one
+     * @param target    destination ARGB pixels
+     * @param offset    index of first frame pixel
+     * @param stride    count of array elements between rows starts
+     * @param task      calculating worker, owner of scratch arrays
+     */
+    private void updateFieldLattice(int rowFrom, int rowTo, int[] target, int offset, int stride, FieldTask task) {
+        int step = frameLatticeStep;
+        int[] values = latticeValues;
+        int lw = latticeWidth;
+        int[] row = task.getLatticeRow(lw * CHANNEL_COUNT);
+
+        boolean isPalette = frameMode == Mode.PALETTE && sourceCount == SOURCE_COUNT;
+        int[] colors = framePalette;
+        int indexMax = colors.length - 1;
+        int half = 1 << (LATTICE_SHIFT - 1);
+        int colorMax = COLOR_VAL_MAX << LATTICE_SHIFT;
+        /* fixed-point reciprocal of full cell width, divisions are left for vertical weight and last cell */
+        long stepWeight = (1 << LATTICE_SHIFT) / step;
+
+        for (int y = rowFrom; y < rowTo; y++) {
+            /* vertical interpolation between lattice rows */
+            int j = y / step;
+            int j1 = Math.min(j + 1, latticeHeight - 1);
+            int cellHeight = Math.min((j + 1) * step, height - 1) - j * step;
+            long wy = cellHeight <= 0 ? 0 : ((long)(y - j * step) << LATTICE_SHIFT) / cellHeight;
+            int top = j * lw * CHANNEL_COUNT;
+            int bottom = j1 * lw * CHANNEL_COUNT;
+
+            for (int i = 0; i < lw * CHANNEL_COUNT; i++) {
+                int v = values[top + i];
+                row[i] = v + (int)(((values[bottom + i] - v) * wy) >> LATTICE_SHIFT);
+            }
+
+            /* horizontal incremental interpolation, last lattice column is the last pixel */
+            int p = offset + y * stride;
+            for (int i = 0; i < lw; i++) {
+                int x = i * step;
+                int l = i * CHANNEL_COUNT;
+                int r = l + CHANNEL_COUNT;
+                int cellWidth = step;
+                long wx = stepWeight;
+                if (i == lw - 1) {
+                    cellWidth = 1;
+                    r = l;
+                } else if (x + step > width - 1) {
+                    cellWidth = width - 1 - x;
+                    wx = (1 << LATTICE_SHIFT) / cellWidth;
+                }
+
+                int v0 = row[l];
+                int d0 = (int)(((row[r] - v0) * wx) >> LATTICE_SHIFT);
+
+                if (isPalette) {
+                    for (int k = 0; k < cellWidth; k++, p++) {
+                        int index = (v0 + half) >> LATTICE_SHIFT;
+                        target[p] = colors[index < 0 ? 0 : (index > indexMax ? indexMax : index)];
+                        v0 += d0;
+                    }
+                    continue;
+                }
+
+                int v1 = row[l + 1];
+                int v2 = row[l + 2];
+                int d1 = (int)(((row[r + 1] - v1) * wx) >> LATTICE_SHIFT);
+                int d2 = (int)(((row[r + 2] - v2) * wx) >> LATTICE_SHIFT);
+
+                for (int k = 0; k < cellWidth; k++, p++) {
+                    int rn = v0 < 0 ? 0 : (v0 > colorMax ? COLOR_VAL_MAX : v0 >> LATTICE_SHIFT);
+                    int gn = v1 < 0 ? 0 : (v1 > colorMax ? COLOR_VAL_MAX : v1 >> LATTICE_SHIFT);
+                    int bn = v2 < 0 ? 0 : (v2 > colorMax ? COLOR_VAL_MAX : v2 >> LATTICE_SHIFT);
+                    target[p] = (255 << 24) | (rn << 16) | (gn << 8) | bn;
+
+                    v0 += d0;
+                    v1 += d1;
+                    v2 += d2;
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates pixels colors of rows from <code>rowFrom</code> inclusive
+     * to <code>rowTo</code> exclusive for any count of sources.
+     * Sources are grouped by channel, so every channel is a branchless sum over sequential arrays
+     * and pixel cost grows linearly with sources count.
+     * Default sources produce the same result as {@link #updateFieldDouble}.
+     *
+     * @param rowFrom   first row
+     * @param rowTo     row after last one
+     * @param target    destination ARGB pixels
+     * @param offset    index of first frame pixel
+     * @param stride    count of array elements between rows starts
+     * @param task      calculating worker, owner of scratch arrays
+     */
+    private void updateFieldSources(int rowFrom, int rowTo, int[] target, int offset, int stride, FieldTask task) {
+        double[] x0 = orderedSourceX;
+        double[] sign = orderedSourceSign;
+        double[] rowDistSq = task.rowDistSq;
+        int rFrom = channelSources[0];
+        int gFrom = channelSources[1];
+        int bFrom = channelSources[2];
+        int bTo = channelSources[3];
+
+        for (int y = rowFrom; y < rowTo; y++) {
+            for (int i = 0; i < sourceCount; i++) {
+                double dy = orderedSourceY[i] - y;
+                rowDistSq[i] = dy * dy;
+            }
+
+            int p = offset + y * stride;
+            for (int x = 0; x < width; x++, p++) {
+                double rs = 0.0;
+                double gs = 0.0;
+                double bs = 0.0;
+
+                for (int i = rFrom; i < gFrom; i++) {
+                    double dx = x0[i] - x;
+                    rs += sign[i] * (1.0 - Math.sqrt(dx * dx + rowDistSq[i]) / diag);
+                }
+                for (int i = gFrom; i < bFrom; i++) {
+                    double dx = x0[i] - x;
+                    gs += sign[i] * (1.0 - Math.sqrt(dx * dx + rowDistSq[i]) / diag);
+                }
+                for (int i = bFrom; i < bTo; i++) {
+                    double dx = x0[i] - x;
+                    bs += sign[i] * (1.0 - Math.sqrt(dx * dx + rowDistSq[i]) / diag);
+                }
+
+                double rn = COLOR_VAL_HALF + colorScale * rs;
+                double gn = COLOR_VAL_HALF + colorScale * gs;
+                double bn = COLOR_VAL_HALF + colorScale * bs;
+
+                /* fix color parts */
+                rn = rn > COLOR_VAL_MAX ? COLOR_VAL_MAX : (rn < COLOR_VAL_MIN ? COLOR_VAL_MIN : rn);
+                gn = gn > COLOR_VAL_MAX ? COLOR_VAL_MAX : (gn < COLOR_VAL_MIN ? COLOR_VAL_MIN : gn);
+                bn = bn > COLOR_VAL_MAX ? COLOR_VAL_MAX : (bn < COLOR_VAL_MIN ? COLOR_VAL_MIN : bn);
+
+                target[p] = (255 << 24) | ((int)rn << 16) | ((int)gn << 8) | (int)bn;
+            }
+        }
+    }
+
+    /**
+     * Calculates pixels colors of rows from <code>rowFrom</code> inclusive
+     * to <code>rowTo</code> exclusive evaluating and blending all layers in one pass,
+     * pixel is written once after the last layer.
+     *
+     * @param rowFrom   first row
+     * @param rowTo     row after last one
+     * @param target    destination ARGB pixels
+     * @param offset    index of first frame pixel
+     * @param stride    count of array elements between rows starts
+     * @param task      calculating worker, owner of scratch arrays
+     */
+    private void updateFieldLayers(int rowFrom, int rowTo, int[] target, int offset, int stride, FieldTask task) {
+        double[] rowDistSq = task.rowDistSq;
+        double[] color = task.layerColor;
+
+        for (int y = rowFrom; y < rowTo; y++) {
+            for (int i = 0; i < sourceCount; i++) {
+                double dy = orderedSourceY[i] - y;
+                rowDistSq[i] = dy * dy;
+            }
+
+            int p = offset + y * stride;
+            for (int x = 0; x < width; x++, p++) {
+                blendLayers(x, rowDistSq, color);
+                target[p] = (255 << 24) | ((int)color[0] << 16) | ((int)color[1] << 8) | (int)color[2];
+            }
+        }
+    }
+
+    /**
+     * Calculates pixels colors of rows from <code>rowFrom</code> inclusive
+     * to <code>rowTo</code> exclusive for layers of {@link #SOURCES_PER_CHANNEL_DEFAULT} sources per channel.
+     * Layer is evaluated over whole row from precalculated column distances
+     * and blended into row of channels, pixels are written once after the last layer.
+     * Colors are equal to ones of {@link #blendLayers}.
+     *
+     * @param rowFrom   first row
+     * @param rowTo     row after last one
+     * @param target    destination ARGB pixels
+     * @param offset    index of first frame pixel
+     * @param stride    count of array elements between rows starts
+     * @param task      calculating worker, owner of scratch arrays
+     */
+    private void updateFieldLayersDefault(int rowFrom, int rowTo, int[] target, int offset, int stride,
+            FieldTask task) {
+        double[] rowDistSq = task.rowDistSq;
+        int rowSize = width * CHANNEL_COUNT;
+        double[] scratch = task.getScratch(2 * rowSize);
+        int count = sourceCount;
+
+        for (int y = rowFrom; y < rowTo; y++) {
+            for (int i = 0; i < count; i++) {
+                double dy = orderedSourceY[i] - y;
+                rowDistSq[i] = dy * dy;
+            }
+
+            for (int l = 0; l < layerCount; l++) {
+                /* base plasma goes to blended channels, layers above go after them */
+                int k = l * SOURCE_COUNT;
+                int from = l == 0 ? 0 : rowSize;
+
+                /* attractor and repulsor of channel are adjacent in order */
+                double r1 = rowDistSq[k];
+                double r2 = rowDistSq[k + 1];
+                double g1 = rowDistSq[k + 2];
+                double g2 = rowDistSq[k + 3];
+                double b1 = rowDistSq[k + 4];
+                double b2 = rowDistSq[k + 5];
+
+                for (int x = 0, i = k, c = from; x < width; x++, i += count, c += CHANNEL_COUNT) {
+                    double rn = COLOR_VAL_HALF + COLOR_VAL_MAX *
+                            ((1.0 - Math.sqrt(columnDistSq[i] + r1) / diag) -
+                             (1.0 - Math.sqrt(columnDistSq[i + 1] + r2) / diag));
+                    double gn = COLOR_VAL_HALF + COLOR_VAL_MAX *
+                            ((1.0 - Math.sqrt(columnDistSq[i + 2] + g1) / diag) -
+                             (1.0 - Math.sqrt(columnDistSq[i + 3] + g2) / diag));
+                    double bn = COLOR_VAL_HALF + COLOR_VAL_MAX *
+                            ((1.0 - Math.sqrt(columnDistSq[i + 4] + b1) / diag) -
+                             (1.0 - Math.sqrt(columnDistSq[i + 5] + b2) / diag));
+
+                    /* fix color parts */
+                    scratch[c] = rn > COLOR_VAL_MAX ? COLOR_VAL_MAX : (rn < COLOR_VAL_MIN ? COLOR_VAL_MIN : rn);
+                    scratch[c + 1] = gn > COLOR_VAL_MAX ? COLOR_VAL_MAX : (gn < COLOR_VAL_MIN ? COLOR_VAL_MIN : gn);
+                    scratch[c + 2] = bn > COLOR_VAL_MAX ? COLOR_VAL_MAX : (bn < COLOR_VAL_MIN ? COLOR_VAL_MIN : bn);
+                }
+
+                if (l > 0) {
+                    blendRow(layerBlend[l], layerOpacity[l], scratch, rowSize);
+                }
+            }
+
+            int p = offset + y * stride;
+            for (int c = 0; c < rowSize; c += CHANNEL_COUNT, p++) {
+                target[p] = (255 << 24) | ((int)scratch[c] << 16) | ((int)scratch[c + 1] << 8) | (int)scratch[c + 2];
+            }
+        }
+    }
+
+    /**
+     * Blends channels of layer row over channels of layers below like {@link #blendLayers} does.
+     * Blend is chosen once per row, so loops have no branches.
+     *
+     * @param blend     layer blend
+     * @param opacity   layer opacity
+     * @param channels  channels below from 0 to <code>size</code>, layer channels from <code>size</code>
+     * @param size      count of channels of row
+     */
+    private void blendRow(PlasmaLayer.Blend blend, double opacity, double[] channels, int size) {
+        if (blend == PlasmaLayer.Blend.ADD) {
+            for (int c = 0; c < size; c++) {
+                channels[c] = Math.min(COLOR_VAL_MAX, channels[c] + opacity * channels[size + c]);
+            }
+        } else if (blend == PlasmaLayer.Blend.MULTIPLY) {
+            for (int c = 0; c < size; c++) {
+                channels[c] *= 1.0 - opacity + opacity * channels[size + c] / COLOR_VAL_MAX;
+            }
+        } else {
+            for (int c = 0; c < size; c++) {
+                channels[c] += opacity * (channels[size + c] - channels[c]);
+            }
+        }
+    }
+
+    /**
+     * Evaluates every layer at point and blends it over layers below.
+     * Layer channels are clamped like channels of single plasma before blending.
+     *
+     * @param x         point column
+     * @param rowDistSq squared vertical distances of ordered sources to point row
+     * @param color     destination of blended channels from 0 to 255
+     */
+    private void blendLayers(double x, double[] rowDistSq, double[] color) {
+        double[] x0 = orderedSourceX;
+        double[] sign = orderedSourceSign;
+        int[] bounds = channelSources;
+
+        for (int l = 0, b = 0; l < layerCount; l++) {
+            PlasmaLayer.Blend blend = layerBlend[l];
+            double opacity = layerOpacity[l];
+
+            for (int c = 0; c < CHANNEL_COUNT; c++, b++) {
+                double sum = 0.0;
+                for (int i = bounds[b], end = bounds[b + 1]; i < end; i++) {
+                    double dx = x0[i] - x;
+                    sum += sign[i] * (1.0 - Math.sqrt(dx * dx + rowDistSq[i]) / diag);
+                }
+
+                double v = COLOR_VAL_HALF + colorScale * sum;
+                v = v > COLOR_VAL_MAX ? COLOR_VAL_MAX : (v < COLOR_VAL_MIN ? COLOR_VAL_MIN : v);
+
+                if (l == 0) {
+                    color[c] = v;
+                } else if (blend == PlasmaLayer.Blend.ADD) {
+                    color[c] = Math.min(COLOR_VAL_MAX, color[c] + opacity * v);
+                } else if (blend == PlasmaLayer.Blend.MULTIPLY) {
+                    color[c] *= 1.0 - opacity + opacity * v / COLOR_VAL_MAX;
+                } else {
+                    color[c] += opacity * (v - color[c]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills scaled distance lookup table.
+     * Entry <code>i</code> is <code>255 * distance / diag</code> in fixed-point color units
+     * for squared fixed-point distances from <code>i &lt;&lt; distTableShift</code>
+     * to <code>(i + 1) &lt;&lt; distTableShift</code>.
+     *
+     * @param size  count of used table entries
+     */
+    private void updateDistTable(int size) {
+        if (distTable == null || distTable.length < size) {
+            distTable = new int[size];
+        }
+        int[] table = distTable;
+        double fixedDiag = diag * (1 << fixedShift);
+        double colorScale = (double)(COLOR_VAL_MAX << COLOR_SHIFT) / fixedDiag;
+        double bucket = 1L << distTableShift;
+
+        for (int i = 0; i < size; i++) {
+            /* first bucket starts at exact zero distance */
+            double distSq = i == 0 ? 0.0 : (i + 0.5) * bucket;
+            table[i] = (int)Math.round(Math.sqrt(distSq) * colorScale);
+        }
+    }
+
+    /**
+     * Calculates squared fixed-point diagonal of area.
+     *
+     * @param width     area width
+     * @param height    area height
+     * @param shift     fixed-point fraction bits
+     * @return          squared diagonal
+     */
+    private static long fixedDistSq(int width, int height, int shift) {
+        long w = (long)width << shift;
+        long h = (long)height << shift;
+
+        return w * w + h * h;
+    }
+
+    /**
+     * Calculates pixels colors using worker pool.
+     * Returns when all tile rows are done, waiting is not interrupted
+     * because workers write into frame target until then.
+     */
+    private void updateFieldParallel() {
+        nextFieldBand.set(0);
+
+        boolean isInterrupted = false;
+        Throwable error;
+        synchronized (fieldSync) {
+            fieldGeneration++;
+            finishedTaskCount = 0;
+            fieldError = null;
+            fieldSync.notifyAll();
+
+            while (finishedTaskCount < threadCount && !isReleased) {
+                try {
+                    fieldSync.wait();
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                }
+            }
+            error = fieldError;
+        }
+
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (error != null) {
+            throw new RuntimeException(error);
+        }
+    }
+
+    /**
+     * Calculates actual object coordinate.
+     *
+     * @param cord      initial object coordinate
+     * @param speed     object speed
+     * @param size      area size
+     * @param time      desired time
+     * @return          new object coordinate
+     */
+    private double getNewCord(double cord, double speed, double size, double time) {
+        /* new coordinate remainder */
+        double rem = (speed * time) % (2.0 * size);
+        double val;
+
+        /* object in area scope */
+        if (cord + rem >= 0.0 && cord + rem < size){
+            val = cord + rem;
+        /* object has left area scope */
+        } else if (cord + rem > size) {
+            if (cord + rem > 2.0 * size) {
+                val = cord + rem - 2.0 * size;
+            } else {
+                val = size - (cord + rem - size);
+            }
+        } else {
+            if ( cord + rem < -1.0 * size) {
+                val = size - (-1.0 * (cord + rem) - size);
+            } else {
+                val = -1.0 * (cord + rem);
+            }
+        }
+
+        return val;
+    }
+
+
+    /**
+     * Field calculation worker, pulls tile rows of current phase until none left.
+     * Buffer targets are calculated into own staging array band by band,
+     * bands are copied one at a time, since buffer position is shared.
+     * Worker owns scratch arrays of kernels, so frames are calculated without allocations.
+     */
+    private final class FieldTask implements Runnable {
+
+        private int[] bandPixels;
+
+        /* kernels scratch */
+        final double[] rowDistSq = new double[sourceCount];
+        final int[] fixedRowDistSq = new int[SOURCE_COUNT];
+        final double[] layerColor = new double[CHANNEL_COUNT];
+        private double[] scratch;
+        private int[] latticeRow;
+
+        /**
+         * Runs every started generation until instance is released.
+         */
+        @Override
+        public void run() {
+            long generation = 0;
+
+            while (true) {
+                synchronized (fieldSync) {
+                    while (fieldGeneration == generation && !isReleased) {
+                        try {
+                            fieldSync.wait();
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                    if (isReleased) {
+                        return;
+                    }
+                    generation = fieldGeneration;
+                }
+
+                Throwable error = null;
+                try {
+                    calculate();
+                } catch (Throwable e) {
+                    error = e;
+                }
+
+                synchronized (fieldSync) {
+                    if (error != null && fieldError == null) {
+                        fieldError = error;
+                    }
+                    if (++finishedTaskCount == threadCount) {
+                        fieldSync.notifyAll();
+                    }
+                }
+            }
+        }
+
+        double[] getScratch(int size) {
+            if (scratch == null || scratch.length < size) {
+                scratch = new double[size];
+            }
+            return scratch;
+        }
+
+        int[] getLatticeRow(int size) {
+            if (latticeRow == null || latticeRow.length < size) {
+                latticeRow = new int[size];
+            }
+            return latticeRow;
+        }
+
+        /**
+         * Calculates tile rows of current phase until none left.
+         */
+        void calculate() {
+
+            int band;
+            while ((band = nextFieldBand.getAndIncrement()) * TILE_SIZE < bandRows) {
+                int rowFrom = band * TILE_SIZE;
+                int rowTo = Math.min(rowFrom + TILE_SIZE, bandRows);
+
+                if (isLatticePhase) {
+                    updateLattice(rowFrom, rowTo, this);
+                } else if (bufferTarget == null) {
+                    updateField(rowFrom, rowTo, target, targetOffset, targetStride, this);
+                } else {
+                    if (bandPixels == null || bandPixels.length < TILE_SIZE * width) {
+                        bandPixels = new int[TILE_SIZE * width];
+                    }
+
+                    updateField(rowFrom, rowTo, bandPixels, -rowFrom * width, width, this);
+                    synchronized (bufferSync) {
+                        bufferFormat.put(bandPixels, 0, bufferTarget, bufferOffset + rowFrom * width,
+                                (rowTo - rowFrom) * width);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Lazily loaded {@link Mode#VECTOR} kernel, <code>null</code> if it is not supported.
+     */
+    private static final class VectorKernelHolder {
+
+        static final RowKernel KERNEL = loadKernel();
+
+        private static RowKernel loadKernel() {
+            try {
+                return (RowKernel)Class.forName(VECTOR_KERNEL_CLASS).getConstructor().newInstance();
+            } catch (Throwable ignored) {
+                /* class or vector module is missing */
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.vitalyobukhov.plasmademo;
+
+
+/**
+ * Additional plasma layer blended over base plasma of {@link PlasmaCore}.
+ * Layer has own attractors / repulsors generated from its seed, same count per channel as base plasma.
+ * Channels are blended as values from 0 to 1 in layers order.
+ *
+ * @author Vitaly Obukhov
+ * @version 1.0
+ */
+public final class PlasmaLayer {
+
+
+    /**
+     * Channel blend of layer <code>l</code> over result of layers below <code>b</code> with opacity <code>a</code>.
+     */
+    public enum Blend {
+        /** <code>min(1, b + a * l)</code> */
+        ADD,
+        /** <code>b * (1 - a + a * l)</code> */
+        MULTIPLY,
+        /** <code>b + a * (l - b)</code> */
+        ALPHA
+    }
+
+
+    private final long seed;
+    private final Blend blend;
+    private final double opacity;
+
+
+    /**
+     * Creates layer.
+     *
+     * @param seed      random generator seed of layer sources
+     * @param blend     blend over layers below
+     * @param opacity   opacity from 0 to 1
+     */
+    public PlasmaLayer(long seed, Blend blend, double opacity) {
+        if (blend == null) {
+            throw new IllegalArgumentException("blend");
+        }
+        if (!(opacity >= 0.0 && opacity <= 1.0)) {
+            throw new IllegalArgumentException("opacity");
+        }
+
+        this.seed = seed;
+        this.blend = blend;
+        this.opacity = opacity;
+    }
+
+
+    public final long getSeed() {
+        return seed;
+    }
+
+    public final Blend getBlend() {
+        return blend;
+    }
+
+    public final double getOpacity() {
+        return opacity;
+    }
+}
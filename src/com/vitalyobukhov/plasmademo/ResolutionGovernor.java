@@ -0,0 +1,115 @@
+package com.vitalyobukhov.plasmademo;
+
+
+/**
+ * Chooses render resolution level by frame times against frame budget.
+ * <p>
+ * Frame times are collected in windows of {@link #WINDOW_FRAMES} frames.
+ * Level is lowered after single window where more than {@link #OVER_BUDGET_RATIO} of frames
+ * exceeded budget, and raised only after {@link #RAISE_WINDOWS} consecutive windows
+ * which average was below {@link #RAISE_LOAD} of budget, so level does not oscillate
+ * around the boundary. Window right after level change is ignored.
+ *
+ * @author Vitaly Obukhov
+ * @version 1.0
+ */
+public final class ResolutionGovernor {
+
+
+    public static final int WINDOW_FRAMES = 30;
+    public static final double OVER_BUDGET_RATIO = 0.1;
+    public static final double RAISE_LOAD = 0.5;
+    public static final int RAISE_WINDOWS = 3;
+
+
+    /* levels, from lowest resolution to highest */
+    private final int levelCount;
+    private volatile int level;
+
+    /* current window */
+    private int windowFrames;
+    private int windowOverBudget;
+    private long windowTime;
+    private boolean isCoolingDown;
+
+    /* count of consecutive light windows */
+    private int lightWindows;
+
+
+    /**
+     * Creates instance with <code>levelCount</code> levels starting from <code>level</code>.
+     *
+     * @param levelCount    count of resolution levels, level 0 is the lowest resolution
+     * @param level         initial level
+     */
+    public ResolutionGovernor(int levelCount, int level) {
+        if (levelCount < 1) {
+            throw new IllegalArgumentException("levelCount");
+        }
+        if (level < 0 || level >= levelCount) {
+            throw new IllegalArgumentException("level");
+        }
+
+        this.levelCount = levelCount;
+        this.level = level;
+        isCoolingDown = false;
+    }
+
+
+    /**
+     * Counts single frame time.
+     *
+     * @param frameTime frame time in nanoseconds
+     * @param budget    frame budget in nanoseconds
+     * @return          <code>true</code> if level was changed
+     */
+    public final boolean update(long frameTime, long budget) {
+        windowFrames++;
+        windowTime += frameTime;
+        if (frameTime > budget) {
+            windowOverBudget++;
+        }
+
+        if (windowFrames < WINDOW_FRAMES) {
+            return false;
+        }
+
+        int newLevel = level;
+        if (isCoolingDown) {
+            isCoolingDown = false;
+        } else if (windowOverBudget > OVER_BUDGET_RATIO * windowFrames) {
+            lightWindows = 0;
+            newLevel = Math.max(0, level - 1);
+        } else if (windowTime < RAISE_LOAD * budget * windowFrames) {
+            if (++lightWindows >= RAISE_WINDOWS) {
+                lightWindows = 0;
+                newLevel = Math.min(levelCount - 1, level + 1);
+            }
+        } else {
+            lightWindows = 0;
+        }
+
+        windowFrames = 0;
+        windowOverBudget = 0;
+        windowTime = 0;
+
+        if (newLevel != level) {
+            level = newLevel;
+            isCoolingDown = true;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return  current level, 0 is the lowest resolution
+     */
+    public final int getLevel() {
+        return level;
+    }
+
+    public final int getLevelCount() {
+        return levelCount;
+    }
+}
@@ -1,13 +1,23 @@
 package com.vitalyobukhov.plasmademo;
 
-import android.os.SystemClock;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Thread which able to perform provided <code>update</code> action
- * using provided fps and calculate real fps
+ * using provided fps and calculate real fps.
+ * Updates are paced by {@link FrameScheduler}.
+ * Real fps is count of updates per real fps update delay.
+ * <p>
+ * Thread can not be started again after {@link #end()}, so it is paused instead
+ * while there is nothing to draw: paused thread waits for {@link #setPaused resume}
+ * without polling, and schedule is restarted on resume.
+ * <p>
+ * Updates, scheduler sleeps and stalls are recorded to {@link FrameTrace} if one is set.
+ * Stall is gap between starts of updates longer than {@link #STALL_PERIODS} periods,
+ * it is marked when garbage collection was detected during it.
  *
  * @author  Vitaly Obukhov
- * @version 1.1
+ * @version 1.4
  */
 public class UpdateThread extends Thread {
 
@@ -15,43 +25,54 @@ public class UpdateThread extends Thread {
     public static final int FPS_MAX = 1000;
     public static final int FPS_DEFAULT = 100;
     public static final int REAL_FPS_UPDATE_DELAY_DEFAULT = 1000;
-    private static final int MILLISECONDS_IN_SECOND = 1000;
+    public static final int STALL_PERIODS = 3;
+    private static final long NANOSECONDS_IN_MILLISECOND = 1000000L;
 
 
     /* thread state */
-    private boolean isRunning;
-    private final Object isRunningSync;
+    private final AtomicBoolean isRunning;
+    private boolean isPaused;
+    private final Object isPausedSync;
 
     /* desired fps */
-    private int fps;
-    private final Object fpsSync;
-    private int delay;
+    private volatile int fps;
+    private final FrameScheduler scheduler;
 
     /* actual fps */
-    private int realFps;
-    private final Object realFpsSync;
+    private volatile int realFps;
+    private int realFpsFrameCount;
 
     /* real fps update latency */
-    private int realFpsUpdateDelay;
-    private final Object realFpsUpdateDelaySync;
+    private volatile int realFpsUpdateDelay;
     private long lastRealFpsUpdateTime;
 
+    /* tracing */
+    private volatile FrameTrace trace;
+    private long lastUpdateStart;
+
     /**
      * Creates instance with default fields values.
      */
     public UpdateThread() {
-        isRunningSync = new Object();
-        fpsSync = new Object();
-        realFpsSync = new Object();
-        realFpsUpdateDelaySync = new Object();
+        this(FrameScheduler.SYSTEM_CLOCK);
+    }
 
-        isRunning = false;
+    /**
+     * Creates instance with default fields values which uses <code>clock</code> for pacing.
+     *
+     * @param clock time source
+     */
+    public UpdateThread(FrameScheduler.Clock clock) {
+        isRunning = new AtomicBoolean(false);
+        isPaused = false;
+        isPausedSync = new Object();
 
         fps = FPS_DEFAULT;
-        delay = MILLISECONDS_IN_SECOND / fps;
+        scheduler = new FrameScheduler(clock, FrameScheduler.NANOSECONDS_IN_SECOND / fps);
         realFps = 0;
         realFpsUpdateDelay = REAL_FPS_UPDATE_DELAY_DEFAULT;
         lastRealFpsUpdateTime = 0;
+        lastUpdateStart = 0;
     }
 
 
@@ -65,99 +86,184 @@ public class UpdateThread extends Thread {
      */
     @Override
     public final void run() {
-        synchronized (isRunningSync) {
-            if (!isRunning) {
-                isRunning = true;
-            } else {
-                return;
-            }
+        if (!isRunning.compareAndSet(false, true)) {
+            return;
         }
 
-        setRealFps(0);
+        FrameScheduler.Clock clock = scheduler.getClock();
+        realFps = 0;
+        realFpsFrameCount = 0;
+        scheduler.start();
+        lastRealFpsUpdateTime = clock.nanoTime();
+        lastUpdateStart = 0;
 
-        while (true) {
-            synchronized (isRunningSync) {
-                if (!isRunning) {
-                    break;
-                }
+        FrameTrace trace = this.trace;
+        if (trace != null) {
+            trace.nameThread(getName());
+        }
+
+        while (isRunning.get()) {
+            if (awaitResume()) {
+                /* paused time is neither frames nor misses */
+                realFps = 0;
+                realFpsFrameCount = 0;
+                scheduler.start();
+                lastRealFpsUpdateTime = clock.nanoTime();
+                lastUpdateStart = 0;
+                continue;
             }
 
-            /* calculate update time span */
-            long startTime = SystemClock.uptimeMillis();
-            update();
-            long spentTime = SystemClock.uptimeMillis() - startTime;
-            long diffTime = delay - spentTime;
+            trace = this.trace;
+            if (trace == null) {
+                update();
+            } else {
+                tracedUpdate(trace);
+            }
+            realFpsFrameCount++;
 
-            /* delay */
-            if (diffTime > 0) {
-                try {
-                    Thread.sleep(diffTime);
-                }
-                catch(InterruptedException ignored){
-                }
+            /* delay until next frame deadline */
+            try {
+                scheduler.awaitNextFrame();
+            }
+            catch(InterruptedException ignored){
             }
 
             /* recalculate real fps if required */
-            long now = SystemClock.uptimeMillis();
-            if (lastRealFpsUpdateTime + realFpsUpdateDelay <= now) {
-                int newRealFps = spentTime != 0 ? (int)Math.floor((double) MILLISECONDS_IN_SECOND / spentTime) : FPS_MAX;
-                setRealFps(newRealFps);
+            long now = clock.nanoTime();
+            long realFpsTime = now - lastRealFpsUpdateTime;
+            if (realFpsTime >= realFpsUpdateDelay * NANOSECONDS_IN_MILLISECOND && realFpsTime > 0) {
+                realFps = (int)Math.min(FPS_MAX,
+                        Math.round((double)realFpsFrameCount * FrameScheduler.NANOSECONDS_IN_SECOND / realFpsTime));
+                realFpsFrameCount = 0;
                 lastRealFpsUpdateTime = now;
             }
         }
 
-        setRealFps(0);
+        realFps = 0;
+    }
+
+    /**
+     * Performs update and records it with stall before it if any.
+     *
+     * @param trace trace to record to
+     */
+    private void tracedUpdate(FrameTrace trace) {
+        long start = System.nanoTime();
+        boolean isCollected = trace.pollCollection();
+
+        long gap = start - lastUpdateStart;
+        if (lastUpdateStart != 0 && gap > STALL_PERIODS * scheduler.getPeriod()) {
+            trace.record(FrameTrace.Event.STALL, isCollected ? 1 : 0, lastUpdateStart, gap);
+        }
+        lastUpdateStart = start;
+
+        update();
+        trace.record(FrameTrace.Event.FRAME, 0, start, System.nanoTime() - start);
+    }
+
+    /**
+     * Waits while instance is paused.
+     *
+     * @return  <code>true</code> if instance was paused
+     */
+    private boolean awaitResume() {
+        synchronized (isPausedSync) {
+            if (!isPaused) {
+                return false;
+            }
+
+            while (isPaused && isRunning.get()) {
+                try {
+                    isPausedSync.wait();
+                } catch (InterruptedException ignored) {
+                }
+            }
+            return true;
+        }
     }
 
     /**
      * Finishes current instance execution.
      */
     public final void end() {
-        synchronized (isRunningSync) {
-            if (isRunning) {
-                isRunning = false;
-            }
+        isRunning.set(false);
+
+        synchronized (isPausedSync) {
+            isPausedSync.notifyAll();
+        }
+    }
+
+    public final boolean getPaused() {
+        synchronized (isPausedSync) {
+            return isPaused;
+        }
+    }
+
+    /**
+     * Pauses or resumes updates. Paused thread finishes current update and waits
+     * without consuming CPU, resumed thread starts next update immediately.
+     *
+     * @param val   <code>true</code> to pause
+     */
+    public final void setPaused(boolean val) {
+        synchronized (isPausedSync) {
+            isPaused = val;
+            isPausedSync.notifyAll();
         }
     }
 
     public final void setFps(int val) {
-        synchronized (fpsSync) {
-            if (val > 0 && val <= FPS_MAX) {
-                fps = val;
-                delay = 1000 / fps;
-            }
+        if (val > 0 && val <= FPS_MAX) {
+            fps = val;
+            scheduler.setPeriod(FrameScheduler.NANOSECONDS_IN_SECOND / val);
         }
     }
 
     public final int getFps() {
-        synchronized (fpsSync) {
-            return fps;
-        }
+        return fps;
     }
 
     public final int getRealFps() {
-        synchronized (realFpsSync) {
-            return realFps;
-        }
+        return realFps;
     }
 
     public final int getRealFpsUpdateDelay() {
-        synchronized (realFpsUpdateDelaySync) {
-            return  realFpsUpdateDelay;
-        }
+        return realFpsUpdateDelay;
     }
 
     public final void setRealFpsUpdateDelay(int val) {
-        synchronized (realFpsUpdateDelaySync) {
-            if (val >= 0) {
-                realFpsUpdateDelay = val;
-            }
+        if (val >= 0) {
+            realFpsUpdateDelay = val;
         }
     }
 
-    private void setRealFps(int val) {
-        synchronized (realFpsSync) {
-            realFps = val;
-        }
+    public final FrameScheduler.MissPolicy getMissPolicy() {
+        return scheduler.getMissPolicy();
+    }
+
+    public final void setMissPolicy(FrameScheduler.MissPolicy val) {
+        scheduler.setMissPolicy(val);
+    }
+
+    public final FrameTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * Sets trace to record updates, stalls and scheduler sleeps to.
+     * Thread name is recorded when thread starts.
+     *
+     * @param val   trace, <code>null</code> to stop recording
+     */
+    public final void setTrace(FrameTrace val) {
+        trace = val;
+        scheduler.setTrace(val);
+    }
+
+    /**
+     * @return  count of updates finished after their deadline
+     */
+    public final long getMissedFrameCount() {
+        return scheduler.getMissedCount();
     }
 }
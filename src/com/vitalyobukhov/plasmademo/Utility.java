@@ -59,9 +59,10 @@ public final class Utility {
 
     /**
      * {@link Paint} utility methods wrapper.
+     * Methods which take <code>bounds</code> use it as scratch and do not allocate.
      *
      * @author      Vitaly Obukhov
-     * @version     1.0
+     * @version     1.1
      */
     public static class PaintUtility {
 
@@ -77,7 +78,22 @@ public final class Utility {
          */
         public static void adjustFontSize(Paint paint, String text,
                 int charCount, Rect area, boolean isVerticalDirection) {
-            Rect bounds = new Rect();
+            adjustFontSize(paint, text, charCount, area, isVerticalDirection, new Rect());
+        }
+
+        /**
+         * Adjusts <code>paint</code> <code>textSize</code> to fit <code>area</code>
+         * using specified character count and direction
+         *
+         * @param paint                 Paint for adjustment
+         * @param text                  text for testing
+         * @param charCount             count of text character to fit by <code>area</code> size
+         * @param area                  area to fit
+         * @param isVerticalDirection   <code>false</code> to use standard horizontal text direction
+         * @param bounds                scratch text bounds
+         */
+        public static void adjustFontSize(Paint paint, String text,
+                int charCount, Rect area, boolean isVerticalDirection, Rect bounds) {
             paint.getTextBounds(text, 0, text.length(), bounds);
 
             float currentCharCount;
@@ -99,7 +115,18 @@ public final class Utility {
          * @return          character width
          */
         public static float getFontCharWidth(Paint paint, String text) {
-            Rect bounds = new Rect();
+            return getFontCharWidth(paint, text, new Rect());
+        }
+
+        /**
+         * Calculates single character width using <code>paint</code>
+         *
+         * @param paint     Paint for character
+         * @param text      text for testing
+         * @param bounds    scratch text bounds
+         * @return          character width
+         */
+        public static float getFontCharWidth(Paint paint, String text, Rect bounds) {
             paint.getTextBounds(text, 0, text.length(), bounds);
 
             return 1.0f * bounds.width() / text.length();
@@ -113,7 +140,18 @@ public final class Utility {
          * @return          character height
          */
         public static float getFontCharHeight(Paint paint, String text) {
-            Rect bounds = new Rect();
+            return getFontCharHeight(paint, text, new Rect());
+        }
+
+        /**
+         * Calculates single character height using <code>paint</code>
+         *
+         * @param paint     Paint for character
+         * @param text      text for testing
+         * @param bounds    scratch text bounds
+         * @return          character height
+         */
+        public static float getFontCharHeight(Paint paint, String text, Rect bounds) {
             paint.getTextBounds(text, 0, text.length(), bounds);
 
             return 1.0f * bounds.height();
@@ -125,12 +163,13 @@ public final class Utility {
      * {@link View} utility methods wrapper.
      *
      * @author Vitaly Obukhov
-     * @version 1.0
+     * @version 1.1
      */
     public static class ViewUtility {
 
         /**
-         * Gets device screen size.
+         * Gets device screen size in current orientation.
+         * Size of view itself is known from surface or layout callbacks, this is the initial guess.
          *
          * @param view  source View
          * @return      <code>Rect</code> which has width and height of screen
@@ -138,8 +177,10 @@ public final class Utility {
         public static Rect getScreenSize(View view){
             WindowManager windowManager = (WindowManager)view.getContext().getSystemService(Context.WINDOW_SERVICE);
             Display display = windowManager.getDefaultDisplay();
+            Point size = new Point();
+            display.getSize(size);
 
-            return new Rect(0, 0, display.getWidth(), display.getHeight());
+            return new Rect(0, 0, size.x, size.y);
         }
     }
 }